@@ -96,8 +96,13 @@ public class BaseAndroidTestCase {
 
   private static void prepareDatabase() {
     dbHelper.getDatabase(true).delete(DbHelper.TABLE_NOTES, null, null);
+    dbHelper.rebuildSearchIndex();
+    dbHelper.getDatabase(true).delete(DbHelper.TABLE_NOTE_TAGS, null, null);
+    dbHelper.getDatabase(true).delete(DbHelper.TABLE_NOTE_STATS, null, null);
     dbHelper.getDatabase(true).delete(DbHelper.TABLE_CATEGORY, null, null);
     dbHelper.getDatabase(true).delete(DbHelper.TABLE_ATTACHMENTS, null, null);
+    dbHelper.getDatabase(true).delete(DbHelper.TABLE_PASSWORD_REKEY, null, null);
+    dbHelper.getDatabase(true).delete(DbHelper.TABLE_BACKUP_JOB, null, null);
     assertFalse("Database MUST be writable", dbHelper.getDatabase(true).isReadOnly());
   }
 
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.db;
+
+import static it.feio.android.omninotes.db.DbHelper.KEY_ARCHIVED;
+import static it.feio.android.omninotes.db.DbHelper.KEY_ATTACHMENT_MIME_TYPE;
+import static it.feio.android.omninotes.db.DbHelper.KEY_ATTACHMENT_NAME;
+import static it.feio.android.omninotes.db.DbHelper.KEY_ATTACHMENT_NOTE_ID;
+import static it.feio.android.omninotes.db.DbHelper.KEY_ATTACHMENT_URI;
+import static it.feio.android.omninotes.db.DbHelper.KEY_CONTENT;
+import static it.feio.android.omninotes.db.DbHelper.KEY_CREATION;
+import static it.feio.android.omninotes.db.DbHelper.KEY_LAST_MODIFICATION;
+import static it.feio.android.omninotes.db.DbHelper.KEY_TITLE;
+import static it.feio.android.omninotes.db.DbHelper.KEY_TRASHED;
+import static it.feio.android.omninotes.db.DbHelper.TABLE_ATTACHMENTS;
+import static it.feio.android.omninotes.db.DbHelper.TABLE_NOTES;
+import static it.feio.android.omninotes.utils.ConstantsBase.MIME_TYPE_IMAGE;
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import it.feio.android.omninotes.BaseAndroidTestCase;
+import it.feio.android.omninotes.helpers.LogDelegate;
+import it.feio.android.omninotes.models.Note;
+import it.feio.android.omninotes.models.NotesPage;
+import java.util.List;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Measures notes list loading and searching times on big databases. Results are printed in logs.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+@Ignore("runned manually")
+public class DbHelperBenchmarkTest extends BaseAndroidTestCase {
+
+  private static final int[] NOTES_NUMBERS = {1_000, 10_000, 50_000};
+
+
+  @Test
+  public void getNotes_attachmentsLoading() {
+    for (int notesNumber : NOTES_NUMBERS) {
+      prepareNotes(notesNumber);
+
+      long start = System.nanoTime();
+      List<Note> notes = dbHelper.getNotesActive();
+      long batched = System.nanoTime() - start;
+
+      // Previous behavior: one attachments query for each note
+      start = System.nanoTime();
+      for (Note note : notes) {
+        note.setAttachmentsList(dbHelper.getNoteAttachments(note));
+      }
+      long perNote = System.nanoTime() - start;
+
+      assertEquals(notesNumber, notes.size());
+      LogDelegate.i(String.format("Loading %d notes: batched attachments %d ms, "
+              + "per-note attachments queries (attachments only) %d ms", notesNumber,
+          batched / 1_000_000, perNote / 1_000_000));
+    }
+  }
+
+
+  @Test
+  public void getNotesByPattern_searchLatency() {
+    for (int notesNumber : NOTES_NUMBERS) {
+      prepareNotes(notesNumber);
+
+      long start = System.nanoTime();
+      List<Note> notes = dbHelper.getNotesByPattern("number 4999");
+      long fullText = System.nanoTime() - start;
+
+      // Previous behavior: substring match on every note
+      start = System.nanoTime();
+      dbHelper.getNotes(" WHERE " + KEY_TRASHED + " = 0 AND (" + KEY_TITLE
+          + " LIKE '%number 4999%' OR " + KEY_CONTENT + " LIKE '%number 4999%')", true);
+      long like = System.nanoTime() - start;
+
+      LogDelegate.i(String.format("Searching %d notes: full-text %d ms (%d results), "
+              + "LIKE scan %d ms", notesNumber, fullText / 1_000_000, notes.size(),
+          like / 1_000_000));
+    }
+  }
+
+
+  @Test
+  public void getNote_boundParameters() {
+    prepareNotes(NOTES_NUMBERS[0]);
+    int calls = 1_000;
+
+    long start = System.nanoTime();
+    for (long i = 1; i <= calls; i++) {
+      dbHelper.getNote(i);
+    }
+    long bound = System.nanoTime() - start;
+
+    // Previous behavior: id concatenated into query text, compiled again at each call
+    start = System.nanoTime();
+    for (long i = 1; i <= calls; i++) {
+      dbHelper.getNotes(" WHERE " + KEY_CREATION + " = " + i, true);
+    }
+    long concatenated = System.nanoTime() - start;
+
+    LogDelegate.i(String.format("Getting single note: bound id %d us per call, "
+        + "concatenated id %d us per call", bound / calls / 1_000, concatenated / calls / 1_000));
+  }
+
+
+  @Test
+  public void getNoteSummaries_latencyDuringImport() throws InterruptedException {
+    for (boolean writeAheadLogging : new boolean[]{false, true}) {
+      dbHelper.setWriteAheadLoggingEnabled(writeAheadLogging);
+      prepareNotes(NOTES_NUMBERS[1]);
+
+      // Bulk import as done by backup restore, one note at a time
+      Thread importer = new Thread(() -> {
+        for (int i = 0; i < 1_000; i++) {
+          Note note = new Note();
+          note.setCreation(NOTES_NUMBERS[1] + 1L + i);
+          note.setTitle("imported " + i);
+          note.setContent("imported content " + i);
+          dbHelper.updateNote(note, false);
+        }
+      });
+      importer.start();
+
+      int reads = 0;
+      long maxLatency = 0;
+      long totalLatency = 0;
+      while (importer.isAlive()) {
+        long start = System.nanoTime();
+        dbHelper.getNoteSummaries("", NotesPage.first());
+        long latency = System.nanoTime() - start;
+        maxLatency = Math.max(maxLatency, latency);
+        totalLatency += latency;
+        reads++;
+      }
+      importer.join();
+
+      LogDelegate.i(String.format("Reading first page during import (write-ahead logging %b): "
+              + "%d reads, average %d ms, max %d ms", writeAheadLogging, reads,
+          totalLatency / Math.max(reads, 1) / 1_000_000, maxLatency / 1_000_000));
+    }
+    dbHelper.setWriteAheadLoggingEnabled(true);
+  }
+
+
+  static void prepareNotes(int notesNumber) {
+    SQLiteDatabase db = dbHelper.getDatabase(true);
+    db.delete(TABLE_NOTES, null, null);
+    db.delete(TABLE_ATTACHMENTS, null, null);
+    db.beginTransaction();
+    try {
+      for (long i = 1; i <= notesNumber; i++) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_CREATION, i);
+        values.put(KEY_LAST_MODIFICATION, i);
+        values.put(KEY_TITLE, "title " + i);
+        values.put(KEY_CONTENT, "content of the note number " + i + " with some #tag inside");
+        values.put(KEY_ARCHIVED, false);
+        values.put(KEY_TRASHED, false);
+        db.insert(TABLE_NOTES, null, values);
+        if (i % 2 == 0) {
+          ContentValues attachmentValues = new ContentValues();
+          attachmentValues.put(KEY_ATTACHMENT_NOTE_ID, i);
+          attachmentValues.put(KEY_ATTACHMENT_URI, "file:///attachment" + i + ".jpg");
+          attachmentValues.put(KEY_ATTACHMENT_NAME, "attachment" + i + ".jpg");
+          attachmentValues.put(KEY_ATTACHMENT_MIME_TYPE, MIME_TYPE_IMAGE);
+          db.insert(TABLE_ATTACHMENTS, null, attachmentValues);
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    dbHelper.rebuildSearchIndex();
+  }
+
+}
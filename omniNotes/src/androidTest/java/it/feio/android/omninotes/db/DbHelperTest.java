@@ -17,11 +17,32 @@
 
 package it.feio.android.omninotes.db;
 
+import static it.feio.android.omninotes.utils.ConstantsBase.PREF_PASSWORD;
+import static it.feio.android.omninotes.utils.ConstantsBase.PREF_SORTING_COLUMN;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import android.database.Cursor;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import it.feio.android.omninotes.BaseAndroidTestCase;
+import it.feio.android.omninotes.helpers.NotesHelper;
+import it.feio.android.omninotes.models.Attachment;
 import it.feio.android.omninotes.models.Note;
+import it.feio.android.omninotes.models.NotesPage;
+import it.feio.android.omninotes.models.Stats;
+import it.feio.android.omninotes.models.Tag;
+import it.feio.android.omninotes.models.misc.BackupJob;
+import it.feio.android.omninotes.models.misc.NavigationCounters;
+import it.feio.android.omninotes.utils.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -47,6 +68,53 @@ public class DbHelperTest extends BaseAndroidTestCase {
     assertEquals(1, dbHelper.getNotesByTag("#tagged").size());
   }
 
+  @Test
+  public void getNotesByTag_multipleTags() {
+    createTestNote("first", "#one #two", 0);
+    createTestNote("second", "#one", 0);
+
+    assertEquals(2, dbHelper.getNotesByTag("#one").size());
+    assertEquals(1, dbHelper.getNotesByTag("#one,#two").size());
+    assertEquals(0, dbHelper.getNotesByTag("#one,#three").size());
+  }
+
+  @Test
+  public void getTags_keptAlignedOnUpdate() {
+    Note note = createTestNote("title #first", "content #second", 0);
+    createTestNote("another", "#second", 0);
+
+    List<Tag> tags = dbHelper.getTags();
+    assertEquals(2, tags.size());
+    assertEquals("#first", tags.get(0).getText());
+    assertEquals(1, (int) tags.get(0).getCount());
+    assertEquals("#second", tags.get(1).getText());
+    assertEquals(2, (int) tags.get(1).getCount());
+
+    note.setTitle("title");
+    dbHelper.updateNote(note, true);
+    tags = dbHelper.getTags();
+    assertEquals(1, tags.size());
+    assertEquals("#second", tags.get(0).getText());
+
+    dbHelper.deleteNote(note);
+    assertEquals(1, (int) dbHelper.getTags().get(0).getCount());
+  }
+
+  @Test
+  public void getTags_lockedNotesTaggedOnlyByTitle() {
+    Note note = createTestNote("title #public", "content #private", 0);
+
+    note.setLocked(true);
+    dbHelper.updateNote(note, true);
+    List<Tag> tags = dbHelper.getTags();
+    assertEquals(1, tags.size());
+    assertEquals("#public", tags.get(0).getText());
+
+    note.setLocked(false);
+    dbHelper.updateNote(note, true);
+    assertEquals(2, dbHelper.getTags().size());
+  }
+
   @Test
   public void getNotesByPatternEscaped() {
     Note note1 = new Note();
@@ -65,4 +133,471 @@ public class DbHelperTest extends BaseAndroidTestCase {
     assertEquals(1, dbHelper.getNotesByPattern("%").size());
   }
 
+  @Test
+  public void getNotesByPattern_wordsPrefixes() {
+    createTestNote("Shopping list", "buy some milk", 0);
+    createTestNote("Another title", "milkshake recipe", 0);
+    createTestNote("Unrelated", "nothing to see", 0);
+
+    assertEquals(2, dbHelper.getNotesByPattern("milk").size());
+    assertEquals(1, dbHelper.getNotesByPattern("shop").size());
+    assertEquals(1, dbHelper.getNotesByPattern("some milk").size());
+    assertEquals(0, dbHelper.getNotesByPattern("absent").size());
+  }
+
+  @Test
+  public void getNotesByPattern_wordsInfixes() {
+    createTestNote("Omninotes", "about open source apps", 0);
+    createTestNote("Another title", "nothing to see", 0);
+
+    assertEquals(1, dbHelper.getNotesByPattern("note").size());
+    assertEquals(1, dbHelper.getNotesByPattern("notes about").size());
+    assertEquals(1, dbHelper.getNotesByPattern("pen sour").size());
+    assertEquals(0, dbHelper.getNotesByPattern("notes open").size());
+  }
+
+  @Test
+  public void getNotesByPattern_cjk() {
+    createTestNote("我的笔记本", "今天去超市买牛奶", 0);
+    createTestNote("Another title", "nothing to see", 0);
+
+    assertEquals(1, dbHelper.getNotesByPattern("笔记").size());
+    assertEquals(1, dbHelper.getNotesByPattern("买牛奶").size());
+    assertEquals(0, dbHelper.getNotesByPattern("笔牛").size());
+  }
+
+  @Test
+  public void getNotesByPattern_longWordsInfixes() {
+    createTestNote("title", "supercalifragilisticexpialidocious", 0);
+
+    assertEquals(1, dbHelper.getNotesByPattern("fragilisticexpiali").size());
+    assertEquals(0, dbHelper.getNotesByPattern("fragilisticexpialo").size());
+  }
+
+  @Test
+  public void getNotesByPattern_quotesAndBackslashes() {
+    createTestNote("it's a title", "content", 0);
+    createTestNote("path", "C:\\folder", 0);
+
+    assertEquals(1, dbHelper.getNotesByPattern("it's").size());
+    assertEquals(1, dbHelper.getNotesByPattern(":\\f").size());
+  }
+
+  @Test
+  public void getNotesByPattern_lockedNotesMatchedOnlyByTitle() {
+    Note note = new Note();
+    note.setTitle("secret title");
+    note.setContent("hidden content");
+    note.setLocked(true);
+    dbHelper.updateNote(note, true);
+
+    assertEquals(1, dbHelper.getNotesByPattern("secret").size());
+    assertEquals(0, dbHelper.getNotesByPattern("hidden").size());
+  }
+
+  @Test
+  public void getNotesByPattern_deletedNotesNotMatched() {
+    Note note = createTestNote("title", "content to be deleted", 0);
+    dbHelper.deleteNote(note);
+
+    assertEquals(0, dbHelper.getNotesByPattern("deleted").size());
+  }
+
+  @Test
+  public void getNotesByPattern_editedNotesOldWordsNotMatched() {
+    Note note = createTestNote("title", "previous content", 0);
+    note.setContent("current content");
+    dbHelper.updateNote(note, true);
+
+    assertEquals(0, dbHelper.getNotesByPattern("previous").size());
+    assertEquals(1, dbHelper.getNotesByPattern("current").size());
+  }
+
+  @Test
+  public void getSearchTerms() {
+    assertEquals(new HashSet<>(Arrays.asList("buy", "milk", "été", "笔记本")),
+        DbHelper.getSearchTerms("Buy MILK, milk... Été/笔记本"));
+    assertTrue(DbHelper.getSearchTerms(null).isEmpty());
+  }
+
+  @Test
+  public void searchTerms_alignedWithNotes() {
+    Note note = new Note();
+    note.setCreation(1L);
+    note.setTitle("title");
+    note.setContent("shared words");
+    dbHelper.updateNote(note, false);
+    Note otherNote = new Note();
+    otherNote.setCreation(2L);
+    otherNote.setTitle("other title");
+    otherNote.setContent("shared secret");
+    dbHelper.updateNote(otherNote, false);
+
+    assertEquals(2, getSearchTermNotes("shared"));
+    assertEquals(2, getSearchTermNotes("title"));
+
+    otherNote.setLocked(true);
+    dbHelper.updateNote(otherNote, true);
+    assertEquals(1, getSearchTermNotes("shared"));
+    assertEquals(0, getSearchTermNotes("secret"));
+
+    dbHelper.deleteNote(note);
+    assertEquals(0, getSearchTermNotes("shared"));
+    assertEquals(0, getSearchTermNotes("words"));
+    assertEquals(1, getSearchTermNotes("title"));
+  }
+
+  @Test
+  public void getNoteSummariesByPattern_restrictedToNotes() {
+    Note note1 = createTestNote("Shopping list", "buy some milk", 0);
+    createTestNote("Another title", "milkshake recipe", 0);
+
+    List<Note> notes = dbHelper.getNoteSummariesByPattern("milk",
+        Collections.singletonList(note1.get_id()), NotesPage.first());
+
+    assertEquals(1, notes.size());
+    assertEquals(note1.get_id(), notes.get(0).get_id());
+  }
+
+  @Test
+  public void getNoteSummariesByPattern_tooManyNotesNotInlined() {
+    Note note = createTestNote("Shopping list", "buy some milk", 0);
+    List<Long> noteIds = new ArrayList<>();
+    for (long i = 0; i <= DbHelper.PATTERN_REFINEMENT_MAX_NOTES; i++) {
+      noteIds.add(note.get_id() + i);
+    }
+
+    List<Note> notes = dbHelper.getNoteSummariesByPattern("milk", noteIds, NotesPage.first());
+
+    assertEquals(1, notes.size());
+  }
+
+  @Test
+  public void isPatternRefinement() {
+    assertTrue(DbHelper.isPatternRefinement("mil", "milk"));
+    assertTrue(DbHelper.isPatternRefinement("milk", "milk sh"));
+    assertTrue(DbHelper.isPatternRefinement("50%", "50% off"));
+    assertTrue(DbHelper.isPatternRefinement("milk", "milk."));
+    assertFalse(DbHelper.isPatternRefinement("milk", "mil"));
+    assertFalse(DbHelper.isPatternRefinement(null, "milk"));
+  }
+
+  @Test
+  public void getNotes_attachmentsBoundToTheirNotes() {
+    Note note1 = createTestNote("title one", "content", 2);
+    Note note2 = createTestNote("title two", "content", 0);
+    Note note3 = createTestNote("title three", "content", 1);
+
+    List<Note> notes = dbHelper.getAllNotes(false);
+
+    assertEquals(3, notes.size());
+    for (Note note : notes) {
+      if (note.get_id().equals(note1.get_id())) {
+        assertEquals(2, note.getAttachmentsList().size());
+      } else if (note.get_id().equals(note2.get_id())) {
+        assertTrue(note.getAttachmentsList().isEmpty());
+      } else if (note.get_id().equals(note3.get_id())) {
+        assertEquals(1, note.getAttachmentsList().size());
+        assertEquals(note3.getAttachmentsList().get(0).getUri(),
+            note.getAttachmentsList().get(0).getUri());
+      }
+    }
+  }
+
+  @Test
+  public void getNoteSummaries_completedOnDemand() {
+    String content = StringUtils.repeat("a", DbHelper.SUMMARY_CONTENT_LENGTH * 2);
+    createTestNote("title", content, 2);
+
+    Note summary = dbHelper.getNoteSummaries("", NotesPage.first()).get(0);
+
+    assertTrue(summary.isSummary());
+    assertEquals(DbHelper.SUMMARY_CONTENT_LENGTH, summary.getContent().length());
+    assertEquals(1, summary.getAttachmentsList().size());
+
+    dbHelper.completeNote(summary);
+
+    assertFalse(summary.isSummary());
+    assertEquals(content, summary.getContent());
+    assertEquals(2, summary.getAttachmentsList().size());
+  }
+
+  @Test
+  public void getNoteSummaries_pagesFollowSorting() {
+    for (int i = 1; i <= 10; i++) {
+      Note note = new Note();
+      note.setCreation((long) i);
+      note.setTitle("title " + (i % 3));
+      note.setContent("content");
+      dbHelper.updateNote(note, true);
+    }
+    List<Note> allNotes = dbHelper.getNotes("", true);
+
+    List<Note> pagedNotes = new ArrayList<>();
+    NotesPage page = NotesPage.first(3);
+    List<Note> pageNotes;
+    do {
+      pageNotes = dbHelper.getNoteSummaries("", page);
+      pagedNotes.addAll(pageNotes);
+      if (!pageNotes.isEmpty()) {
+        page = new NotesPage(pageNotes.get(pageNotes.size() - 1), 3);
+      }
+    } while (page.isFilledBy(pageNotes.size()));
+
+    assertEquals(allNotes.size(), pagedNotes.size());
+    for (int i = 0; i < allNotes.size(); i++) {
+      assertEquals(allNotes.get(i).get_id(), pagedNotes.get(i).get_id());
+    }
+  }
+
+  @Test
+  public void getNoteSummaries_startingNoteDeleted() {
+    for (String sortColumn : Arrays.asList(DbHelper.KEY_TITLE, DbHelper.KEY_CREATION)) {
+      prefs.edit().putString(PREF_SORTING_COLUMN, sortColumn).commit();
+      for (int i = 1; i <= 6; i++) {
+        Note note = new Note();
+        note.setCreation((long) i);
+        note.setTitle("title " + i);
+        note.setContent("content");
+        dbHelper.updateNote(note, true);
+      }
+
+      List<Note> firstPage = dbHelper.getNoteSummaries("", NotesPage.first(3));
+      Note lastNote = firstPage.get(firstPage.size() - 1);
+      dbHelper.deleteNote(lastNote);
+
+      assertEquals(3, dbHelper.getNoteSummaries("", new NotesPage(lastNote, 3)).size());
+      for (Note note : dbHelper.getAllNotes(false)) {
+        dbHelper.deleteNote(note);
+      }
+    }
+    prefs.edit().remove(PREF_SORTING_COLUMN).commit();
+  }
+
+  @Test
+  public void getStats_keptAlignedOnUpdate() {
+    Note note = createTestNote("title", "some #tag content", 1);
+    Note note2 = createTestNote("another", "text", 0);
+    int words2 = NotesHelper.getWords(note2);
+
+    Stats stats = dbHelper.getStats();
+    assertEquals(2, stats.getNotesActive());
+    assertEquals(1, stats.getTags());
+    assertEquals(1, stats.getAttachments());
+    assertEquals(NotesHelper.getWords(note) + words2, stats.getWords());
+    assertEquals(NotesHelper.getWords(note), stats.getWordsMax());
+
+    note.setTrashed(true);
+    note.setContent("");
+    dbHelper.updateNote(note, true);
+    stats = dbHelper.getStats();
+    assertEquals(1, stats.getNotesActive());
+    assertEquals(1, stats.getNotesTrashed());
+    assertEquals(0, stats.getTags());
+    assertEquals(NotesHelper.getWords(note) + words2, stats.getWords());
+
+    dbHelper.deleteNote(note);
+    stats = dbHelper.getStats();
+    assertEquals(1, stats.getNotesTotalNumber());
+    assertEquals(words2, stats.getWords());
+  }
+
+  @Test
+  public void getNavigationCounters() {
+    Note archived = createTestNote("archived", "content", 0);
+    archived.setArchived(true);
+    dbHelper.updateNote(archived, true);
+    Note trashed = createTestNote("trashed", "content", 0);
+    trashed.setTrashed(true);
+    trashed.setAlarm(Calendar.getInstance().getTimeInMillis());
+    dbHelper.updateNote(trashed, true);
+    Note reminder = createTestNote("reminder", "content", 0);
+    reminder.setAlarm(Calendar.getInstance().getTimeInMillis());
+    dbHelper.updateNote(reminder, true);
+
+    NavigationCounters counters = dbHelper.getNavigationCounters();
+
+    assertEquals(1, counters.getArchived());
+    assertEquals(1, counters.getTrashed());
+    assertEquals(3, counters.getUncategorized());
+    assertEquals(1, counters.getReminders());
+  }
+
+  @Test
+  public void bulkOperations() {
+    Note note1 = createTestNote("first", "#tag content", 1);
+    Note note2 = createTestNote("second", "content", 0);
+    List<Long> ids = Arrays.asList(note1.get_id(), note2.get_id());
+
+    dbHelper.archiveNotes(ids, true);
+    assertEquals(2, dbHelper.getNotesArchived().size());
+
+    dbHelper.trashNotes(Collections.singletonList(note1.get_id()), true);
+    assertEquals(1, dbHelper.getNotesTrashed().size());
+    assertEquals(note1.getLastModification(),
+        dbHelper.getNotesTrashed().get(0).getLastModification());
+
+    dbHelper.emptyTrash();
+    assertEquals(0, dbHelper.getNotesTrashed().size());
+    assertEquals(0, dbHelper.getTags().size());
+    assertEquals(0, dbHelper.getAllAttachments().size());
+
+    dbHelper.deleteNotes(ids, false);
+    assertEquals(0, dbHelper.getAllNotes(false).size());
+  }
+
+  @Test
+  public void updateNote_writesOnlyChangedColumns() {
+    Note note = createTestNote("title", "content", 1);
+    Note otherInstance = dbHelper.getNote(note.get_id());
+
+    note.setTitle("new title");
+    dbHelper.updateNote(note, false);
+    otherInstance.setArchived(true);
+    dbHelper.updateNote(otherInstance, false);
+
+    Note storedNote = dbHelper.getNote(note.get_id());
+    assertEquals("new title", storedNote.getTitle());
+    assertTrue(storedNote.isArchived());
+    assertEquals(1, storedNote.getAttachmentsList().size());
+    assertEquals(1, dbHelper.getNotesByPattern("new").size());
+  }
+
+  @Test
+  public void rekeyLockedNotes_passwordChanged() {
+    String oldPassword = Security.md5("old password");
+    String newPassword = Security.md5("new password");
+    prefs.edit().putString(PREF_PASSWORD, oldPassword).commit();
+    Note note = new Note();
+    note.setTitle("secret title");
+    note.setContent("hidden content");
+    note.setLocked(true);
+    dbHelper.updateNote(note, true);
+    createTestNote("plain title", "plain content", 0);
+
+    dbHelper.startPasswordRekey(oldPassword, newPassword);
+    assertEquals(1, dbHelper.getPasswordRekeyRemainingCount());
+    assertEquals(1, dbHelper.rekeyLockedNotes());
+    assertEquals(0, dbHelper.getPasswordRekeyRemainingCount());
+
+    // Processed notes are read with the new password even before it's stored
+    DecryptedContentCache.clear();
+    assertEquals("hidden content", dbHelper.getNote(note.get_id()).getContent());
+
+    assertEquals(0, dbHelper.rekeyLockedNotes());
+    prefs.edit().putString(PREF_PASSWORD, newPassword).commit();
+    dbHelper.finishPasswordRekey();
+    assertNull(dbHelper.getPasswordRekey());
+    DecryptedContentCache.clear();
+    assertEquals("hidden content", dbHelper.getNote(note.get_id()).getContent());
+    try (Cursor cursor = dbHelper.getDatabase().query(DbHelper.TABLE_NOTES,
+        new String[]{DbHelper.KEY_CONTENT}, DbHelper.KEY_ID + " = ?",
+        new String[]{String.valueOf(note.get_id())}, null, null, null)) {
+      assertTrue(cursor.moveToFirst());
+      assertEquals("hidden content", Security.decrypt(cursor.getString(0), newPassword));
+    }
+  }
+
+  @Test
+  public void rekeyLockedNotes_passwordRemoved() {
+    String oldPassword = Security.md5("old password");
+    prefs.edit().putString(PREF_PASSWORD, oldPassword).commit();
+    Note note = new Note();
+    note.setTitle("secret title");
+    note.setContent("hidden content");
+    note.setLocked(true);
+    dbHelper.updateNote(note, true);
+
+    dbHelper.startPasswordRekey(oldPassword, null);
+    assertEquals(1, dbHelper.rekeyLockedNotes());
+    assertEquals(0, dbHelper.rekeyLockedNotes());
+    dbHelper.finishPasswordRekey();
+
+    Note storedNote = dbHelper.getNote(note.get_id());
+    assertFalse(storedNote.isLocked());
+    assertEquals("hidden content", storedNote.getContent());
+    assertEquals(1, dbHelper.getNotesByPattern("hidden").size());
+  }
+
+  @Test
+  public void backupJob_checkpoint() {
+    assertNull(dbHelper.getBackupJob());
+    dbHelper.startBackupJob("action", "backup");
+
+    dbHelper.setBackupJobLastNoteId(42L);
+    dbHelper.setBackupJobLastAttachment("attachment.jpg");
+    dbHelper.addBackupJobFailure("failed.jpg");
+    dbHelper.addBackupJobFailure("failed.jpg");
+
+    BackupJob backupJob = dbHelper.getBackupJob();
+    assertEquals("action", backupJob.getAction());
+    assertEquals("backup", backupJob.getBackupName());
+    assertEquals(42L, backupJob.getLastNoteId());
+    assertTrue(backupJob.isAttachmentProcessed("attachment.jpg"));
+    assertFalse(backupJob.isAttachmentProcessed("other.jpg"));
+    assertEquals(Collections.singletonList("failed.jpg"), backupJob.getFailures());
+    dbHelper.finishBackupJob();
+    assertNull(dbHelper.getBackupJob());
+  }
+
+  @Test
+  public void attachmentRefCount_sharedFile() {
+    Note note = createTestNote("first", "content", 1);
+    Attachment attachment = note.getAttachmentsList().get(0);
+    String uri = attachment.getUri().toString();
+    Note otherNote = new Note();
+    otherNote.setCreation(note.getCreation() + 1);
+    otherNote.setTitle("second");
+    otherNote.addAttachment(new Attachment(attachment.getUri(), attachment.getMime_type()));
+    dbHelper.updateNote(otherNote, false);
+    assertEquals(2, dbHelper.getAttachmentRefCount(uri));
+
+    dbHelper.deleteNote(note);
+    assertEquals(1, dbHelper.getAttachmentRefCount(uri));
+
+    String newUri = uri + ".moved";
+    dbHelper.replaceAttachmentUri(uri, newUri);
+    assertEquals(0, dbHelper.getAttachmentRefCount(uri));
+    assertEquals(1, dbHelper.getAttachmentRefCount(newUri));
+
+    dbHelper.deleteNote(otherNote);
+    assertEquals(0, dbHelper.getAttachmentRefCount(newUri));
+  }
+
+  @Test
+  public void navigationQueriesUseIndexes() {
+    assertNoFullScan(dbHelper.getNotesQuery(DbHelper.NOTES_ACTIVE_CONDITION, true));
+    assertNoFullScan(dbHelper.getNotesQuery(DbHelper.getNotesByCategoryCondition(1L, false), true));
+    assertNoFullScan(dbHelper.getNotesQuery(DbHelper.getNotesByCategoryCondition(1L, true), true));
+    assertNoFullScan(
+        dbHelper.getNotesQuery(DbHelper.NOTES_WITH_REMINDER_NOT_FIRED_CONDITION, true));
+    assertNoFullScan(dbHelper.getAttachmentsQuery(
+        " WHERE " + DbHelper.KEY_ATTACHMENT_NOTE_ID + " = 1"));
+    assertNoFullScan(dbHelper.getAttachmentsQuery(
+        " WHERE " + DbHelper.KEY_ATTACHMENT_NOTE_ID + " IN (1,2,3)"));
+    assertNoFullScan(dbHelper.getFirstAttachmentsQuery(
+        " WHERE " + DbHelper.KEY_ATTACHMENT_NOTE_ID + " IN (1,2,3)"));
+    assertNoFullScan("SELECT COUNT(*) FROM " + DbHelper.TABLE_ATTACHMENTS
+        + " WHERE " + DbHelper.KEY_ATTACHMENT_URI + " = 'file'");
+  }
+
+  private void assertNoFullScan(String query) {
+    try (Cursor cursor = dbHelper.getDatabase().rawQuery("EXPLAIN QUERY PLAN " + query, null)) {
+      while (cursor.moveToNext()) {
+        String detail = cursor.getString(cursor.getColumnIndex("detail"));
+        assertFalse("Full table scan for query: " + query + " (" + detail + ")",
+            detail.matches("SCAN (TABLE )?(" + DbHelper.TABLE_NOTES + "|"
+                + DbHelper.TABLE_ATTACHMENTS + ")\\b.*") && !detail.contains("USING"));
+      }
+    }
+  }
+
+  private long getSearchTermNotes(String term) {
+    try (Cursor cursor = dbHelper.getDatabase().query(DbHelper.TABLE_SEARCH_TERMS,
+        new String[]{DbHelper.KEY_SEARCH_TERM_NOTES}, DbHelper.KEY_SEARCH_TERM + " = ?",
+        new String[]{term}, null, null, null)) {
+      return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+    }
+  }
+
 }
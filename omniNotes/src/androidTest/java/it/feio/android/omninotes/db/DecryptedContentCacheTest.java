@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import it.feio.android.omninotes.BaseAndroidTestCase;
+import it.feio.android.omninotes.utils.Security;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+@RunWith(AndroidJUnit4.class)
+public class DecryptedContentCacheTest extends BaseAndroidTestCase {
+
+  private static final String PASS = "12345uselessPasswords";
+  private static final String TEXT = "Today is a - good - day to test useless things!";
+
+  @Before
+  public void setUp() {
+    DecryptedContentCache.clear();
+  }
+
+  @Test
+  public void checkUtilityClassWellDefined() throws Exception {
+    assertUtilityClassWellDefined(DecryptedContentCache.class);
+  }
+
+  @Test
+  public void decrypt_cachedByNoteAndLastModification() {
+    String encryptedText = Security.encrypt(TEXT, PASS);
+
+    assertEquals(TEXT, DecryptedContentCache.decrypt(1L, 1L, encryptedText, PASS));
+    assertTrue(DecryptedContentCache.size() > 0);
+    // Cached entry is served without decrypting again
+    assertEquals(TEXT, DecryptedContentCache.decrypt(1L, 1L, "not decryptable", PASS));
+    // A modified note is decrypted again
+    String modifiedText = TEXT + " modified";
+    assertEquals(modifiedText,
+        DecryptedContentCache.decrypt(1L, 2L, Security.encrypt(modifiedText, PASS), PASS));
+  }
+
+  @Test
+  public void decrypt_passwordChanged() {
+    DecryptedContentCache.decrypt(1L, 1L, Security.encrypt(TEXT, PASS), PASS);
+
+    // Entries of another password are never served
+    String newPass = "zaza" + PASS;
+    assertEquals(Security.decrypt("not decryptable", newPass),
+        DecryptedContentCache.decrypt(1L, 1L, "not decryptable", newPass));
+  }
+
+  @Test
+  public void decrypt_passwordsAlternated() {
+    String newPass = "zaza" + PASS;
+    String newText = TEXT + " with new password";
+    DecryptedContentCache.decrypt(1L, 1L, Security.encrypt(TEXT, PASS), PASS);
+    DecryptedContentCache.decrypt(2L, 1L, Security.encrypt(newText, newPass), newPass);
+
+    // As during a pending re-encryption, both passwords' entries are kept
+    assertEquals(TEXT, DecryptedContentCache.decrypt(1L, 1L, "not decryptable", PASS));
+    assertEquals(newText, DecryptedContentCache.decrypt(2L, 1L, "not decryptable", newPass));
+  }
+
+  @Test
+  public void clear() {
+    DecryptedContentCache.put(1L, 1L, TEXT, PASS);
+
+    DecryptedContentCache.clear();
+
+    assertEquals(0, DecryptedContentCache.size());
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.feio.android.omninotes.helpers;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import it.feio.android.omninotes.BaseAndroidTestCase;
+import it.feio.android.omninotes.async.DataBackupIntentService;
+import it.feio.android.omninotes.models.Attachment;
+import it.feio.android.omninotes.models.Note;
+import it.feio.android.omninotes.models.misc.AttachmentsGcReport;
+import it.feio.android.omninotes.utils.StorageHelper;
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class AttachmentsHelperTest extends BaseAndroidTestCase {
+
+  @Test
+  public void checkUtilityClassWellDefined() throws Exception {
+    assertUtilityClassWellDefined(AttachmentsHelper.class);
+  }
+
+  @Test
+  public void collectGarbage() throws IOException {
+    File usedFile = createAttachmentFile("used.txt");
+    File unusedFile = createAttachmentFile("unused.txt");
+    File orphanFile = createAttachmentFile("orphan.txt");
+    long now = Calendar.getInstance().getTimeInMillis();
+    Note note = createNote(now, usedFile, new File(StorageHelper.getAttachmentDir(), "missing.txt"));
+    Note deletedNote = createNote(now + 1, orphanFile);
+    dbHelper.deleteNote(deletedNote, true);
+
+    AttachmentsGcReport report = AttachmentsHelper.collectGarbage(Long.MAX_VALUE);
+
+    assertEquals(1, report.getOrphanRows());
+    assertEquals(1, report.getMissingFileRows());
+    assertEquals(2, report.getDeletedFiles());
+    assertEquals(unusedFile.getName().length() + orphanFile.getName().length(),
+        report.getFreedBytes());
+    assertTrue(usedFile.exists());
+    assertFalse(unusedFile.exists());
+    assertFalse(orphanFile.exists());
+    assertEquals(2, dbHelper.getNote(note.get_id()).getAttachmentsList().size());
+    FileUtils.deleteQuietly(usedFile);
+  }
+
+  @Test
+  public void collectGarbage_backupJobPending() throws IOException {
+    File unusedFile = createAttachmentFile("unused.txt");
+    dbHelper.startBackupJob(DataBackupIntentService.ACTION_DATA_IMPORT, "backup");
+
+    AttachmentsGcReport report = AttachmentsHelper.collectGarbage(Long.MAX_VALUE);
+
+    assertTrue(report.isEmpty());
+    assertTrue(unusedFile.exists());
+    dbHelper.finishBackupJob();
+    FileUtils.deleteQuietly(unusedFile);
+  }
+
+  @Test
+  public void collectGarbage_recentFilesKept() throws IOException {
+    File newFile = createAttachmentFile("new.txt");
+
+    AttachmentsGcReport report = AttachmentsHelper.collectGarbage();
+
+    assertTrue(report.isEmpty());
+    assertTrue(newFile.exists());
+    FileUtils.deleteQuietly(newFile);
+  }
+
+  @Test
+  public void storeLegacyAttachments() throws IOException {
+    File legacyFile = createAttachmentFile("legacy.txt");
+    File storedFile = StorageHelper.storeAttachmentFile(createAttachmentFile("stored.txt"));
+    long storedLastModified = Calendar.getInstance().getTimeInMillis() - 60_000;
+    storedFile.setLastModified(storedLastModified);
+    long now = Calendar.getInstance().getTimeInMillis();
+    Note note = createNote(now, legacyFile, storedFile);
+
+    assertEquals(1, AttachmentsHelper.storeLegacyAttachments());
+
+    assertFalse(legacyFile.exists());
+    assertEquals(storedLastModified / 1000, storedFile.lastModified() / 1000);
+    for (Attachment attachment : dbHelper.getNote(note.get_id()).getAttachmentsList()) {
+      File file = new File(attachment.getUri().getPath());
+      assertTrue(StorageHelper.isStoredAttachmentFile(file));
+      FileUtils.deleteQuietly(file);
+    }
+  }
+
+  @Test
+  public void storeLegacyAttachments_runOnce() throws IOException {
+    AttachmentsHelper.storeLegacyAttachments();
+    File legacyFile = createAttachmentFile("legacy.txt");
+    createNote(Calendar.getInstance().getTimeInMillis(), legacyFile);
+
+    assertEquals(0, AttachmentsHelper.storeLegacyAttachments());
+
+    assertTrue(legacyFile.exists());
+    FileUtils.deleteQuietly(legacyFile);
+  }
+
+  private File createAttachmentFile(String name) throws IOException {
+    File file = new File(StorageHelper.getAttachmentDir(), name);
+    FileUtils.writeStringToFile(file, name, UTF_8);
+    return file;
+  }
+
+  private Note createNote(long creation, File... attachmentsFiles) {
+    Note note = new Note();
+    note.setCreation(creation);
+    note.setTitle("note " + creation);
+    for (File file : attachmentsFiles) {
+      note.addAttachment(new Attachment(Uri.fromFile(file), "text/plain"));
+    }
+    return dbHelper.updateNote(note, false);
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.helpers;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import it.feio.android.omninotes.BaseAndroidTestCase;
+import it.feio.android.omninotes.async.DataBackupIntentService;
+import it.feio.android.omninotes.models.Note;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class BackupArchiveHelperTest extends BaseAndroidTestCase {
+
+  @Test
+  public void checkUtilityClassWellDefined() throws Exception {
+    assertUtilityClassWellDefined(BackupArchiveHelper.class);
+  }
+
+  @Test
+  public void isArchive() {
+    assertTrue(BackupArchiveHelper.isArchive("backup" + BackupArchiveHelper.ARCHIVE_EXTENSION));
+    assertTrue(!BackupArchiveHelper.isArchive("backup"));
+  }
+
+  @Test
+  public void exportArchive_importArchive() throws IOException {
+    Note note = createTestNote("test title", "test content\nwith line breaks", 1);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+    assertTrue(BackupArchiveHelper.exportArchive(archive, null));
+    dbHelper.deleteNote(note);
+    List<String> corruptedItems = BackupArchiveHelper.importArchive(
+        new ByteArrayInputStream(archive.toByteArray()), null);
+
+    assertTrue(corruptedItems.isEmpty());
+    Note importedNote = dbHelper.getNote(note.get_id());
+    assertEquals(note.getContent(), importedNote.getContent());
+    assertEquals(1, importedNote.getAttachmentsList().size());
+  }
+
+  @Test
+  public void importArchive_corruptedNote() throws IOException {
+    Note note = createTestNote("test title", "test content", 0);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    BackupArchiveHelper.exportArchive(archive, null);
+
+    byte[] corruptedArchive = replaceInEntry(archive.toByteArray(),
+        BackupArchiveHelper.NOTES_ENTRY, "test content", "tampered content");
+    List<String> corruptedItems = BackupArchiveHelper.importArchive(
+        new ByteArrayInputStream(corruptedArchive), null);
+
+    assertEquals(1, corruptedItems.size());
+    assertEquals(BackupArchiveHelper.NOTES_ENTRY + ":" + note.get_id(), corruptedItems.get(0));
+  }
+
+  @Test
+  public void importArchive_resumedFromCheckpoint() throws IOException {
+    Note note1 = createTestNote("Note1", "content1", 0);
+    Note note2 = new Note();
+    note2.setCreation(note1.getCreation() + 1);
+    note2.setTitle("Note2");
+    note2.setContent("content2");
+    dbHelper.updateNote(note2, false);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    BackupArchiveHelper.exportArchive(archive, null);
+    dbHelper.deleteNote(note1);
+    dbHelper.deleteNote(note2);
+    dbHelper.startBackupJob(DataBackupIntentService.ACTION_DATA_IMPORT, "backup");
+
+    List<String> corruptedItems = BackupArchiveHelper.importArchive(
+        new ByteArrayInputStream(archive.toByteArray()), null, note1.get_id(), null);
+
+    assertTrue(corruptedItems.isEmpty());
+    assertNull(dbHelper.getNote(note1.get_id()));
+    assertNotNull(dbHelper.getNote(note2.get_id()));
+    assertEquals(note2.get_id().longValue(), dbHelper.getBackupJob().getLastNoteId());
+  }
+
+  @Test
+  public void verifyArchive() throws IOException {
+    Note note = createTestNote("test title", "test content", 1);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    BackupArchiveHelper.exportArchive(archive, null);
+
+    var report = BackupArchiveHelper.verifyArchive(new ByteArrayInputStream(archive.toByteArray()));
+    assertTrue(report.isValid());
+    assertEquals(2, report.getValid());
+
+    note.setContent("changed content");
+    dbHelper.updateNote(note, true);
+    report = BackupArchiveHelper.verifyArchive(new ByteArrayInputStream(archive.toByteArray()));
+    assertEquals(Collections.singletonList(BackupArchiveHelper.NOTES_ENTRY + ":" + note.get_id()),
+        report.getStale());
+  }
+
+  private byte[] replaceInEntry(byte[] archive, String entryName, String target,
+      String replacement) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(archive));
+        ZipOutputStream zipOut = new ZipOutputStream(result)) {
+      ZipEntry entry;
+      while ((entry = zipIn.getNextEntry()) != null) {
+        byte[] content = IOUtils.toByteArray(zipIn);
+        if (entryName.equals(entry.getName())) {
+          content = new String(content, UTF_8).replace(target, replacement).getBytes(UTF_8);
+        }
+        zipOut.putNextEntry(new ZipEntry(entry.getName()));
+        zipOut.write(content);
+        zipOut.closeEntry();
+      }
+    }
+    return result.toByteArray();
+  }
+
+}
@@ -27,16 +27,21 @@ import com.lazygeniouz.dfc.file.DocumentFileCompat;
 import com.pixplicity.easyprefs.library.Prefs;
 import it.feio.android.omninotes.BaseAndroidTestCase;
 import it.feio.android.omninotes.OmniNotes;
+import it.feio.android.omninotes.async.DataBackupIntentService;
 import it.feio.android.omninotes.exceptions.BackupException;
 import it.feio.android.omninotes.exceptions.checked.BackupAttachmentException;
 import it.feio.android.omninotes.models.Attachment;
 import it.feio.android.omninotes.models.Note;
+import it.feio.android.omninotes.models.misc.BackupManifest;
 import it.feio.android.omninotes.utils.Constants;
 import it.feio.android.omninotes.utils.Security;
 import it.feio.android.omninotes.utils.StorageHelper;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -107,6 +112,106 @@ public class BackupHelperTest extends BaseAndroidTestCase {
     assertEquals(note, retrievedNote);
   }
 
+  @Test
+  public void getExportNoteJson_transientStateNotExported() {
+    Note note = createTestNote("test title", "test content", 0);
+
+    String json = BackupHelper.getExportNoteJson(note);
+
+    assertFalse(json.contains("storedValues"));
+    assertFalse(json.contains("summary"));
+  }
+
+  @Test
+  public void exportNotes_incremental() {
+    Note note1 = createTestNote("Note1", "content1", 0);
+    Note note2 = createTestNote("Note2", "content2", 0);
+    BackupManifest manifest = new BackupManifest();
+    BackupHelper.exportNotes(backupDir, manifest);
+    assertEquals(2, manifest.getNotes().size());
+
+    note1.setContent("changed content");
+    dbHelper.updateNote(note1, true);
+    dbHelper.deleteNote(note2);
+    Note note3 = createTestNote("Note3", "content3", 0);
+    BackupHelper.exportNotes(backupDir, manifest);
+
+    var noteFiles = from(backupDir.listFiles())
+        .filter(f -> f.getName().matches("\\d{13}.json")).toList().toBlocking().single();
+    assertEquals(2, noteFiles.size());
+    assertEquals(2, manifest.getNotes().size());
+    assertNotNull(manifest.getNote(note3.get_id()));
+    assertNull(manifest.getNote(note2.get_id()));
+    Note retrievedNote = BackupHelper.getImportNote(backupDir.findFile(note1.get_id() + ".json"));
+    assertEquals("changed content", retrievedNote.getContent());
+  }
+
+  @Test
+  public void exportNotes_unchangedNotesNotWritten() throws IOException {
+    Note note = createTestNote("test title", "test content", 0);
+    BackupManifest manifest = new BackupManifest();
+    BackupHelper.exportNotes(backupDir, manifest);
+    DocumentFileHelper.write(testContext, backupDir.findFile(note.get_id() + ".json"), "untouched");
+
+    BackupHelper.exportNotes(backupDir, manifest);
+
+    assertEquals("untouched", DocumentFileHelper.readContent(testContext,
+        backupDir.findFile(note.get_id() + ".json")));
+  }
+
+  @Test
+  public void writeManifest() throws IOException {
+    createTestNote("test title", "test content", 1);
+    BackupManifest manifest = new BackupManifest();
+    BackupHelper.exportNotes(backupDir, manifest);
+    BackupHelper.exportAttachments(backupDir, null, manifest);
+
+    BackupHelper.writeManifest(backupDir, manifest);
+
+    BackupManifest retrievedManifest = BackupHelper.readManifest(backupDir);
+    assertEquals(1, retrievedManifest.getNotes().size());
+    assertEquals(1, retrievedManifest.getAttachments().size());
+    assertEquals(manifest.getNotes(), retrievedManifest.getNotes());
+    assertEquals(manifest.getAttachments(), retrievedManifest.getAttachments());
+  }
+
+  @Test
+  public void verifyBackup() throws IOException {
+    Note validNote = createTestNote("valid", "valid content", 0);
+    Note staleNote = new Note();
+    staleNote.setCreation(validNote.getCreation() + 1);
+    staleNote.setContent("stale content");
+    dbHelper.updateNote(staleNote, false);
+    Note corruptNote = new Note();
+    corruptNote.setCreation(validNote.getCreation() + 2);
+    corruptNote.setContent("corrupt content");
+    dbHelper.updateNote(corruptNote, false);
+    Note missingNote = new Note();
+    missingNote.setCreation(validNote.getCreation() + 3);
+    missingNote.setContent("missing content");
+    dbHelper.updateNote(missingNote, false);
+    BackupManifest manifest = new BackupManifest();
+    BackupHelper.exportNotes(backupDir, manifest);
+    BackupHelper.writeManifest(backupDir, manifest);
+    staleNote.setContent("changed content");
+    dbHelper.updateNote(staleNote, true);
+    DocumentFileHelper.write(testContext, backupDir.findFile(corruptNote.get_id() + ".json"),
+        "damaged");
+    backupDir.findFile(missingNote.get_id() + ".json").delete();
+    Note newNote = new Note();
+    newNote.setCreation(validNote.getCreation() + 4);
+    newNote.setContent("new content");
+    dbHelper.updateNote(newNote, false);
+
+    var report = BackupHelper.verifyBackup(backupDir);
+
+    assertEquals(1, report.getValid());
+    assertEquals(new HashSet<>(Arrays.asList(staleNote.get_id() + ".json",
+        newNote.get_id() + ".json")), new HashSet<>(report.getStale()));
+    assertEquals(Collections.singletonList(corruptNote.get_id() + ".json"), report.getCorrupt());
+    assertEquals(Collections.singletonList(missingNote.get_id() + ".json"), report.getMissing());
+  }
+
   @Test
   public void exportAttachments() throws IOException {
     Note note = createTestNote("test title", "test content", 1);
@@ -136,6 +241,60 @@ public class BackupHelperTest extends BaseAndroidTestCase {
     assertEquals(note.getContent(), importedNote.getContent());
   }
 
+  @Test
+  public void importNotes() {
+    int notesNumber = BackupHelper.IMPORT_NOTES_CHUNK_SIZE + 1;
+    long now = System.currentTimeMillis();
+    Observable.range(1, notesNumber).forEach(i -> {
+      Note note = new Note();
+      note.setCreation(now + i);
+      note.setTitle("Note" + i);
+      note.setContent("content" + i);
+      dbHelper.updateNote(note, false);
+    });
+    BackupHelper.exportNotes(backupDir);
+    Observable.from(dbHelper.getAllNotes(false)).forEach(dbHelper::deleteNote);
+
+    var importedNotes = BackupHelper.importNotes(backupDir, null);
+
+    assertEquals(notesNumber, importedNotes.size());
+    assertEquals(notesNumber, dbHelper.getAllNotes(false).size());
+  }
+
+  @Test
+  public void importNotes_resumedFromCheckpoint() {
+    Note note1 = createTestNote("Note1", "content1", 0);
+    Note note2 = new Note();
+    note2.setCreation(note1.getCreation() + 1);
+    note2.setTitle("Note2");
+    note2.setContent("content2");
+    dbHelper.updateNote(note2, false);
+    BackupHelper.exportNotes(backupDir);
+    dbHelper.deleteNote(note1);
+    dbHelper.deleteNote(note2);
+    dbHelper.startBackupJob(DataBackupIntentService.ACTION_DATA_IMPORT, "backup");
+
+    var importedNotes = BackupHelper.importNotes(backupDir, null, note1.get_id());
+
+    assertEquals(1, importedNotes.size());
+    assertNull(dbHelper.getNote(note1.get_id()));
+    assertEquals(note2.get_id().longValue(), dbHelper.getBackupJob().getLastNoteId());
+  }
+
+  @Test
+  public void importNotes_failuresRecorded() {
+    var note = createTestNote("test title", Security.encrypt("test content", "password"), 0);
+    note.setLocked(true);
+    dbHelper.updateNote(note, false);
+    BackupHelper.exportNote(backupDir, note);
+    dbHelper.startBackupJob(DataBackupIntentService.ACTION_DATA_IMPORT, "backup");
+
+    BackupHelper.importNotes(backupDir, null);
+
+    assertEquals(Collections.singletonList(note.get_id() + ".json"),
+        dbHelper.getBackupJob().getFailures());
+  }
+
   @Test
   public void importNote_lockedAndPasswordIsSet() throws IOException {
     var password = "uglypassword";
@@ -184,7 +343,8 @@ public class BackupHelperTest extends BaseAndroidTestCase {
   public void importAttachment() throws BackupAttachmentException {
     Attachment attachment = createTestAttachmentBackup();
 
-    BackupHelper.importAttachment(attachmentsBackupDir.listFiles(), StorageHelper.getAttachmentDir(), attachment);
+    BackupHelper.importAttachment(BackupHelper.getFilesByName(attachmentsBackupDir),
+        StorageHelper.getAttachmentDir(), attachment);
     LogDelegate.i("checking " + attachment.getUri().getPath());
 
     assertTrue(new File(attachment.getUri().getPath()).exists());
@@ -19,6 +19,7 @@ package it.feio.android.omninotes.utils;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import android.net.Uri;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
@@ -53,6 +54,15 @@ public class ParcelableUtilTest extends BaseAndroidTestCase {
     assertEquals(testNote, ParcelableUtil.unmarshall(marshalledNote, Note.CREATOR));
   }
 
+  @Test
+  public void unmarshall_summaryKept() {
+    testNote.setSummary(true);
+
+    Note note = ParcelableUtil.unmarshall(ParcelableUtil.marshall(testNote), Note.CREATOR);
+
+    assertTrue(note.isSummary());
+  }
+
   @Test
   public void marshall() {
     assertArrayEquals(marshalledNote, ParcelableUtil.marshall(testNote));
@@ -17,7 +17,11 @@
 
 package it.feio.android.omninotes.utils
 
+import android.net.Uri
 import it.feio.android.omninotes.BaseAndroidTestCase
+import java.io.File
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Test
 
@@ -30,4 +34,34 @@ class StorageHelperTest : BaseAndroidTestCase() {
         assertTrue(dir.canRead())
         assertTrue(dir.canWrite())
     }
-}
\ No newline at end of file
+
+    @Test
+    fun storeAttachmentFile_identicalFilesStoredOnce() {
+        val file = File(StorageHelper.getAttachmentDir(), "first.jpg").apply { writeText("same") }
+        val otherFile = File(StorageHelper.getAttachmentDir(), "second.jpg").apply { writeText("same") }
+
+        val storedFile = StorageHelper.storeAttachmentFile(file)
+        val otherStoredFile = StorageHelper.storeAttachmentFile(otherFile, true)
+
+        assertTrue(StorageHelper.isStoredAttachmentFile(storedFile))
+        assertEquals(storedFile, otherStoredFile)
+        assertEquals("same", storedFile.readText())
+        assertFalse(file.exists())
+        assertTrue(otherFile.exists())
+        otherFile.delete()
+        storedFile.delete()
+    }
+
+    @Test
+    fun releaseAttachmentFile_recentlyStoredKept() {
+        val file = File(StorageHelper.getAttachmentDir(), "released.jpg").apply { writeText("released") }
+        val storedFile = StorageHelper.storeAttachmentFile(file)
+
+        assertFalse(StorageHelper.releaseAttachmentFile(testContext, Uri.fromFile(storedFile)))
+        assertTrue(storedFile.exists())
+
+        storedFile.setLastModified(System.currentTimeMillis() - StorageHelper.STORED_FILE_GRACE_PERIOD * 2)
+        assertTrue(StorageHelper.releaseAttachmentFile(testContext, Uri.fromFile(storedFile)))
+        assertFalse(storedFile.exists())
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import it.feio.android.omninotes.BaseAndroidTestCase;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailCacheTest extends BaseAndroidTestCase {
+
+  private static final long ATTACHMENT_ID = 1L;
+
+  @After
+  public void tearDown() {
+    ThumbnailCache.clear(testContext);
+  }
+
+  @Test
+  public void checkUtilityClassWellDefined() throws Exception {
+    assertUtilityClassWellDefined(ThumbnailCache.class);
+  }
+
+  @Test
+  public void getSizeBucket() {
+    assertEquals(64, ThumbnailCache.getSizeBucket(64));
+    assertEquals(128, ThumbnailCache.getSizeBucket(80));
+    assertEquals(1000, ThumbnailCache.getSizeBucket(1000));
+  }
+
+  @Test
+  public void put_servedFromDiskAfterMemoryCleared() {
+    ThumbnailCache.put(testContext, ATTACHMENT_ID, 64, createThumbnail(64));
+
+    ThumbnailCache.clear();
+
+    Bitmap thumbnail = ThumbnailCache.get(testContext, ATTACHMENT_ID, 64, 0);
+    assertNotNull(thumbnail);
+    assertEquals(64, thumbnail.getWidth());
+  }
+
+  @Test
+  public void get_staleDiskThumbnail() {
+    ThumbnailCache.put(testContext, ATTACHMENT_ID, 64, createThumbnail(64));
+    ThumbnailCache.clear();
+
+    assertNull(ThumbnailCache.get(testContext, ATTACHMENT_ID, 64,
+        System.currentTimeMillis() + 60_000));
+  }
+
+  @Test
+  public void invalidate() {
+    ThumbnailCache.put(testContext, ATTACHMENT_ID, 64, createThumbnail(64));
+    ThumbnailCache.put(testContext, ATTACHMENT_ID, 128, createThumbnail(128));
+
+    ThumbnailCache.invalidate(testContext, ATTACHMENT_ID);
+
+    assertNull(ThumbnailCache.get(testContext, ATTACHMENT_ID, 64, 0));
+    assertNull(ThumbnailCache.get(testContext, ATTACHMENT_ID, 128, 0));
+  }
+
+  @Test
+  public void retainAll() {
+    ThumbnailCache.put(testContext, ATTACHMENT_ID, 64, createThumbnail(64));
+    ThumbnailCache.put(testContext, ATTACHMENT_ID + 1, 64, createThumbnail(64));
+
+    ThumbnailCache.retainAll(testContext, Collections.singleton(ATTACHMENT_ID));
+    ThumbnailCache.clear();
+
+    assertNotNull(ThumbnailCache.get(testContext, ATTACHMENT_ID, 64, 0));
+    assertNull(ThumbnailCache.get(testContext, ATTACHMENT_ID + 1, 64, 0));
+  }
+
+  @Test
+  public void trimDiskCache_leastRecentlyUsedDeleted() throws IOException {
+    File diskCacheDir = new File(testContext.getCacheDir(), "thumbnails_test");
+    File oldFile = new File(diskCacheDir, "1_64.png");
+    File newFile = new File(diskCacheDir, "2_64.png");
+    FileUtils.writeByteArrayToFile(oldFile, new byte[100]);
+    FileUtils.writeByteArrayToFile(newFile, new byte[100]);
+    oldFile.setLastModified(System.currentTimeMillis() - 60_000);
+
+    ThumbnailCache.trimDiskCache(diskCacheDir, 150);
+
+    assertFalse(oldFile.exists());
+    assertTrue(newFile.exists());
+    FileUtils.deleteQuietly(diskCacheDir);
+  }
+
+  private Bitmap createThumbnail(int size) {
+    return Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+  }
+
+}
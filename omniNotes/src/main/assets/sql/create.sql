@@ -45,3 +45,78 @@ CREATE
 		description TEXT,
 		color TEXT
 	);
+
+
+
+-- Indexes for navigation and attachments lookups
+CREATE INDEX notes_trashed_archived_idx ON notes(trashed, archived);
+CREATE INDEX notes_category_idx ON notes(category_id, trashed, archived);
+CREATE INDEX notes_reminders_idx ON notes(trashed, archived, reminder_fired, alarm)
+WHERE alarm IS NOT NULL;
+CREATE INDEX attachments_note_id_idx ON attachments(note_id);
+CREATE INDEX attachments_uri_idx ON attachments(uri);
+
+
+
+-- Create view of NOTES text indexed for search (locked notes are indexed only by title)
+CREATE VIEW notes_search AS
+SELECT creation AS rowid, title, CASE WHEN locked = 1 THEN '' ELSE content END AS content
+FROM notes;
+
+-- Create full-text index for NOTES search reading text from view (docid is the note creation)
+CREATE VIRTUAL TABLE notes_fts USING fts4(content="notes_search", title, content);
+
+-- Create table for words of NOTES full-text index, with the number of notes having them
+CREATE
+	TABLE search_terms
+	(
+		term TEXT PRIMARY KEY,
+		notes INTEGER
+	);
+
+
+
+-- Create table for NOTES TAGS
+CREATE
+	TABLE note_tags
+	(
+		note_id INTEGER,
+		tag TEXT,
+		PRIMARY KEY (note_id, tag)
+	);
+CREATE INDEX note_tags_tag_idx ON note_tags(tag, note_id);
+
+
+
+-- Create table for NOTES text STATS
+CREATE
+	TABLE note_stats
+	(
+		note_id INTEGER PRIMARY KEY,
+		words INTEGER,
+		chars INTEGER
+	);
+
+
+
+-- Create journal of locked NOTES re-encryption (at most one row, while password is changed)
+CREATE
+	TABLE password_rekey
+	(
+		old_password TEXT,
+		new_password TEXT,
+		last_note_id INTEGER
+	);
+
+
+
+-- Create checkpoint of running backup or restore (at most one row, while it runs)
+CREATE
+	TABLE backup_job
+	(
+		action TEXT,
+		backup_name TEXT,
+		last_note_id INTEGER,
+		last_attachment TEXT,
+		failures TEXT
+	);
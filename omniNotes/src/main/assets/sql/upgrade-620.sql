@@ -0,0 +1,15 @@
+/*
+* Normalizes flags to 0/1 values and adds indexes for navigation and attachments lookups
+*/
+
+UPDATE notes SET archived = 0 WHERE archived IS NOT 1;
+UPDATE notes SET trashed = 0 WHERE trashed IS NOT 1;
+UPDATE notes SET reminder_fired = 0 WHERE reminder_fired IS NOT 1;
+UPDATE notes SET locked = 0 WHERE locked IS NOT 1;
+UPDATE notes SET checklist = 0 WHERE checklist IS NOT 1;
+
+CREATE INDEX IF NOT EXISTS notes_trashed_archived_idx ON notes(trashed, archived);
+CREATE INDEX IF NOT EXISTS notes_category_idx ON notes(category_id, trashed, archived);
+CREATE INDEX IF NOT EXISTS notes_reminders_idx ON notes(trashed, archived, reminder_fired, alarm)
+WHERE alarm IS NOT NULL;
+CREATE INDEX IF NOT EXISTS attachments_note_id_idx ON attachments(note_id);
@@ -0,0 +1,9 @@
+/*
+* Adds full-text index on notes title and content (locked notes are indexed only by title)
+*/
+
+CREATE VIRTUAL TABLE IF NOT EXISTS notes_fts USING fts4(title, content);
+
+INSERT INTO notes_fts(docid, title, content)
+SELECT creation, title, CASE WHEN locked = 1 THEN '' ELSE content END
+FROM notes;
@@ -0,0 +1,12 @@
+/*
+* Adds table of tags found into notes (filled from existing notes after upgrade)
+*/
+
+CREATE
+	TABLE IF NOT EXISTS note_tags
+	(
+		note_id INTEGER,
+		tag TEXT,
+		PRIMARY KEY (note_id, tag)
+	);
+CREATE INDEX IF NOT EXISTS note_tags_tag_idx ON note_tags(tag, note_id);
@@ -0,0 +1,11 @@
+/*
+* Adds table of notes text stats (filled from existing notes after upgrade)
+*/
+
+CREATE
+	TABLE IF NOT EXISTS note_stats
+	(
+		note_id INTEGER PRIMARY KEY,
+		words INTEGER,
+		chars INTEGER
+	);
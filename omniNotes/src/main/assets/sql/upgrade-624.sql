@@ -0,0 +1,11 @@
+/*
+* Adds journal of locked notes re-encryption, letting an interrupted password change be resumed
+*/
+
+CREATE
+	TABLE IF NOT EXISTS password_rekey
+	(
+		old_password TEXT,
+		new_password TEXT,
+		last_note_id INTEGER
+	);
@@ -0,0 +1,13 @@
+/*
+* Adds checkpoint of backup and restore jobs, letting an interrupted one be resumed
+*/
+
+CREATE
+	TABLE IF NOT EXISTS backup_job
+	(
+		action TEXT,
+		backup_name TEXT,
+		last_note_id INTEGER,
+		last_attachment TEXT,
+		failures TEXT
+	);
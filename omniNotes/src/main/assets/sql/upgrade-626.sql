@@ -0,0 +1,15 @@
+/*
+* Adds references count of attachments files, shared by attachments having identical content
+*/
+
+CREATE INDEX IF NOT EXISTS attachments_uri_idx ON attachments(uri);
+
+CREATE
+	TABLE IF NOT EXISTS attachment_blobs
+	(
+		uri TEXT PRIMARY KEY,
+		refcount INTEGER
+	);
+
+INSERT OR REPLACE INTO attachment_blobs (uri, refcount)
+SELECT uri, COUNT(*) FROM attachments GROUP BY uri;
@@ -0,0 +1,21 @@
+/*
+* Replaces full-text index of words' substrings with an index reading notes text, without copying it,
+* and a vocabulary of indexed words to be searched for substrings
+*/
+
+DROP TABLE IF EXISTS notes_fts;
+
+CREATE VIEW IF NOT EXISTS notes_search AS
+SELECT creation AS rowid, title, CASE WHEN locked = 1 THEN '' ELSE content END AS content
+FROM notes;
+
+CREATE VIRTUAL TABLE notes_fts USING fts4(content="notes_search", title, content);
+
+INSERT INTO notes_fts(notes_fts) VALUES('rebuild');
+
+CREATE
+	TABLE IF NOT EXISTS search_terms
+	(
+		term TEXT PRIMARY KEY,
+		notes INTEGER
+	);
@@ -0,0 +1,5 @@
+/*
+* Removes references count of attachments files, counted through attachments' uri index instead
+*/
+
+DROP TABLE IF EXISTS attachment_blobs;
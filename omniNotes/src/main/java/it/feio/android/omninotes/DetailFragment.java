@@ -170,6 +170,7 @@ import it.feio.android.omninotes.utils.ShortcutHelper;
 import it.feio.android.omninotes.utils.StorageHelper;
 import it.feio.android.omninotes.utils.TagsHelper;
 import it.feio.android.omninotes.utils.TextHelper;
+import it.feio.android.omninotes.utils.ThumbnailCache;
 import it.feio.android.omninotes.utils.date.DateUtils;
 import it.feio.android.omninotes.utils.date.ReminderPickers;
 import it.feio.android.pixlui.links.TextLinkClickListener;
@@ -341,6 +342,7 @@ public class DetailFragment extends BaseFragment implements OnReminderPickedList
       // Removes previous version of edited image
       if (sketchEdited != null) {
         noteTmp.getAttachmentsList().remove(sketchEdited);
+        ThumbnailCache.invalidate(mainActivity, sketchEdited.getId());
         sketchEdited = null;
       }
     }
@@ -1441,7 +1443,7 @@ public class DetailFragment extends BaseFragment implements OnReminderPickedList
           if (!noteTmp.getAttachmentsList().equals(note.getAttachmentsList())) {
             for (Attachment newAttachment : noteTmp.getAttachmentsList()) {
               if (!note.getAttachmentsList().contains(newAttachment)) {
-                StorageHelper.delete(mainActivity, newAttachment.getUri().getPath());
+                StorageHelper.releaseAttachmentFile(mainActivity, newAttachment.getUri());
               }
             }
           }
@@ -49,7 +49,6 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.drawable.AnimationDrawable;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -98,6 +97,8 @@ import it.feio.android.omninotes.helpers.LogDelegate;
 import it.feio.android.omninotes.helpers.NotesHelper;
 import it.feio.android.omninotes.models.Category;
 import it.feio.android.omninotes.models.Note;
+import it.feio.android.omninotes.models.NoteQuery;
+import it.feio.android.omninotes.models.NotesPage;
 import it.feio.android.omninotes.models.ONStyle;
 import it.feio.android.omninotes.models.PasswordValidator;
 import it.feio.android.omninotes.models.Tag;
@@ -119,13 +120,19 @@ import it.feio.android.pixlui.links.UrlCompleter;
 import it.feio.android.simplegallery.util.BitmapUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.ObjectUtils;
+import rx.Observable;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.schedulers.Schedulers;
 
 
 public class ListFragment extends BaseFragment implements OnViewTouchedListener,
@@ -136,6 +143,10 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
   private static final int REQUEST_CODE_ADD_ALARMS = 3;
   public static final String LIST_VIEW_POSITION = "listViewPosition";
   public static final String LIST_VIEW_POSITION_OFFSET = "listViewPositionOffset";
+  // Number of not yet shown notes below which following page is loaded while scrolling
+  private static final int NOTES_PAGE_PREFETCH_DISTANCE = 20;
+  // Delay waited for the user to stop typing before performing instant search
+  private static final int INSTANT_SEARCH_DELAY = 300;
 
   private FragmentListBinding binding;
 
@@ -169,6 +180,13 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
   private boolean searchUncompleteChecklists;
   private boolean goBackOnToggleSearchLabel = false;
   private boolean searchLabelActive = false;
+  private final Handler instantSearchHandler = new Handler(Looper.getMainLooper());
+  private Runnable instantSearchRunnable;
+
+  // Paged loading of notes
+  private NoteQuery notesQuery;
+  private boolean notesLoading;
+  private boolean allNotesLoaded;
 
   private NoteAdapter listAdapter;
   private UndoBarController ubc;
@@ -189,6 +207,7 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
   @Override
   public void onDestroy() {
     super.onDestroy();
+    instantSearchHandler.removeCallbacks(instantSearchRunnable);
     EventBus.getDefault().unregister(this);
   }
 
@@ -224,6 +243,17 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
     itemAnimator.setRemoveDuration(1000);
     binding.list.setItemAnimator(itemAnimator);
 
+    binding.list.addOnScrollListener(new RecyclerView.OnScrollListener() {
+      @Override
+      public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        int lastVisiblePosition = linearLayoutManager.findLastVisibleItemPosition();
+        if (dy > 0 && listAdapter != null
+            && lastVisiblePosition >= listAdapter.getItemCount() - NOTES_PAGE_PREFETCH_DISTANCE) {
+          loadNextNotesPage(NotesPage.DEFAULT_SIZE);
+        }
+      }
+    });
+
     // Replace listview with Mr. Jingles if it is empty
     binding.list.setEmptyView(binding.emptyList);
 
@@ -408,13 +438,8 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
       // Here you can make any necessary updates to the activity when
       // the CAB is removed. By default, selected items are
       // deselected/unchecked.
-      for (int i = 0; i < listAdapter.getSelectedItems().size(); i++) {
-        int key = listAdapter.getSelectedItems().keyAt(i);
-      }
-
       selectedNotes.clear();
       listAdapter.clearSelectedItems();
-      listAdapter.notifyDataSetChanged();
 
       fab.setAllowed(isFabAllowed(true));
       if (undoNotesMap.size() == 0) {
@@ -719,7 +744,7 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
                     searchPerformed && mFragment.isAdded()) {
                   searchTags = null;
                   searchQuery = pattern;
-                  NoteLoaderTask.getInstance().execute("getNotesByPattern", pattern);
+                  instantSearch(pattern);
                   return true;
                 } else {
                   searchPerformed = true;
@@ -850,44 +875,15 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
       }
     } else {
       switch (item.getItemId()) {
-        case R.id.menu_category:
-          categorizeNotes();
-          break;
         case R.id.menu_tags:
-          tagNotes();
-          break;
         case R.id.menu_share:
-          share();
-          break;
         case R.id.menu_merge:
-          merge();
-          break;
-        case R.id.menu_archive:
-          archiveNotes(true);
-          break;
-        case R.id.menu_unarchive:
-          archiveNotes(false);
-          break;
-        case R.id.menu_trash:
-          trashNotes(true);
-          break;
-        case R.id.menu_untrash:
-          trashNotes(false);
-          break;
-        case R.id.menu_delete:
-          deleteNotes();
-          break;
-        case R.id.menu_select_all:
-          selectAllNotes();
-          break;
         case R.id.menu_add_reminder:
-          addReminders();
+          // List notes are summaries, while these actions need whole notes
+          completeNotes(getSelectedNotes(), () -> performActionModeAction(item));
           break;
-//                case R.ID.menu_synchronize:
-//                    synchronizeSelectedNotes();
-//                    break;
         default:
-          LogDelegate.e("Wrong element choosen: " + item.getItemId());
+          performActionModeAction(item);
       }
     }
 
@@ -895,6 +891,81 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
   }
 
 
+  private void performActionModeAction(MenuItem item) {
+    switch (item.getItemId()) {
+      case R.id.menu_category:
+        categorizeNotes();
+        break;
+      case R.id.menu_tags:
+        tagNotes();
+        break;
+      case R.id.menu_share:
+        share();
+        break;
+      case R.id.menu_merge:
+        merge();
+        break;
+      case R.id.menu_archive:
+        archiveNotes(true);
+        break;
+      case R.id.menu_unarchive:
+        archiveNotes(false);
+        break;
+      case R.id.menu_trash:
+        trashNotes(true);
+        break;
+      case R.id.menu_untrash:
+        trashNotes(false);
+        break;
+      case R.id.menu_delete:
+        deleteNotes();
+        break;
+      case R.id.menu_select_all:
+        selectAllNotes();
+        break;
+      case R.id.menu_add_reminder:
+        addReminders();
+        break;
+//                case R.ID.menu_synchronize:
+//                    synchronizeSelectedNotes();
+//                    break;
+      default:
+        LogDelegate.e("Wrong element choosen: " + item.getItemId());
+    }
+  }
+
+
+  /**
+   * Completes notes retrieved as summaries, reading them off the UI thread, then runs the given
+   * action on UI thread. Copies are read so that list items aren't changed while drawn.
+   */
+  private void completeNotes(List<Note> notes, Runnable action) {
+    List<Note> summaries = new ArrayList<>(notes);
+    List<Note> copies = new ArrayList<>();
+    for (Note summary : summaries) {
+      copies.add(new Note(summary));
+    }
+    Observable.fromCallable(() -> {
+      DbHelper.getInstance().completeNotes(copies);
+      return copies;
+    })
+        .subscribeOn(Schedulers.io())
+        .observeOn(AndroidSchedulers.mainThread())
+        .subscribe(fullNotes -> {
+          for (int i = 0; i < summaries.size(); i++) {
+            Note summary = summaries.get(i);
+            summary.setContent(fullNotes.get(i).getContent());
+            summary.setAttachmentsList(new ArrayList<>(fullNotes.get(i).getAttachmentsList()));
+            summary.setStoredValues(fullNotes.get(i).getStoredValues());
+            summary.setSummary(false);
+          }
+          if (isAdded()) {
+            action.run();
+          }
+        }, e -> LogDelegate.e("Error completing notes", e));
+  }
+
+
   private void addReminders() {
     Intent intent = new Intent(OmniNotes.getAppContext(), SnoozeActivity.class);
     intent.setAction(ACTION_POSTPONE);
@@ -943,15 +1014,19 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
       } catch (NumberFormatException e) {
         LogDelegate.v("Maybe was not a category!");
       }
-    } else {
-      LogDelegate.d("Editing note with ID: " + note.get_id());
     }
 
     // Current list scrolling position is saved to be restored later
     refreshListScrollPosition();
 
-    // Fragments replacing
-    mainActivity.switchToDetail(note);
+    if (note.get_id() != null) {
+      LogDelegate.d("Editing note with ID: " + note.get_id());
+      // Fragments replacing once list summary has been completed
+      completeNotes(Collections.singletonList(note), () -> mainActivity.switchToDetail(note));
+    } else {
+      // Fragments replacing
+      mainActivity.switchToDetail(note);
+    }
   }
 
 
@@ -1044,8 +1119,11 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
   void initNotesList(Intent intent) {
     LogDelegate.d("initNotesList intent: " + intent.getAction());
 
-    binding.progressWheel.setAlpha(1);
-    binding.list.setAlpha(0);
+    // Shown list is kept while loading when new notes will be merged into it
+    if (!isListAdapterReusable()) {
+      binding.progressWheel.setAlpha(1);
+      binding.list.setAlpha(0);
+    }
 
     // Search for a tag
     // A workaround to simplify it's to simulate normal search
@@ -1069,24 +1147,19 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
       // Using tags
       if (searchTags != null && intent.getStringExtra(SearchManager.QUERY) == null) {
         searchQuery = searchTags;
-        NoteLoaderTask.getInstance()
-            .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, "getNotesByTag",
-                searchQuery);
+        loadNotes(NoteQuery.tags(searchQuery));
       } else if (searchUncompleteChecklists || ACTION_SEARCH_UNCOMPLETE_CHECKLISTS.equals(
           intent.getAction())) {
         searchQuery = getContext().getResources().getString(R.string.uncompleted_checklists);
         searchUncompleteChecklists = true;
-        NoteLoaderTask.getInstance()
-            .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, "getNotesByUncompleteChecklist");
+        loadNotes(NoteQuery.uncompleteChecklists());
       } else {
         // Get the intent, verify the action and get the query
         if (intent.getStringExtra(SearchManager.QUERY) != null) {
           searchQuery = intent.getStringExtra(SearchManager.QUERY);
           searchTags = null;
         }
-        NoteLoaderTask.getInstance()
-            .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, "getNotesByPattern",
-                searchQuery);
+        loadNotes(NoteQuery.pattern(searchQuery));
       }
 
       toggleSearchLabel(true);
@@ -1106,18 +1179,72 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
         intent.removeExtra(INTENT_WIDGET);
         if (mainActivity.navigationTmp != null) {
           Long categoryId = Long.parseLong(mainActivity.navigationTmp);
-          NoteLoaderTask.getInstance().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
-              "getNotesByCategory", categoryId);
+          loadNotes(NoteQuery.category(categoryId));
         } else {
-          NoteLoaderTask.getInstance()
-              .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, "getAllNotes", true);
+          loadNotes(NoteQuery.navigation());
         }
 
       } else {
-        NoteLoaderTask.getInstance()
-            .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, "getAllNotes", true);
+        loadNotes(NoteQuery.navigation());
+      }
+    }
+  }
+
+
+  /**
+   * Searches pattern once user stopped typing. When pattern extends the previous one and all its
+   * few results are shown the search is narrowed to them, and results are merged into list.
+   */
+  private void instantSearch(final String pattern) {
+    instantSearchHandler.removeCallbacks(instantSearchRunnable);
+    instantSearchRunnable = () -> {
+      if (!mFragment.isAdded()) {
+        return;
+      }
+      boolean refinement = notesQuery != null && notesQuery.getType() == NoteQuery.Type.PATTERN
+          && !notesLoading && allNotesLoaded && listAdapter != null
+          && listAdapter.getItemCount() <= DbHelper.PATTERN_REFINEMENT_MAX_NOTES
+          && DbHelper.isPatternRefinement(notesQuery.getText(), pattern);
+      if (refinement) {
+        List<Long> noteIds = new ArrayList<>();
+        for (Note note : listAdapter.getNotes()) {
+          noteIds.add(note.get_id());
+        }
+        loadNotes(NoteQuery.pattern(pattern, noteIds));
+      } else {
+        loadNotes(NoteQuery.pattern(pattern));
       }
+    };
+    instantSearchHandler.postDelayed(instantSearchRunnable, INSTANT_SEARCH_DELAY);
+  }
+
+
+  /**
+   * Loads the first page of notes, big enough to restore the list scrolling position
+   */
+  private void loadNotes(NoteQuery query) {
+    // A pending instant search is outdated by any other load
+    instantSearchHandler.removeCallbacks(instantSearchRunnable);
+    notesQuery = query;
+    notesLoading = true;
+    allNotesLoaded = false;
+    NotesPage page = NotesPage.first(Math.max(NotesPage.DEFAULT_SIZE,
+        listViewPosition + NotesPage.DEFAULT_SIZE));
+    NoteLoaderTask.load(query, page);
+  }
+
+
+  /**
+   * Loads the page of notes following the ones already in list
+   */
+  private void loadNextNotesPage(int size) {
+    if (notesLoading || allNotesLoaded || listAdapter == null
+        || listAdapter.getItemCount() == 0) {
+      return;
     }
+    notesLoading = true;
+    NotesPage page = new NotesPage(listAdapter.getItem(listAdapter.getItemCount() - 1), size);
+    NoteLoaderTask.load(notesQuery, page);
   }
 
 
@@ -1166,6 +1293,24 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
 
 
   public void onEvent(NotesLoadedEvent notesLoadedEvent) {
+    NotesPage page = notesLoadedEvent.getPage();
+    notesLoading = false;
+    allNotesLoaded = !page.isFilledBy(notesLoadedEvent.getNotes().size());
+
+    if (!page.isFirst()) {
+      if (listAdapter != null) {
+        listAdapter.addAll(notesLoadedEvent.getNotes());
+      }
+      return;
+    }
+
+    // Only changed notes are rebound and animated, keeping scroll position
+    if (isListAdapterReusable()) {
+      listAdapter.setNotes(notesLoadedEvent.getNotes());
+      animateListView();
+      return;
+    }
+
     listAdapter = new NoteAdapter(mainActivity, Prefs.getBoolean(PREF_EXPANDED_VIEW, true),
         notesLoadedEvent.getNotes());
 
@@ -1186,6 +1331,11 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
     closeFab();
   }
 
+  private boolean isListAdapterReusable() {
+    return listAdapter != null && binding.list.getAdapter() == listAdapter
+        && listAdapter.isReusable(Prefs.getBoolean(PREF_EXPANDED_VIEW, true));
+  }
+
   private void initSwipeGesture() {
     ItemTouchHelper.SimpleCallback simpleItemTouchCallback = new ItemTouchHelper.SimpleCallback(0,
         ItemTouchHelper.LEFT | ItemTouchHelper.RIGHT) {
@@ -1300,7 +1450,6 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
       trashNote(getSelectedNotes(), false);
     }
 
-    listAdapter.notifyDataSetChanged();
     finishActionMode();
 
     // Advice to user
@@ -1342,18 +1491,50 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
 
 
   /**
-   * Selects all notes in list
+   * Selects all notes in list, so that batch actions never apply to a part of them. Notes not
+   * loaded into list yet are read off the UI thread with the list query, straight into selection
+   * without being added to list.
    */
   private void selectAllNotes() {
+    if (allNotesLoaded || listAdapter.getItemCount() == 0) {
+      selectNotes(Collections.emptyList());
+      return;
+    }
+    NoteQuery query = notesQuery;
+    NotesPage page = new NotesPage(listAdapter.getItem(listAdapter.getItemCount() - 1),
+        Integer.MAX_VALUE);
+    Observable.fromCallable(() -> NoteLoaderTask.loadNotes(query, page))
+        .subscribeOn(Schedulers.io())
+        .observeOn(AndroidSchedulers.mainThread())
+        .subscribe(notes -> {
+          // Selection is dropped if it ended or list changed meanwhile
+          if (isAdded() && query == notesQuery && getActionMode() != null) {
+            selectNotes(notes);
+          }
+        }, e -> LogDelegate.e("Error selecting all notes", e));
+  }
+
+
+  /**
+   * Selects notes in list together with the given ones, that aren't loaded into it
+   */
+  private void selectNotes(List<Note> notesNotLoaded) {
     for (int i = 0; i < binding.list.getChildCount(); i++) {
       LinearLayout v = binding.list.getChildAt(i).findViewById(R.id.card_layout);
       v.setBackgroundColor(getResources().getColor(R.color.list_bg_selected));
     }
     selectedNotes.clear();
-    for (int i = 0; i < listAdapter.getItemCount(); i++) {
-      selectedNotes.add(listAdapter.getItem(i));
-      listAdapter.addSelectedItem(i);
+    selectedNotes.addAll(listAdapter.getNotes());
+    Set<Long> selectedIds = new HashSet<>();
+    for (Note note : selectedNotes) {
+      selectedIds.add(note.get_id());
+    }
+    for (Note note : notesNotLoaded) {
+      if (selectedIds.add(note.get_id())) {
+        selectedNotes.add(note);
+      }
     }
+    listAdapter.addSelectedItems(selectedNotes);
     prepareActionModeMenu();
     setCabTitle();
   }
@@ -1419,11 +1600,10 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
         listAdapter.remove(note);
       } else {
         note.setArchived(archive);
-        listAdapter.replace(note, listAdapter.getPosition(note));
+        replaceInList(note);
       }
     }
 
-    listAdapter.notifyDataSetChanged();
     finishActionMode();
 
     // Advice to user
@@ -1443,11 +1623,26 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
 
 
   /**
-   * Saves notes to be eventually restored at right position
+   * Saves notes to be eventually restored at right position, selected ones not loaded into list
+   * are not restored into it
    */
   private void trackModifiedNotes(List<Note> modifiedNotesToTrack) {
     for (Note note : modifiedNotesToTrack) {
-      undoNotesMap.put(listAdapter.getPosition(note), note);
+      int position = listAdapter.getPosition(note);
+      if (position >= 0) {
+        undoNotesMap.put(position, note);
+      }
+    }
+  }
+
+
+  /**
+   * Rebinds a changed note, unless it's a selected one not loaded into list
+   */
+  private void replaceInList(Note note) {
+    int position = listAdapter.getPosition(note);
+    if (position >= 0) {
+      listAdapter.replace(note, position);
     }
   }
 
@@ -1523,7 +1718,7 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
         listAdapter.remove(note);
       } else {
         note.setCategory(category);
-        listAdapter.replace(note, listAdapter.getPosition(note));
+        replaceInList(note);
       }
     }
 
@@ -1656,8 +1851,6 @@ public class ListFragment extends BaseFragment implements OnViewTouchedListener,
       }
     }
 
-    listAdapter.notifyDataSetChanged();
-
     selectedNotes.clear();
     undoNotesMap.clear();
 
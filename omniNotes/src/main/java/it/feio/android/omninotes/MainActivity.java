@@ -51,6 +51,7 @@ import com.pixplicity.easyprefs.library.Prefs;
 import de.greenrobot.event.EventBus;
 import de.keyboardsurfer.android.widget.crouton.Crouton;
 import de.keyboardsurfer.android.widget.crouton.Style;
+import it.feio.android.omninotes.async.DataBackupIntentService;
 import it.feio.android.omninotes.async.UpdateWidgetsTask;
 import it.feio.android.omninotes.async.bus.PasswordRemovedEvent;
 import it.feio.android.omninotes.async.bus.SwitchFragmentEvent;
@@ -185,6 +186,9 @@ public class MainActivity extends BaseActivity implements
     }
 
     handleIntents();
+
+    DataBackupIntentService.resumeBackupJob(this);
+    DataBackupIntentService.scheduleAttachmentsGc(this);
   }
 
   private FragmentManager getFragmentManagerInstance() {
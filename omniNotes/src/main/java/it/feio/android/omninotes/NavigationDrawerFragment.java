@@ -119,6 +119,10 @@ public class NavigationDrawerFragment extends Fragment {
 
 
   public void onEvent(NotesLoadedEvent event) {
+    // Following pages only extend the list already shown
+    if (!event.getPage().isFirst()) {
+      return;
+    }
     if (mDrawerLayout != null) {
       if (!isDoublePanelActive()) {
         mDrawerLayout.setDrawerLockMode(DrawerLayout.LOCK_MODE_UNLOCKED);
@@ -26,13 +26,19 @@ import android.os.StrictMode;
 import android.text.TextUtils;
 import androidx.multidex.MultiDexApplication;
 import com.pixplicity.easyprefs.library.Prefs;
+import it.feio.android.omninotes.db.DecryptedContentCache;
+import it.feio.android.omninotes.helpers.AttachmentsHelper;
 import it.feio.android.omninotes.helpers.LanguageHelper;
+import it.feio.android.omninotes.helpers.LogDelegate;
 import it.feio.android.omninotes.helpers.notifications.NotificationsHelper;
+import it.feio.android.omninotes.utils.PasswordHelper;
 import org.acra.ACRA;
 import org.acra.config.CoreConfigurationBuilder;
 import org.acra.config.HttpSenderConfigurationBuilder;
 import org.acra.config.ToastConfigurationBuilder;
 import org.acra.sender.HttpSender.Method;
+import rx.Observable;
+import rx.schedulers.Schedulers;
 
 
 public class OmniNotes extends MultiDexApplication {
@@ -60,6 +66,13 @@ public class OmniNotes extends MultiDexApplication {
     initSharedPreferences();
     enableStrictMode();
     new NotificationsHelper(this).initNotificationChannels();
+    // Locked notes re-encryption interrupted by app being killed is completed
+    PasswordHelper.resumePasswordRekey().subscribeOn(Schedulers.io()).subscribe();
+    // Attachments files existing before attachments store, or restored from old backups, are moved
+    Observable.fromCallable(AttachmentsHelper::storeLegacyAttachments)
+        .subscribeOn(Schedulers.io())
+        .subscribe(stored -> {
+        }, throwable -> LogDelegate.e("Error storing attachments files", throwable));
   }
 
   private void initAcra() {
@@ -105,4 +118,13 @@ public class OmniNotes extends MultiDexApplication {
     LanguageHelper.updateLanguage(this, language);
   }
 
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    // App went to background or memory is low: decrypted contents of locked notes are not kept
+    if (level >= TRIM_MEMORY_UI_HIDDEN) {
+      DecryptedContentCache.clear();
+    }
+  }
+
 }
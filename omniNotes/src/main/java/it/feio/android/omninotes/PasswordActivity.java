@@ -32,12 +32,10 @@ import de.greenrobot.event.EventBus;
 import de.keyboardsurfer.android.widget.crouton.Crouton;
 import de.keyboardsurfer.android.widget.crouton.LifecycleCallback;
 import it.feio.android.omninotes.async.bus.PasswordRemovedEvent;
-import it.feio.android.omninotes.db.DbHelper;
 import it.feio.android.omninotes.models.ONStyle;
 import it.feio.android.omninotes.models.PasswordValidator;
 import it.feio.android.omninotes.utils.PasswordHelper;
 import it.feio.android.omninotes.utils.Security;
-import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.schedulers.Schedulers;
 
@@ -166,17 +164,22 @@ public class PasswordActivity extends BaseActivity {
     } else if (passwordText.length() == 0) {
       Crouton.makeText(mActivity, R.string.empty_password, ONStyle.WARN, croutonHandle).show();
     } else {
-      Observable
-          .from(DbHelper.getInstance().getNotesWithLock(true))
+      Prefs.edit()
+          .putString(PREF_PASSWORD_QUESTION, questionText)
+          .putString(PREF_PASSWORD_ANSWER, Security.md5(answerText))
+          .apply();
+      MaterialDialog progressDialog = new MaterialDialog.Builder(mActivity)
+          .content(R.string.working)
+          .progress(false, 100)
+          .cancelable(false)
+          .build();
+      PasswordHelper.rekeyLockedNotes(Security.md5(passwordText))
           .subscribeOn(Schedulers.newThread())
           .observeOn(AndroidSchedulers.mainThread())
-          .doOnSubscribe(() -> Prefs.edit()
-              .putString(PREF_PASSWORD, Security.md5(passwordText))
-              .putString(PREF_PASSWORD_QUESTION, questionText)
-              .putString(PREF_PASSWORD_ANSWER, Security.md5(answerText))
-              .apply())
-          .doOnNext(note -> DbHelper.getInstance().updateNote(note, false))
+          .doOnSubscribe(progressDialog::show)
+          .doOnNext(progressDialog::setProgress)
           .doOnCompleted(() -> {
+            progressDialog.dismiss();
             Crouton crouton = Crouton
                 .makeText(mActivity, R.string.password_successfully_changed, ONStyle
                     .CONFIRM, croutonHandle);
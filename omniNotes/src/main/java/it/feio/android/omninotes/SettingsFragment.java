@@ -37,6 +37,7 @@ import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Intent;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.database.sqlite.SQLiteDatabase;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Build;
@@ -65,6 +66,7 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.pixplicity.easyprefs.library.Prefs;
 import it.feio.android.omninotes.async.DataBackupIntentService;
 import it.feio.android.omninotes.helpers.AppVersionHelper;
+import it.feio.android.omninotes.helpers.BackupArchiveHelper;
 import it.feio.android.omninotes.helpers.BackupHelper;
 import it.feio.android.omninotes.helpers.LanguageHelper;
 import it.feio.android.omninotes.helpers.LogDelegate;
@@ -196,36 +198,6 @@ public class SettingsFragment extends PreferenceFragmentCompat {
       });
     }
 
-//		// Autobackup feature integrity check
-//		Preference backupIntegrityCheck = findPreference("settings_backup_integrity_check");
-//		if (backupIntegrityCheck != null) {
-//			backupIntegrityCheck.setOnPreferenceClickListener(arg0 -> {
-//				List<LinkedList<DiffMatchPatch.Diff>> errors = BackupHelper.integrityCheck(StorageHelper
-//						.getBackupDir(ConstantsBase.AUTO_BACKUP_DIR));
-//				if (errors.isEmpty()) {
-//					new MaterialDialog.Builder(activity)
-//							.content("Everything is ok")
-//							.positiveText(R.string.ok)
-//							.build().show();
-//				} else {
-//					DiffMatchPatch diffMatchPatch = new DiffMatchPatch();
-//					String content = Observable.from(errors).map(diffs -> diffMatchPatch.diffPrettyHtml(diffs) +
-//							"<br/>").toList().toBlocking().first().toString();
-//					View v = getActivity().getLayoutInflater().inflate(R.layout.webview, null);
-//					((WebView) v.findViewById(R.ID.webview)).loadData(content, "text/html", null);
-//					new MaterialDialog.Builder(activity)
-//							.customView(v, true)
-//							.positiveText(R.string.ok)
-//							.negativeText("Copy to clipboard")
-//							.onNegative((dialog, which) -> {
-//								SystemHelper.copyToClipboard(activity, content);
-//								Toast.makeText(activity, "Copied to clipboard", Toast.LENGTH_SHORT).show();
-//							})
-//							.build().show();
-//				}
-//				return false;
-//			});
-//		}
 //
 //		// Autobackup
 //		final SwitchPreference enableAutobackup = (SwitchPreference) findPreference("settings_enable_autobackup");
@@ -519,8 +491,8 @@ public class SettingsFragment extends PreferenceFragmentCompat {
             .positiveText(R.string.confirm)
             .onPositive((dialog, which) -> {
               Prefs.edit().clear().apply();
-              File db = getActivity().getDatabasePath(DATABASE_NAME);
-              StorageHelper.delete(getActivity(), db.getAbsolutePath());
+              // Write-ahead log and shared memory files are deleted too
+              SQLiteDatabase.deleteDatabase(getActivity().getDatabasePath(DATABASE_NAME));
               File attachmentsDir = StorageHelper.getAttachmentDir();
               StorageHelper.delete(getActivity(), attachmentsDir.getAbsolutePath());
               File cacheDir = StorageHelper.getCacheDir(getActivity());
@@ -654,6 +626,19 @@ public class SettingsFragment extends PreferenceFragmentCompat {
                   service.putExtra(DataBackupIntentService.INTENT_BACKUP_NAME, backupSelected);
                   getActivity().startService(service);
                 }).build().show();
+          })
+          .setNeutralButton(R.string.verify, (dialog, which) -> {
+            int position = ((AlertDialog) dialog).getListView().getCheckedItemPosition();
+
+            if (position == -1) {
+              Toast.makeText(getContext(), R.string.nothing_selected, Toast.LENGTH_LONG).show();
+              return;
+            }
+
+            Intent service = new Intent(getActivity(), DataBackupIntentService.class);
+            service.setAction(DataBackupIntentService.ACTION_DATA_VERIFY);
+            service.putExtra(DataBackupIntentService.INTENT_BACKUP_NAME, backups.get(position));
+            getActivity().startService(service);
           });
 
       importDialog.show();
@@ -689,7 +674,8 @@ public class SettingsFragment extends PreferenceFragmentCompat {
       @Override
       public void afterTextChanged(Editable arg0) {
 
-        if (backups.contains(arg0.toString())) {
+        if (backups.contains(arg0.toString())
+            || backups.contains(arg0 + BackupArchiveHelper.ARCHIVE_EXTENSION)) {
           backupExistingTextView.setText(R.string.backup_existing);
         } else {
           backupExistingTextView.setText("");
@@ -69,7 +69,7 @@ public class AttachmentTask extends AsyncTask<Void, Void, Attachment> {
       }
     } else {
       if (mAttachment != null) {
-        StorageHelper.delete(OmniNotes.getAppContext(), mAttachment.getUri().getPath());
+        StorageHelper.releaseAttachmentFile(OmniNotes.getAppContext(), mAttachment.getUri());
       }
     }
   }
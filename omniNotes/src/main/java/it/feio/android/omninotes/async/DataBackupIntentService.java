@@ -21,6 +21,9 @@ import static android.app.PendingIntent.FLAG_UPDATE_CURRENT;
 import static it.feio.android.omninotes.helpers.IntentHelper.immutablePendingIntentFlag;
 import static it.feio.android.omninotes.utils.ConstantsBase.ACTION_RESTART_APP;
 import static it.feio.android.omninotes.utils.ConstantsBase.PREF_BACKUP_FOLDER_URI;
+import static it.feio.android.omninotes.utils.ConstantsBase.PREF_BACKUP_JOB_FAILED;
+import static it.feio.android.omninotes.utils.ConstantsBase.PREF_LAST_ATTACHMENTS_GC;
+import static it.feio.android.omninotes.utils.ConstantsBase.PREF_LEGACY_ATTACHMENTS_STORED;
 
 import android.annotation.TargetApi;
 import android.app.IntentService;
@@ -30,12 +33,15 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Build.VERSION_CODES;
+import android.text.TextUtils;
 import com.lazygeniouz.dfc.file.DocumentFileCompat;
 import com.pixplicity.easyprefs.library.Prefs;
 import it.feio.android.omninotes.MainActivity;
 import it.feio.android.omninotes.OmniNotes;
 import it.feio.android.omninotes.R;
 import it.feio.android.omninotes.db.DbHelper;
+import it.feio.android.omninotes.helpers.AttachmentsHelper;
+import it.feio.android.omninotes.helpers.BackupArchiveHelper;
 import it.feio.android.omninotes.helpers.BackupHelper;
 import it.feio.android.omninotes.helpers.LogDelegate;
 import it.feio.android.omninotes.helpers.SpringImportHelper;
@@ -44,10 +50,23 @@ import it.feio.android.omninotes.helpers.notifications.NotificationsHelper;
 import it.feio.android.omninotes.models.Attachment;
 import it.feio.android.omninotes.models.Note;
 import it.feio.android.omninotes.models.listeners.OnAttachingFileListener;
+import it.feio.android.omninotes.models.misc.AttachmentsGcReport;
+import it.feio.android.omninotes.models.misc.BackupJob;
+import it.feio.android.omninotes.models.misc.BackupManifest;
+import it.feio.android.omninotes.models.misc.BackupVerificationReport;
 import it.feio.android.omninotes.utils.ReminderHelper;
 import it.feio.android.omninotes.utils.StorageHelper;
+import it.feio.android.omninotes.utils.ThumbnailCache;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
 import rx.Observable;
 
 public class DataBackupIntentService extends IntentService implements OnAttachingFileListener {
@@ -56,6 +75,15 @@ public class DataBackupIntentService extends IntentService implements OnAttachin
   public static final String ACTION_DATA_EXPORT = "action_data_export";
   public static final String ACTION_DATA_IMPORT = "action_data_import";
   public static final String ACTION_DATA_DELETE = "action_data_delete";
+  public static final String ACTION_DATA_VERIFY = "action_data_verify";
+  public static final String ACTION_ATTACHMENTS_GC = "action_attachments_gc";
+
+  // Max number of failed items listed into completion notification
+  private static final int FAILURES_SHOWN = 10;
+  // Min time between garbage collections of attachments
+  private static final long ATTACHMENTS_GC_INTERVAL = TimeUnit.DAYS.toMillis(7);
+
+  private static volatile boolean running;
 
   private NotificationsHelper mNotificationsHelper;
 
@@ -76,14 +104,23 @@ public class DataBackupIntentService extends IntentService implements OnAttachin
         R.drawable.ic_content_save_white_24dp, getString(R.string.working));
 
     // If an alarm has been fired a notification must be generated
-    if (ACTION_DATA_EXPORT.equals(intent.getAction())) {
-      exportData(intent);
-    } else if (ACTION_DATA_IMPORT.equals(intent.getAction())) {
-      importData(intent);
-    } else if (SpringImportHelper.ACTION_DATA_IMPORT_SPRINGPAD.equals(intent.getAction())) {
-      importDataFromSpringpad(intent, mNotificationsHelper);
-    } else if (ACTION_DATA_DELETE.equals(intent.getAction())) {
-      deleteData(intent);
+    running = true;
+    try {
+      if (ACTION_DATA_EXPORT.equals(intent.getAction())) {
+        exportData(intent);
+      } else if (ACTION_DATA_IMPORT.equals(intent.getAction())) {
+        importData(intent);
+      } else if (SpringImportHelper.ACTION_DATA_IMPORT_SPRINGPAD.equals(intent.getAction())) {
+        importDataFromSpringpad(intent, mNotificationsHelper);
+      } else if (ACTION_DATA_DELETE.equals(intent.getAction())) {
+        deleteData(intent);
+      } else if (ACTION_DATA_VERIFY.equals(intent.getAction())) {
+        verifyData(intent);
+      } else if (ACTION_ATTACHMENTS_GC.equals(intent.getAction())) {
+        collectAttachmentsGarbage();
+      }
+    } finally {
+      running = false;
     }
   }
 
@@ -95,74 +132,165 @@ public class DataBackupIntentService extends IntentService implements OnAttachin
     createNotification(intent, this, title, text, null);
   }
 
-  private void exportData(Intent intent) {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-      exportDataWithScopedStorage(intent);
-    } else {
-      exportDataWithoutScopedStorage(intent);
+  /**
+   * Resumes a backup or restore interrupted by process death, if any. Failed ones are kept to be
+   * resumed only when user runs them again, so that a persistent error isn't hit at every start.
+   */
+  public static void resumeBackupJob(Context context) {
+    BackupJob backupJob = DbHelper.getInstance().getBackupJob();
+    if (backupJob != null && !running && !Prefs.getBoolean(PREF_BACKUP_JOB_FAILED, false)) {
+      LogDelegate.i("Resuming " + backupJob.getAction() + " of " + backupJob.getBackupName());
+      Intent service = new Intent(context, DataBackupIntentService.class);
+      service.setAction(backupJob.getAction());
+      service.putExtra(INTENT_BACKUP_NAME, backupJob.getBackupName());
+      context.startService(service);
+    }
+  }
+
+  /**
+   * Collects garbage of attachments if it hasn't been done for a while. Being queued as backups
+   * and restores, it never runs while they're writing attachments, and it's postponed while one of
+   * them is pending to be resumed.
+   */
+  public static void scheduleAttachmentsGc(Context context) {
+    long lastAttachmentsGc = Prefs.getLong(PREF_LAST_ATTACHMENTS_GC, 0);
+    if (Calendar.getInstance().getTimeInMillis() - lastAttachmentsGc > ATTACHMENTS_GC_INTERVAL
+        && !running && DbHelper.getInstance().getBackupJob() == null) {
+      Intent service = new Intent(context, DataBackupIntentService.class);
+      service.setAction(ACTION_ATTACHMENTS_GC);
+      context.startService(service);
     }
   }
 
-  private void exportDataWithScopedStorage(Intent intent) {
+  /**
+   * Continues the pending job if it's the same backup or restore, otherwise starts a new one
+   */
+  private BackupJob startBackupJob(Intent intent) {
+    Prefs.edit().remove(PREF_BACKUP_JOB_FAILED).apply();
     String backupName = intent.getStringExtra(INTENT_BACKUP_NAME);
-    var backupDir = DocumentFileCompat.Companion.fromTreeUri(getBaseContext(),
-        Uri.parse(Prefs.getString(PREF_BACKUP_FOLDER_URI, null))).createDirectory(backupName);
+    BackupJob backupJob = DbHelper.getInstance().getBackupJob();
+    if (backupJob != null && backupJob.getAction().equals(intent.getAction())
+        && backupJob.getBackupName().equals(backupName)) {
+      return backupJob;
+    }
+    return DbHelper.getInstance().startBackupJob(intent.getAction(), backupName);
+  }
 
+  /**
+   * Message reporting items the job failed on, or the given one if there are none
+   */
+  private String getBackupJobMessage(String message) {
+    BackupJob backupJob = DbHelper.getInstance().getBackupJob();
+    if (backupJob == null || backupJob.getFailures().isEmpty()) {
+      return message;
+    }
+    List<String> failures = backupJob.getFailures();
+    LogDelegate.w("Backup items failed: " + TextUtils.join(", ", failures));
+    return getString(R.string.backup_failed_items, failures.size(),
+        TextUtils.join(", ", failures.subList(0, Math.min(failures.size(), FAILURES_SHOWN))));
+  }
+
+  private void exportData(Intent intent) {
+    startBackupJob(intent);
     try {
-      BackupHelper.exportNotes(backupDir);
-      BackupHelper.exportAttachments(backupDir, mNotificationsHelper);
-      BackupHelper.exportSettings(backupDir);
+      String path = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+          ? exportDataWithScopedStorage(intent)
+          : exportDataWithoutScopedStorage(intent);
+      mNotificationsHelper.finish(getString(R.string.data_export_completed),
+          getBackupJobMessage(path));
+      DbHelper.getInstance().finishBackupJob();
     } catch (IOException e) {
-      e.printStackTrace();
-      mNotificationsHelper.finish(getString(R.string.data_export_failed), null);
+      LogDelegate.e("Backup export failed", e);
+      failBackupJob();
     }
-    mNotificationsHelper.finish(getString(R.string.data_export_completed), backupDir.getUri().getPath());
   }
 
-  private synchronized void exportDataWithoutScopedStorage(Intent intent) {
-    String backupName = intent.getStringExtra(INTENT_BACKUP_NAME);
-    File backupDir = StorageHelper.getOrCreateBackupDir(backupName);
+  /**
+   * Keeps checkpoint of a job failed on an error, as a transient one, so that running it again
+   * resumes it instead of starting over
+   */
+  private void failBackupJob() {
+    Prefs.edit().putBoolean(PREF_BACKUP_JOB_FAILED, true).apply();
+    mNotificationsHelper.finish(getString(R.string.data_export_failed),
+        getString(R.string.backup_job_resumable));
+  }
 
-    // Directory clean in case of previously used backup name
-    StorageHelper.delete(this, backupDir.getAbsolutePath());
-    // Directory is re-created in case of previously used backup name (removed above)
-    backupDir = StorageHelper.getOrCreateBackupDir(backupName);
+  private String exportDataWithScopedStorage(Intent intent) throws IOException {
+    String backupName = intent.getStringExtra(INTENT_BACKUP_NAME);
+    var backupsDir = DocumentFileCompat.Companion.fromTreeUri(getBaseContext(),
+        Uri.parse(Prefs.getString(PREF_BACKUP_FOLDER_URI, null)));
+
+    // A previous folder backup with the same name is updated
+    var backupDir = backupsDir.findFile(backupName);
+    if (backupDir != null && backupDir.isDirectory()) {
+      exportBackup(backupDir);
+      return backupDir.getUri().getPath();
+    }
 
-    try {
-      BackupHelper.exportNotes(DocumentFileCompat.Companion.fromFile(getBaseContext(), backupDir));
-      BackupHelper.exportAttachments(
-          DocumentFileCompat.Companion.fromFile(getBaseContext(), backupDir), mNotificationsHelper);
-      BackupHelper.exportSettings(DocumentFileCompat.Companion.fromFile(getBaseContext(), backupDir));
-    } catch (IOException e) {
-      e.printStackTrace();
-      mNotificationsHelper.finish(getString(R.string.data_export_failed), null);
+    String archiveName = backupName + BackupArchiveHelper.ARCHIVE_EXTENSION;
+    var archive = backupsDir.findFile(archiveName);
+    if (archive == null) {
+      archive = backupsDir.createFile(BackupArchiveHelper.ARCHIVE_MIME_TYPE, archiveName);
     }
-    mNotificationsHelper.finish(getString(R.string.data_export_completed), backupDir.getAbsolutePath());
+    OutputStream outputStream = getContentResolver().openOutputStream(archive.getUri(), "wt");
+    if (outputStream == null) {
+      throw new IOException("Can't write backup " + archiveName);
+    }
+    BackupArchiveHelper.exportArchive(outputStream, mNotificationsHelper);
+    return archive.getUri().getPath();
   }
 
-  private synchronized void importData(Intent intent) {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-      importDataWithScopedStorage(intent);
-    } else {
-      importDataWithoutScopedStorage(intent);
+  private synchronized String exportDataWithoutScopedStorage(Intent intent) throws IOException {
+    String backupName = intent.getStringExtra(INTENT_BACKUP_NAME);
+
+    // A previous folder backup with the same name is updated
+    File backupDir = new File(StorageHelper.getOrCreateExternalStoragePublicDir(), backupName);
+    if (backupDir.isDirectory()) {
+      exportBackup(DocumentFileCompat.Companion.fromFile(getBaseContext(), backupDir));
+      return backupDir.getAbsolutePath();
     }
+
+    File archive = new File(StorageHelper.getOrCreateExternalStoragePublicDir(),
+        backupName + BackupArchiveHelper.ARCHIVE_EXTENSION);
+    BackupArchiveHelper.exportArchive(new FileOutputStream(archive), mNotificationsHelper);
+    return archive.getAbsolutePath();
   }
 
-  private synchronized void importDataWithoutScopedStorage(Intent intent) {
-    File backupDir = StorageHelper.getOrCreateBackupDir(intent.getStringExtra(INTENT_BACKUP_NAME));
+  /**
+   * Writes into backup folder only what changed since the previous export into it, if any. The
+   * manifest is written as checkpoint after notes too, so a resumed export skips them.
+   */
+  private void exportBackup(DocumentFileCompat backupDir) throws IOException {
+    BackupManifest manifest = BackupHelper.readManifest(backupDir);
+    BackupHelper.exportNotes(backupDir, manifest);
+    BackupHelper.writeManifest(backupDir, manifest);
+    BackupHelper.exportAttachments(backupDir, mNotificationsHelper, manifest);
+    BackupHelper.exportSettings(backupDir);
+    BackupHelper.writeManifest(backupDir, manifest);
+  }
 
+  private synchronized void importData(Intent intent) {
+    BackupJob backupJob = startBackupJob(intent);
     try {
-      var backupDirDocumentFile = DocumentFileCompat.Companion.fromFile(getBaseContext(),
-          backupDir);
-      BackupHelper.importSettings(backupDirDocumentFile);
-      BackupHelper.importNotes(backupDirDocumentFile);
-      BackupHelper.importAttachments(backupDirDocumentFile, mNotificationsHelper);
+      if (BackupArchiveHelper.isArchive(backupJob.getBackupName())) {
+        importArchive(backupJob);
+      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        importBackup(getBackupDirWithScopedStorage(intent), backupJob);
+      } else {
+        importBackup(DocumentFileCompat.Companion.fromFile(getBaseContext(),
+            StorageHelper.getOrCreateBackupDir(backupJob.getBackupName())), backupJob);
+      }
+      // Restored attachments may reuse ids of the ones thumbnails were generated for
+      ThumbnailCache.clear(this);
+      // Old backups' attachments files are moved into store at next start
+      Prefs.edit().remove(PREF_LEGACY_ATTACHMENTS_STORED).apply();
 
       resetReminders();
       mNotificationsHelper.cancel();
 
       createNotification(intent, this, getString(R.string.data_import_completed),
-          getString(R.string.click_to_refresh_application), backupDir);
+          getBackupJobMessage(getString(R.string.click_to_refresh_application)), null);
+      DbHelper.getInstance().finishBackupJob();
 
       // Performs auto-backup filling after backup restore
 //        if (Prefs.getBoolean(Constants.PREF_ENABLE_AUTOBACKUP, false)) {
@@ -171,36 +299,96 @@ public class DataBackupIntentService extends IntentService implements OnAttachin
 //            BackupHelper.exportAttachments(autoBackupDir);
 //        }
     } catch (IOException e) {
-      mNotificationsHelper.finish(getString(R.string.data_export_failed), null);
+      LogDelegate.e("Backup import failed", e);
+      failBackupJob();
     }
   }
 
+  /**
+   * Restores a folder backup skipping notes and attachments already restored by the job
+   */
+  private void importBackup(DocumentFileCompat backupDir, BackupJob backupJob)
+      throws IOException {
+    BackupHelper.importSettings(backupDir);
+    BackupHelper.importNotes(backupDir, mNotificationsHelper, backupJob.getLastNoteId());
+    BackupHelper.importAttachments(backupDir, mNotificationsHelper,
+        backupJob.getLastAttachment());
+  }
+
   @TargetApi(VERSION_CODES.LOLLIPOP)
-  private synchronized void importDataWithScopedStorage(Intent intent) {
-    var backupDir = Observable.from(DocumentFileCompat.Companion.fromTreeUri(getBaseContext(),
+  private DocumentFileCompat getBackupDirWithScopedStorage(Intent intent) {
+    return Observable.from(DocumentFileCompat.Companion.fromTreeUri(getBaseContext(),
             Uri.parse(Prefs.getString(PREF_BACKUP_FOLDER_URI, null))).listFiles())
         .filter(f -> f.getName().equals(intent.getStringExtra(INTENT_BACKUP_NAME))).toBlocking()
         .single();
+  }
 
-    try {
-      BackupHelper.importSettings(backupDir);
-      BackupHelper.importNotes(backupDir);
-      BackupHelper.importAttachments(backupDir, mNotificationsHelper);
-
-      resetReminders();
-      mNotificationsHelper.cancel();
+  /**
+   * Archives are read sequentially, so a resumed restore reads them again from the beginning, but
+   * only verifying notes and attachments already restored by the job
+   */
+  private void importArchive(BackupJob backupJob) throws IOException {
+    for (String corruptedItem : BackupArchiveHelper.importArchive(
+        openArchive(backupJob.getBackupName()), mNotificationsHelper, backupJob.getLastNoteId(),
+        backupJob.getLastAttachment())) {
+      DbHelper.getInstance().addBackupJobFailure(corruptedItem);
+    }
+  }
 
-      createNotification(intent, this, getString(R.string.data_import_completed),
-          getString(R.string.click_to_refresh_application), null);
+  private InputStream openArchive(String backupName) throws IOException {
+    InputStream inputStream;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      var archive = DocumentFileCompat.Companion.fromTreeUri(getBaseContext(),
+          Uri.parse(Prefs.getString(PREF_BACKUP_FOLDER_URI, null))).findFile(backupName);
+      inputStream = archive == null ? null
+          : getContentResolver().openInputStream(archive.getUri());
+    } else {
+      inputStream = new FileInputStream(
+          new File(StorageHelper.getOrCreateExternalStoragePublicDir(), backupName));
+    }
+    if (inputStream == null) {
+      throw new IOException("Can't read backup " + backupName);
+    }
+    return inputStream;
+  }
 
-      // Performs auto-backup filling after backup restore
-//        if (Prefs.getBoolean(Constants.PREF_ENABLE_AUTOBACKUP, false)) {
-//            File autoBackupDir = StorageHelper.getBackupDir(Constants.AUTO_BACKUP_DIR);
-//            BackupHelper.exportNotes(autoBackupDir);
-//            BackupHelper.exportAttachments(autoBackupDir);
-//        }
+  /**
+   * Compares a backup with current notes and attachments without restoring it
+   */
+  private void verifyData(Intent intent) {
+    String backupName = intent.getStringExtra(INTENT_BACKUP_NAME);
+    try {
+      BackupVerificationReport report;
+      if (BackupArchiveHelper.isArchive(backupName)) {
+        report = BackupArchiveHelper.verifyArchive(openArchive(backupName));
+      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        report = BackupHelper.verifyBackup(getBackupDirWithScopedStorage(intent));
+      } else {
+        report = BackupHelper.verifyBackup(DocumentFileCompat.Companion.fromFile(getBaseContext(),
+            StorageHelper.getOrCreateBackupDir(backupName)));
+      }
+      LogDelegate.i("Verification of " + backupName + ": " + report);
+      mNotificationsHelper.finish(getString(R.string.backup_verification_completed),
+          getString(R.string.backup_verification_report, report.getValid(),
+              report.getMissing().size(), report.getCorrupt().size(), report.getStale().size()));
     } catch (IOException e) {
-      mNotificationsHelper.finish(getString(R.string.data_export_failed), null);
+      LogDelegate.e("Backup verification failed", e);
+      mNotificationsHelper.finish(getString(R.string.backup_verification_failed), null);
+    }
+  }
+
+  private void collectAttachmentsGarbage() {
+    AttachmentsGcReport report = AttachmentsHelper.collectGarbage();
+    Prefs.edit().putLong(PREF_LAST_ATTACHMENTS_GC, Calendar.getInstance().getTimeInMillis())
+        .apply();
+    LogDelegate.i("Attachments garbage collection: " + report);
+    if (report.isEmpty()) {
+      mNotificationsHelper.cancel();
+    } else {
+      mNotificationsHelper.finish(getString(R.string.attachments_gc_completed),
+          getString(R.string.attachments_gc_report,
+              FileUtils.byteCountToDisplaySize(report.getFreedBytes()), report.getDeletedFiles(),
+              report.getOrphanRows()));
     }
   }
 
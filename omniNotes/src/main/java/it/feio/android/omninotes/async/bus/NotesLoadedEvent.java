@@ -19,6 +19,7 @@ package it.feio.android.omninotes.async.bus;
 
 import it.feio.android.omninotes.helpers.LogDelegate;
 import it.feio.android.omninotes.models.Note;
+import it.feio.android.omninotes.models.NotesPage;
 import java.util.List;
 import lombok.Getter;
 import lombok.Setter;
@@ -30,9 +31,13 @@ public class NotesLoadedEvent {
   @Setter
   private List<Note> notes;
 
-  public NotesLoadedEvent(List<Note> notes) {
+  @Getter
+  private NotesPage page;
+
+  public NotesLoadedEvent(List<Note> notes, NotesPage page) {
     LogDelegate.d(this.getClass().getName());
     this.notes = notes;
+    this.page = page;
   }
 
 }
@@ -14,77 +14,107 @@
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
+
 package it.feio.android.omninotes.async.notes;
 
+import android.database.SQLException;
 import android.os.AsyncTask;
 import de.greenrobot.event.EventBus;
 import it.feio.android.omninotes.async.bus.NotesLoadedEvent;
 import it.feio.android.omninotes.db.DbHelper;
 import it.feio.android.omninotes.exceptions.NotesLoadingException;
+import it.feio.android.omninotes.helpers.LogDelegate;
 import it.feio.android.omninotes.models.Note;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import it.feio.android.omninotes.models.NoteQuery;
+import it.feio.android.omninotes.models.NotesPage;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 
-public class NoteLoaderTask extends AsyncTask<Object, Void, List<Note>> {
+/**
+ * Loads notes list pages. Every new load supersedes the previous one, that is cancelled: if still
+ * waiting it ends without querying, otherwise its results are dropped without being posted.
+ */
+public class NoteLoaderTask extends AsyncTask<Void, Void, List<Note>> {
 
   private static final String ERROR_RETRIEVING_NOTES = "Error retrieving notes";
 
-  private static NoteLoaderTask instance;
+  // Loads run one at a time, so bursts of requests (ie. instant search typing) don't query
+  // concurrently: superseded ones waiting in queue are cancelled and end as soon as they're run
+  private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
 
-  private NoteLoaderTask() {
-  }
+  private static NoteLoaderTask current;
 
+  private final NoteQuery query;
+  private final NotesPage page;
 
-  public static NoteLoaderTask getInstance() {
 
-    if (instance != null) {
-      if (instance.getStatus() == Status.RUNNING && !instance.isCancelled()) {
-        instance.cancel(true);
-      } else if (instance.getStatus() == Status.PENDING) {
-        return instance;
-      }
-    }
+  private NoteLoaderTask(NoteQuery query, NotesPage page) {
+    this.query = query;
+    this.page = page;
+  }
+
 
-    instance = new NoteLoaderTask();
-    return instance;
+  /**
+   * Starts loading a page of notes matching query, superseding any other load. Must be called
+   * from main thread.
+   */
+  public static void load(NoteQuery query, NotesPage page) {
+    if (current != null) {
+      current.cancel(false);
+    }
+    current = new NoteLoaderTask(query, page);
+    current.executeOnExecutor(EXECUTOR);
   }
 
 
   @Override
-  protected List<Note> doInBackground(Object... params) {
+  protected List<Note> doInBackground(Void... params) {
+    if (isCancelled()) {
+      return new ArrayList<>();
+    }
+    long start = System.currentTimeMillis();
+    try {
+      List<Note> notes = loadNotes(query, page);
+      LogDelegate.d("Loaded " + notes.size() + " notes for " + query + " (page size "
+          + page.getSize() + ") in " + (System.currentTimeMillis() - start) + "ms");
+      return notes;
+    } catch (SQLException e) {
+      throw new NotesLoadingException(ERROR_RETRIEVING_NOTES + " for " + query, e);
+    }
+  }
 
-    String methodName = params[0].toString();
-    DbHelper db = DbHelper.getInstance();
 
-    if (params.length < 2 || params[1] == null) {
-      try {
-        Method method = db.getClass().getDeclaredMethod(methodName);
-        return (List<Note>) method.invoke(db);
-      } catch (NoSuchMethodException e) {
-        return new ArrayList<>();
-      } catch (IllegalAccessException | InvocationTargetException e) {
-        throw new NotesLoadingException(ERROR_RETRIEVING_NOTES, e);
-      }
-    } else {
-      Object methodArgs = params[1];
-      Class[] paramClass = new Class[]{methodArgs.getClass()};
-      try {
-        Method method = db.getClass().getDeclaredMethod(methodName, paramClass);
-        return (List<Note>) method.invoke(db, paramClass[0].cast(methodArgs));
-      } catch (Exception e) {
-        throw new NotesLoadingException(ERROR_RETRIEVING_NOTES, e);
-      }
+  /**
+   * Retrieves a page of notes matching query as summaries, on the calling thread
+   */
+  public static List<Note> loadNotes(NoteQuery query, NotesPage page) {
+    DbHelper db = DbHelper.getInstance();
+    switch (query.getType()) {
+      case CATEGORY:
+        return db.getNoteSummariesByCategory(query.getCategoryId(), page);
+      case PATTERN:
+        return query.getNoteIds() != null
+            ? db.getNoteSummariesByPattern(query.getText(), query.getNoteIds(), page)
+            : db.getNoteSummariesByPattern(query.getText(), page);
+      case TAGS:
+        return db.getNoteSummariesByTag(query.getText(), page);
+      case UNCOMPLETE_CHECKLISTS:
+        return db.getNoteSummariesByUncompleteChecklist(page);
+      default:
+        return db.getAllNoteSummaries(true, page);
     }
   }
 
 
   @Override
   protected void onPostExecute(List<Note> notes) {
-
     super.onPostExecute(notes);
-    EventBus.getDefault().post(new NotesLoadedEvent(notes));
+    // Results of a superseded load are outdated
+    if (this == current) {
+      EventBus.getDefault().post(new NotesLoadedEvent(notes, page));
+    }
   }
 }
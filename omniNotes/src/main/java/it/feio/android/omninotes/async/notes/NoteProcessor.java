@@ -41,7 +41,20 @@ public abstract class NoteProcessor {
   }
 
 
-  protected abstract void processNote(Note note);
+  /**
+   * Processes all the notes at once, so that they're written within a single transaction. Notes
+   * coming from lists are summaries and must be completed if their whole content is needed.
+   */
+  protected abstract void processNotes(List<Note> notes);
+
+
+  static List<Long> getIds(List<Note> notes) {
+    List<Long> ids = new ArrayList<>();
+    for (Note note : notes) {
+      ids.add(note.get_id());
+    }
+    return ids;
+  }
 
 
   class NotesProcessorTask extends AsyncTask<List<Note>, Void, List<Note>> {
@@ -49,8 +62,11 @@ public abstract class NoteProcessor {
     @Override
     protected List<Note> doInBackground(List<Note>... params) {
       List<Note> processableNote = params[0];
+      processNotes(processableNote);
+      // Bulk writes don't go through updateNote, so values notes were stored with are forgotten
+      // and their next save writes them whole
       for (Note note : processableNote) {
-        processNote(note);
+        note.setStoredValues(null);
       }
       return processableNote;
     }
@@ -34,7 +34,10 @@ public class NoteProcessorArchive extends NoteProcessor {
 
 
   @Override
-  protected void processNote(Note note) {
-    DbHelper.getInstance().archiveNote(note, archive);
+  protected void processNotes(List<Note> notes) {
+    DbHelper.getInstance().archiveNotes(getIds(notes), archive);
+    for (Note note : notes) {
+      note.setArchived(archive);
+    }
   }
 }
@@ -24,6 +24,7 @@ import it.feio.android.omninotes.db.DbHelper;
 import it.feio.android.omninotes.models.Attachment;
 import it.feio.android.omninotes.models.Note;
 import it.feio.android.omninotes.utils.StorageHelper;
+import it.feio.android.omninotes.utils.ThumbnailCache;
 import java.util.List;
 
 
@@ -45,13 +46,20 @@ public class NoteProcessorDelete extends NoteProcessor {
 
 
   @Override
-  protected void processNote(Note note) {
+  protected void processNotes(List<Note> notes) {
     DbHelper db = DbHelper.getInstance();
-    if (db.deleteNote(note) && !keepAttachments) {
-      for (Attachment mAttachment : note.getAttachmentsList()) {
-        StorageHelper
-            .deleteExternalStoragePrivateFile(OmniNotes.getAppContext(), mAttachment.getUri()
-                .getLastPathSegment());
+    // All attachments are needed to delete their files
+    if (!keepAttachments) {
+      db.completeNotes(notes);
+    }
+    db.deleteNotes(getIds(notes), keepAttachments);
+    if (!keepAttachments) {
+      // Files shared with attachments of other notes are kept
+      for (Note note : notes) {
+        for (Attachment mAttachment : note.getAttachmentsList()) {
+          StorageHelper.releaseAttachmentFile(OmniNotes.getAppContext(), mAttachment.getUri());
+          ThumbnailCache.invalidate(OmniNotes.getAppContext(), mAttachment.getId());
+        }
       }
     }
   }
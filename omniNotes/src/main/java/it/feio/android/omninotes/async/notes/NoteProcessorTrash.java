@@ -37,13 +37,20 @@ public class NoteProcessorTrash extends NoteProcessor {
 
 
   @Override
-  protected void processNote(Note note) {
-    if (trash) {
-      ShortcutHelper.removeShortcut(OmniNotes.getAppContext(), note);
-      ReminderHelper.removeReminder(OmniNotes.getAppContext(), note);
-    } else {
-      ReminderHelper.addReminder(OmniNotes.getAppContext(), note);
+  protected void processNotes(List<Note> notes) {
+    // Restored reminders carry the whole note
+    if (!trash) {
+      DbHelper.getInstance().completeNotes(notes);
     }
-    DbHelper.getInstance().trashNote(note, trash);
+    for (Note note : notes) {
+      if (trash) {
+        ShortcutHelper.removeShortcut(OmniNotes.getAppContext(), note);
+        ReminderHelper.removeReminder(OmniNotes.getAppContext(), note);
+      } else {
+        ReminderHelper.addReminder(OmniNotes.getAppContext(), note);
+      }
+      note.setTrashed(trash);
+    }
+    DbHelper.getInstance().trashNotes(getIds(notes), trash);
   }
 }
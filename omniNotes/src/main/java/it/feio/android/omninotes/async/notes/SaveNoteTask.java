@@ -17,7 +17,9 @@
 
 package it.feio.android.omninotes.async.notes;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.net.Uri;
 import android.os.AsyncTask;
 import it.feio.android.omninotes.OmniNotes;
 import it.feio.android.omninotes.db.DbHelper;
@@ -25,9 +27,13 @@ import it.feio.android.omninotes.helpers.LogDelegate;
 import it.feio.android.omninotes.models.Attachment;
 import it.feio.android.omninotes.models.Note;
 import it.feio.android.omninotes.models.listeners.OnNoteSaved;
+import it.feio.android.omninotes.utils.BitmapHelper;
 import it.feio.android.omninotes.utils.ReminderHelper;
 import it.feio.android.omninotes.utils.StorageHelper;
+import it.feio.android.omninotes.utils.ThumbnailCache;
 import it.feio.android.omninotes.utils.date.DateUtils;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -54,12 +60,19 @@ public class SaveNoteTask extends AsyncTask<Note, Void, Note> {
   @Override
   protected Note doInBackground(Note... params) {
     Note note = params[0];
-    purgeRemovedAttachments(note);
+    List<Attachment> newAttachments = storeNewAttachments(note);
+    List<Attachment> removedAttachments = getRemovedAttachments(note);
     boolean reminderMustBeSet = DateUtils.isFuture(note.getAlarm());
     if (reminderMustBeSet) {
       note.setReminderFired(false);
     }
     note = DbHelper.getInstance().updateNote(note, updateLastModification);
+    // Files are released once database doesn't reference them anymore
+    purgeRemovedAttachments(removedAttachments);
+    // Thumbnails shown by widgets, notifications and shortcuts are ready before they're needed
+    for (Attachment newAttachment : newAttachments) {
+      BitmapHelper.generateThumbnails(context, newAttachment);
+    }
     if (reminderMustBeSet) {
       ReminderHelper.addReminder(context, note);
     }
@@ -67,7 +80,42 @@ public class SaveNoteTask extends AsyncTask<Note, Void, Note> {
   }
 
 
-  private void purgeRemovedAttachments(Note note) {
+  /**
+   * Moves files of attachments added to note, as photos or sketches, into attachments store where
+   * identical files are kept only once
+   *
+   * @return Attachments added to note
+   */
+  private List<Attachment> storeNewAttachments(Note note) {
+    List<Attachment> newAttachments = new ArrayList<>();
+    for (Attachment attachment : note.getAttachmentsList()) {
+      if (!isNewAttachment(note, attachment)) {
+        continue;
+      }
+      newAttachments.add(attachment);
+      if (ContentResolver.SCHEME_FILE.equals(attachment.getUri().getScheme())) {
+        File file = new File(attachment.getUri().getPath());
+        File storedFile = StorageHelper.storeAttachmentFile(file);
+        if (!storedFile.equals(file)) {
+          attachment.setUri(Uri.fromFile(storedFile));
+        }
+      }
+    }
+    return newAttachments;
+  }
+
+
+  private boolean isNewAttachment(Note note, Attachment attachment) {
+    for (Attachment oldAttachment : note.getAttachmentsListOld()) {
+      if (oldAttachment.getId().equals(attachment.getId())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  private List<Attachment> getRemovedAttachments(Note note) {
     List<Attachment> deletedAttachments = note.getAttachmentsListOld();
     for (Attachment attachment : note.getAttachmentsList()) {
       if (attachment.getId() != null) {
@@ -78,9 +126,14 @@ public class SaveNoteTask extends AsyncTask<Note, Void, Note> {
         deletedAttachments.remove(attachment);
       }
     }
-    // Remove from database deleted attachments
+    return deletedAttachments;
+  }
+
+
+  private void purgeRemovedAttachments(List<Attachment> deletedAttachments) {
     for (Attachment deletedAttachment : deletedAttachments) {
-      StorageHelper.delete(context, deletedAttachment.getUri().getPath());
+      StorageHelper.releaseAttachmentFile(context, deletedAttachment.getUri());
+      ThumbnailCache.invalidate(context, deletedAttachment.getId());
       LogDelegate.d("Removed attachment " + deletedAttachment.getUri());
     }
   }
@@ -32,10 +32,13 @@ import static it.feio.android.omninotes.utils.ConstantsBase.TIMESTAMP_UNIX_EPOCH
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.text.TextUtils;
 import com.pixplicity.easyprefs.library.Prefs;
 import it.feio.android.omninotes.OmniNotes;
 import it.feio.android.omninotes.async.upgrade.UpgradeProcessor;
@@ -45,22 +48,32 @@ import it.feio.android.omninotes.helpers.NotesHelper;
 import it.feio.android.omninotes.models.Attachment;
 import it.feio.android.omninotes.models.Category;
 import it.feio.android.omninotes.models.Note;
+import it.feio.android.omninotes.models.NotesPage;
 import it.feio.android.omninotes.models.Stats;
 import it.feio.android.omninotes.models.Tag;
+import it.feio.android.omninotes.models.misc.NavigationCounters;
+import it.feio.android.omninotes.models.misc.BackupJob;
+import it.feio.android.omninotes.models.misc.PasswordRekey;
 import it.feio.android.omninotes.utils.AssetUtils;
+import it.feio.android.omninotes.utils.HashHelper;
 import it.feio.android.omninotes.utils.Navigation;
 import it.feio.android.omninotes.utils.Security;
 import it.feio.android.omninotes.utils.TagsHelper;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.regex.Pattern;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
 
@@ -68,7 +81,16 @@ public class DbHelper extends SQLiteOpenHelper {
 
   // Database name
   // Database version aligned if possible to software version
-  private static final int DATABASE_VERSION = 560;
+  private static final int DATABASE_VERSION = 630;
+  // Version introducing tags table, filled from notes on upgrade
+  private static final int NOTE_TAGS_DATABASE_VERSION = 622;
+  // Version introducing notes stats table, filled from notes on upgrade
+  private static final int NOTE_STATS_DATABASE_VERSION = 623;
+  // Version introducing vocabulary of words indexed for full-text search, filled from notes on
+  // upgrade
+  private static final int SEARCH_TERMS_DATABASE_VERSION = 628;
+  // Version excluding locked notes' content from tags, tags filled again from notes on upgrade
+  private static final int LOCKED_NOTE_TAGS_DATABASE_VERSION = 629;
   // Sql query file directory
   private static final String SQL_DIR = "sql";
 
@@ -111,16 +133,103 @@ public class DbHelper extends SQLiteOpenHelper {
   public static final String KEY_CATEGORY_DESCRIPTION = "description";
   public static final String KEY_CATEGORY_COLOR = "color";
 
+  // Notes tags table name
+  public static final String TABLE_NOTE_TAGS = "note_tags";
+  // Notes tags table columns
+  public static final String KEY_NOTE_TAG_NOTE_ID = "note_id";
+  public static final String KEY_NOTE_TAG = "tag";
+
+  // Notes text stats table name
+  public static final String TABLE_NOTE_STATS = "note_stats";
+  // Notes text stats table columns
+  public static final String KEY_NOTE_STATS_NOTE_ID = "note_id";
+  public static final String KEY_NOTE_STATS_WORDS = "words";
+  public static final String KEY_NOTE_STATS_CHARS = "chars";
+
+  // Locked notes re-encryption journal table name
+  public static final String TABLE_PASSWORD_REKEY = "password_rekey";
+  // Locked notes re-encryption journal table columns
+  public static final String KEY_PASSWORD_REKEY_OLD_PASSWORD = "old_password";
+  public static final String KEY_PASSWORD_REKEY_NEW_PASSWORD = "new_password";
+  public static final String KEY_PASSWORD_REKEY_LAST_NOTE_ID = "last_note_id";
+
+  // Backup and restore checkpoint table name
+  public static final String TABLE_BACKUP_JOB = "backup_job";
+  // Backup and restore checkpoint table columns
+  public static final String KEY_BACKUP_JOB_ACTION = "action";
+  public static final String KEY_BACKUP_JOB_BACKUP_NAME = "backup_name";
+  public static final String KEY_BACKUP_JOB_LAST_NOTE_ID = "last_note_id";
+  public static final String KEY_BACKUP_JOB_LAST_ATTACHMENT = "last_attachment";
+  public static final String KEY_BACKUP_JOB_FAILURES = "failures";
+
+  // Notes full-text search table name (docid is the note's creation)
+  public static final String TABLE_NOTES_FTS = "notes_fts";
+  public static final String KEY_FTS_DOCID = "docid";
+  // Notes text indexed for full-text search view name, read by full-text index
+  public static final String VIEW_NOTES_SEARCH = "notes_search";
+  public static final String KEY_SEARCH_ROWID = "rowid";
+
+  // Words of full-text index table name
+  public static final String TABLE_SEARCH_TERMS = "search_terms";
+  // Words of full-text index table columns
+  public static final String KEY_SEARCH_TERM = "term";
+  public static final String KEY_SEARCH_TERM_NOTES = "notes";
+
+  // Navigation conditions, flags are compared by equality to let them be matched by indexes
+  static final String NOTES_ACTIVE_CONDITION =
+      " WHERE " + KEY_ARCHIVED + " = 0 AND " + KEY_TRASHED + " = 0 ";
+  static final String NOTES_WITH_REMINDER_NOT_FIRED_CONDITION = " WHERE " + KEY_REMINDER
+      + " IS NOT NULL"
+      + " AND " + KEY_REMINDER_FIRED + " = 0"
+      + " AND " + KEY_ARCHIVED + " = 0"
+      + " AND " + KEY_TRASHED + " = 0";
+  static final String NOTES_ARCHIVED_CONDITION =
+      " WHERE " + KEY_ARCHIVED + " = 1 AND " + KEY_TRASHED + " = 0 ";
+  static final String NOTES_TRASHED_CONDITION = " WHERE " + KEY_TRASHED + " = 1 ";
+  static final String NOTES_UNCATEGORIZED_CONDITION = " WHERE "
+      + "(" + KEY_CATEGORY_ID + " IS NULL OR " + KEY_CATEGORY_ID + " == 0) "
+      + "AND " + KEY_TRASHED + " = 0";
+
   // Queries
   private static final String CREATE_QUERY = "create.sql";
   private static final String UPGRADE_QUERY_PREFIX = "upgrade-";
   private static final String UPGRADE_QUERY_SUFFIX = ".sql";
+  // Max number of notes whose attachments are retrieved with a single query
+  private static final int ATTACHMENTS_BATCH_SIZE = 500;
+  // Max number of notes ids written into a single statement
+  private static final int NOTES_IDS_BATCH_SIZE = 500;
+  // Max number of notes a search can be narrowed to, more ids would make a long statement for
+  // little gain over the indexed search
+  public static final int PATTERN_REFINEMENT_MAX_NOTES = 300;
+  // Max number of notes kept in memory while filling tables derived from them on upgrade
+  private static final int UPGRADE_NOTES_BATCH_SIZE = 500;
+  // Max number of locked notes re-encrypted into a single transaction
+  private static final int PASSWORD_REKEY_BATCH_SIZE = 100;
+  // Patterns made only by these chars are narrowed through full-text index, others only with LIKE
+  private static final Pattern FTS_SEARCHABLE_PATTERN = Pattern.compile("[\\p{L}\\p{N}\\s]+");
+  // Separators of full-text index simple tokenizer, that are all ASCII chars but letters and digits
+  private static final Pattern FTS_TOKENS_SEPARATOR = Pattern.compile(
+      "[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+");
+  // Max number of indexed words a word of pattern can be found into to narrow search through them
+  private static final int FTS_MAX_TERMS = 50;
+  // Page cache size of connection, in KiB
+  private static final int CACHE_SIZE_KB = 4096;
+  // Database portion read through memory mapping instead of read calls
+  private static final long MMAP_SIZE_BYTES = 32L * 1024 * 1024;
+  // Pseudo-columns of notes stored values, tracking changes of data not saved as notes columns
+  private static final String STORED_CONTENT_KEY = "content_key";
+  private static final String STORED_ATTACHMENTS = "attachments";
+  // Content length retrieved for notes summaries, enough to fill list items previews
+  static final int SUMMARY_CONTENT_LENGTH = 1000;
 
 
   private final Context mContext;
 
   private static DbHelper instance = null;
   private SQLiteDatabase db;
+  // Statements returning a single value, keyed by their query, and database they're compiled on
+  private final Map<String, SQLiteStatement> compiledStatements = new HashMap<>();
+  private SQLiteDatabase compiledStatementsDatabase;
 
 
   public static synchronized DbHelper getInstance() {
@@ -140,6 +249,9 @@ public class DbHelper extends SQLiteOpenHelper {
     if (instance == null || forcedNewInstance) {
       Context context = (instance == null || instance.mContext == null) ? OmniNotes.getAppContext()
           : instance.mContext;
+      if (instance != null) {
+        instance.closeCompiledStatements();
+      }
       instance = new DbHelper(context);
     }
     return instance;
@@ -149,6 +261,8 @@ public class DbHelper extends SQLiteOpenHelper {
   private DbHelper(Context mContext) {
     super(mContext, DATABASE_NAME, null, DATABASE_VERSION);
     this.mContext = mContext;
+    // Reads are served by a pool of connections that are not blocked by the writing one
+    setWriteAheadLoggingEnabled(true);
   }
 
 
@@ -156,10 +270,19 @@ public class DbHelper extends SQLiteOpenHelper {
     return DATABASE_NAME;
   }
 
+  /**
+   * Database to be used for reading, queries outside of transactions run on pooled connections
+   * concurrently with writes
+   */
   public SQLiteDatabase getDatabase() {
     return getDatabase(false);
   }
 
+  /**
+   * @param forceWritable Database will be used for writing, transactions must be started with
+   *                      {@link SQLiteDatabase#beginTransactionNonExclusive()} to let readers
+   *                      proceed
+   */
   public SQLiteDatabase getDatabase(boolean forceWritable) {
     try {
       return forceWritable ? getWritableDatabase() : getReadableDatabase();
@@ -169,9 +292,23 @@ public class DbHelper extends SQLiteOpenHelper {
   }
 
   @Override
-  public void onOpen(SQLiteDatabase db) {
-    db.disableWriteAheadLogging();
-    super.onOpen(db);
+  public void onConfigure(SQLiteDatabase db) {
+    super.onConfigure(db);
+    // With write-ahead logging only checkpoints need a full sync to keep database consistent
+    execPragma(db, "synchronous = NORMAL");
+    execPragma(db, "cache_size = -" + CACHE_SIZE_KB);
+    execPragma(db, "mmap_size = " + MMAP_SIZE_BYTES);
+    db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+  }
+
+
+  private static void execPragma(SQLiteDatabase db, String pragma) {
+    // Some pragmas return their new value so they must be run as queries
+    try (Cursor cursor = db.rawQuery("PRAGMA " + pragma, null)) {
+      cursor.moveToFirst();
+    } catch (SQLException e) {
+      LogDelegate.w("Pragma not applied: " + pragma, e);
+    }
   }
 
   @Override
@@ -203,6 +340,13 @@ public class DbHelper extends SQLiteOpenHelper {
           }
         }
       }
+      if (oldVersion < LOCKED_NOTE_TAGS_DATABASE_VERSION
+          || oldVersion < NOTE_STATS_DATABASE_VERSION
+          || oldVersion < SEARCH_TERMS_DATABASE_VERSION) {
+        fillNotesDerivedTables(db, oldVersion < LOCKED_NOTE_TAGS_DATABASE_VERSION,
+            oldVersion < NOTE_STATS_DATABASE_VERSION,
+            oldVersion < SEARCH_TERMS_DATABASE_VERSION);
+      }
       LogDelegate.i("Database upgrade successful");
 
     } catch (IOException | InvocationTargetException | IllegalAccessException e) {
@@ -211,25 +355,109 @@ public class DbHelper extends SQLiteOpenHelper {
   }
 
 
+  /**
+   * Saves note. Notes previously read from or written to database have only their changed columns
+   * updated, and derived data (search index, tags, stats, attachments) rewritten only if affected.
+   */
   public Note updateNote(Note note, boolean updateLastModification) {
+    if (note.isSummary()) {
+      LogDelegate.w("Completing note summary before saving it");
+      completeNote(note);
+    }
     db = getDatabase(true);
 
-    String content = Boolean.TRUE.equals(note.isLocked())
-        ? Security.encrypt(note.getContent(), Prefs.getString(PREF_PASSWORD, ""))
-        : note.getContent();
+    ContentValues values = getNoteValues(note);
+    long lastModification = note.getLastModification() != null && !updateLastModification
+        ? note.getLastModification()
+        : Calendar.getInstance().getTimeInMillis();
+    values.put(KEY_LAST_MODIFICATION, lastModification);
+    long noteId = values.getAsLong(KEY_CREATION);
+    ContentValues storedValues = note.getStoredValues();
+    boolean stored = storedValues != null
+        && Long.valueOf(noteId).equals(storedValues.getAsLong(KEY_CREATION));
+    Set<String> changedKeys = stored ? getChangedKeys(values, storedValues) : values.keySet();
 
     // To ensure note and attachments insertions are atomic and boost performances transaction are used
-    db.beginTransaction();
+    String password = null;
+    db.beginTransactionNonExclusive();
+    try {
+      // Read inside transaction, so an eventual re-encryption job can't process note meanwhile
+      if (Boolean.TRUE.equals(note.isLocked())) {
+        password = getNotePassword(noteId, db);
+      }
+      // Full-text index reads the stored note, so it's removed before note is written
+      Set<String> indexedTerms = !stored || changedKeys.contains(KEY_TITLE)
+          || changedKeys.contains(KEY_CONTENT) || changedKeys.contains(KEY_LOCKED)
+          ? deleteNoteSearchIndex(noteId, db)
+          : null;
+      if (!stored || !updateNoteColumns(noteId, note, values, changedKeys, password, db)) {
+        changedKeys = values.keySet();
+        if (indexedTerms == null) {
+          // Note was not stored, so neither indexed
+          indexedTerms = Collections.emptySet();
+        }
+        db.insertWithOnConflict(TABLE_NOTES, KEY_ID,
+            getNoteColumnsValues(note, values, changedKeys, password),
+            SQLiteDatabase.CONFLICT_REPLACE);
+      }
+      if (indexedTerms != null) {
+        insertNoteSearchIndex(noteId, note, indexedTerms, db);
+      }
+      if (changedKeys.contains(KEY_TITLE) || changedKeys.contains(KEY_CONTENT)
+          || changedKeys.contains(KEY_LOCKED)) {
+        updateNoteTags(noteId, note, db);
+      }
+      if (changedKeys.contains(KEY_TITLE) || changedKeys.contains(KEY_CONTENT)
+          || changedKeys.contains(KEY_CHECKLIST)) {
+        updateNoteStats(noteId, note, db);
+      }
+      if (changedKeys.contains(STORED_ATTACHMENTS)) {
+        updateNoteAttachments(noteId, note, db);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    LogDelegate.d("Updated note titled '" + note.getTitle() + "' (" + changedKeys.size()
+        + " changed values)");
+
+    // Fill the note with correct data before returning it
+    note.setCreation(noteId);
+    note.setLastModification(lastModification);
+    note.setStoredValues(values);
+    if (password != null) {
+      DecryptedContentCache.put(noteId, lastModification, note.getContent(), password);
+    }
+
+    return note;
+  }
+
+
+  /**
+   * Writes with an UPDATE only changed columns of a note already stored
+   *
+   * @return False if note was not found into database
+   */
+  private boolean updateNoteColumns(long noteId, Note note, ContentValues values,
+      Set<String> changedKeys, String password, SQLiteDatabase db) {
+    ContentValues columnsValues = getNoteColumnsValues(note, values, changedKeys, password);
+    return columnsValues.size() == 0 || db.update(TABLE_NOTES, columnsValues, KEY_ID + " = ?",
+        new String[]{String.valueOf(noteId)}) > 0;
+  }
 
+
+  /**
+   * Builds values describing note as it will be stored, with a hash of plain content and
+   * pseudo-columns tracking data not saved into notes table. Last modification is excluded.
+   */
+  private ContentValues getNoteValues(Note note) {
     ContentValues values = new ContentValues();
     values.put(KEY_TITLE, note.getTitle());
-    values.put(KEY_CONTENT, content);
+    // Content is tracked by its hash to avoid keeping (and parcelling) a copy of it
+    values.put(KEY_CONTENT,
+        note.getContent() != null ? HashHelper.sha256(note.getContent()) : null);
     values.put(KEY_CREATION,
         note.getCreation() != null ? note.getCreation() : Calendar.getInstance().getTimeInMillis());
-    long lastModification = note.getLastModification() != null && !updateLastModification
-        ? note.getLastModification()
-        : Calendar.getInstance().getTimeInMillis();
-    values.put(KEY_LAST_MODIFICATION, lastModification);
     values.put(KEY_ARCHIVED, note.isArchived());
     values.put(KEY_TRASHED, note.isTrashed());
     values.put(KEY_REMINDER, note.getAlarm());
@@ -241,15 +469,62 @@ public class DbHelper extends SQLiteOpenHelper {
     values.put(KEY_CATEGORY, note.getCategory() != null ? note.getCategory().getId() : null);
     values.put(KEY_LOCKED, note.isLocked() != null && note.isLocked());
     values.put(KEY_CHECKLIST, note.isChecklist() != null && note.isChecklist());
+    if (Boolean.TRUE.equals(note.isLocked())) {
+      // Password is not kept, just enough to know if content must be encrypted again
+      values.put(STORED_CONTENT_KEY, Prefs.getString(PREF_PASSWORD, "").hashCode());
+    }
+    StringBuilder attachments = new StringBuilder();
+    for (Attachment attachment : note.getAttachmentsList()) {
+      attachments.append(attachment.getId()).append(' ').append(attachment.getUri()).append('\n');
+    }
+    values.put(STORED_ATTACHMENTS, attachments.toString());
+    return values;
+  }
+
+
+  private static Set<String> getChangedKeys(ContentValues values, ContentValues storedValues) {
+    Set<String> changedKeys = new HashSet<>();
+    for (String key : values.keySet()) {
+      if (!Objects.equals(values.get(key), storedValues.get(key))) {
+        changedKeys.add(key);
+      }
+    }
+    for (String key : storedValues.keySet()) {
+      if (!values.containsKey(key)) {
+        changedKeys.add(key);
+      }
+    }
+    return changedKeys;
+  }
+
+
+  /**
+   * Extracts the notes table columns to be written. Content is encrypted, only when needed, for
+   * locked notes.
+   */
+  private static ContentValues getNoteColumnsValues(Note note, ContentValues values,
+      Set<String> changedKeys, String password) {
+    ContentValues columnsValues = new ContentValues(values);
+    for (String key : values.keySet()) {
+      if (!changedKeys.contains(key) || STORED_CONTENT_KEY.equals(key)
+          || STORED_ATTACHMENTS.equals(key)) {
+        columnsValues.remove(key);
+      }
+    }
+    if (changedKeys.contains(KEY_CONTENT) || changedKeys.contains(KEY_LOCKED)
+        || changedKeys.contains(STORED_CONTENT_KEY)) {
+      columnsValues.put(KEY_CONTENT, Boolean.TRUE.equals(note.isLocked())
+          ? Security.encrypt(note.getContent(), password)
+          : note.getContent());
+    }
+    return columnsValues;
+  }
 
-    db.insertWithOnConflict(TABLE_NOTES, KEY_ID, values, SQLiteDatabase.CONFLICT_REPLACE);
-    LogDelegate.d("Updated note titled '" + note.getTitle() + "'");
 
-    // Updating attachments
+  private void updateNoteAttachments(long noteId, Note note, SQLiteDatabase db) {
     List<Attachment> deletedAttachments = note.getAttachmentsListOld();
     for (Attachment attachment : note.getAttachmentsList()) {
-      updateAttachment(note.get_id() != null ? note.get_id() : values.getAsLong(KEY_CREATION),
-          attachment, db);
+      updateAttachment(noteId, attachment, db);
       deletedAttachments.remove(attachment);
     }
     // Remove from database deleted attachments
@@ -257,16 +532,222 @@ public class DbHelper extends SQLiteOpenHelper {
       db.delete(TABLE_ATTACHMENTS, KEY_ATTACHMENT_ID + " = ?",
           new String[]{String.valueOf(attachmentDeleted.getId())});
     }
+  }
 
-    db.setTransactionSuccessful();
-    db.endTransaction();
 
-    // Fill the note with correct data before returning it
-    note.setCreation(
-        note.getCreation() != null ? note.getCreation() : values.getAsLong(KEY_CREATION));
-    note.setLastModification(values.getAsLong(KEY_LAST_MODIFICATION));
+  /**
+   * Removes note from full-text index, that reads the words to remove from the stored note
+   *
+   * @return Words note was indexed with
+   */
+  private Set<String> deleteNoteSearchIndex(long noteId, SQLiteDatabase db) {
+    String[] args = new String[]{String.valueOf(noteId)};
+    Set<String> terms = new HashSet<>();
+    try (Cursor cursor = db.query(VIEW_NOTES_SEARCH, new String[]{KEY_TITLE, KEY_CONTENT},
+        KEY_SEARCH_ROWID + " = ?", args, null, null, null)) {
+      if (cursor.moveToFirst()) {
+        terms.addAll(getSearchTerms(cursor.getString(0)));
+        terms.addAll(getSearchTerms(cursor.getString(1)));
+      }
+    }
+    db.delete(TABLE_NOTES_FTS, KEY_FTS_DOCID + " = ?", args);
+    return terms;
+  }
 
-    return note;
+
+  /**
+   * Indexes stored note for full-text search, that reads its text from notes table. Locked notes'
+   * content is not indexed to avoid leaking it, so they can be found only by title. Words
+   * vocabulary is updated only with the ones note gained or lost.
+   *
+   * @param indexedTerms Words note was indexed with before
+   */
+  private void insertNoteSearchIndex(long noteId, Note note, Set<String> indexedTerms,
+      SQLiteDatabase db) {
+    db.execSQL("INSERT INTO " + TABLE_NOTES_FTS + "(" + KEY_FTS_DOCID + ", " + KEY_TITLE + ", "
+        + KEY_CONTENT + ") SELECT " + KEY_SEARCH_ROWID + ", " + KEY_TITLE + ", " + KEY_CONTENT
+        + " FROM " + VIEW_NOTES_SEARCH + " WHERE " + KEY_SEARCH_ROWID + " = ?",
+        new Object[]{noteId});
+    Set<String> terms = getSearchTerms(note.getTitle());
+    if (!Boolean.TRUE.equals(note.isLocked())) {
+      terms.addAll(getSearchTerms(note.getContent()));
+    }
+    Map<String, Integer> termsChanges = new HashMap<>();
+    for (String term : terms) {
+      if (!indexedTerms.contains(term)) {
+        termsChanges.put(term, 1);
+      }
+    }
+    for (String indexedTerm : indexedTerms) {
+      if (!terms.contains(indexedTerm)) {
+        termsChanges.put(indexedTerm, -1);
+      }
+    }
+    updateSearchTerms(termsChanges, db);
+  }
+
+
+  /**
+   * Updates the number of notes having each word, words no more used by any note are removed
+   *
+   * @param termsChanges Notes gained or lost by each word
+   */
+  private static void updateSearchTerms(Map<String, Integer> termsChanges, SQLiteDatabase db) {
+    if (termsChanges.isEmpty()) {
+      return;
+    }
+    try (SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO "
+        + TABLE_SEARCH_TERMS + " (" + KEY_SEARCH_TERM + ", " + KEY_SEARCH_TERM_NOTES
+        + ") VALUES (?, 0)");
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_SEARCH_TERMS + " SET "
+            + KEY_SEARCH_TERM_NOTES + " = " + KEY_SEARCH_TERM_NOTES + " + ? WHERE "
+            + KEY_SEARCH_TERM + " = ?");
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE_SEARCH_TERMS
+            + " WHERE " + KEY_SEARCH_TERM + " = ? AND " + KEY_SEARCH_TERM_NOTES + " <= 0")) {
+      for (Map.Entry<String, Integer> termChange : termsChanges.entrySet()) {
+        if (termChange.getValue() > 0) {
+          insert.bindString(1, termChange.getKey());
+          insert.executeInsert();
+        }
+        update.bindLong(1, termChange.getValue());
+        update.bindString(2, termChange.getKey());
+        update.executeUpdateDelete();
+        if (termChange.getValue() < 0) {
+          delete.bindString(1, termChange.getKey());
+          delete.executeUpdateDelete();
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Splits text into the words full-text index simple tokenizer makes of it, that are lowercased
+   * only for ASCII chars
+   */
+  static Set<String> getSearchTerms(String text) {
+    Set<String> terms = new HashSet<>();
+    if (StringUtils.isEmpty(text)) {
+      return terms;
+    }
+    for (String word : FTS_TOKENS_SEPARATOR.split(text)) {
+      if (!word.isEmpty()) {
+        char[] chars = word.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+          if (chars[i] >= 'A' && chars[i] <= 'Z') {
+            chars[i] = (char) (chars[i] + ('a' - 'A'));
+          }
+        }
+        terms.add(new String(chars));
+      }
+    }
+    return terms;
+  }
+
+
+  /**
+   * Aligns tags table with the ones found into note's text, only differences are written. As for
+   * full-text index, locked notes' content is not parsed to avoid leaking it, so they're tagged
+   * only by title.
+   */
+  private void updateNoteTags(long noteId, Note note, SQLiteDatabase db) {
+    Note taggedNote = note;
+    if (Boolean.TRUE.equals(note.isLocked())) {
+      taggedNote = new Note();
+      taggedNote.setTitle(note.getTitle());
+      taggedNote.setContent("");
+    }
+    Set<String> currentTags = TagsHelper.retrieveTags(taggedNote).keySet();
+    Set<String> storedTags = new HashSet<>();
+    try (Cursor cursor = db.query(TABLE_NOTE_TAGS, new String[]{KEY_NOTE_TAG},
+        KEY_NOTE_TAG_NOTE_ID + " = ?", new String[]{String.valueOf(noteId)}, null, null, null)) {
+      while (cursor.moveToNext()) {
+        storedTags.add(cursor.getString(0));
+      }
+    }
+
+    for (String storedTag : storedTags) {
+      if (!currentTags.contains(storedTag)) {
+        db.delete(TABLE_NOTE_TAGS, KEY_NOTE_TAG_NOTE_ID + " = ? AND " + KEY_NOTE_TAG + " = ?",
+            new String[]{String.valueOf(noteId), storedTag});
+      }
+    }
+    for (String currentTag : currentTags) {
+      if (!storedTags.contains(currentTag)) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_NOTE_TAG_NOTE_ID, noteId);
+        values.put(KEY_NOTE_TAG, currentTag);
+        db.insert(TABLE_NOTE_TAGS, null, values);
+      }
+    }
+  }
+
+
+  /**
+   * Keeps words and chars count of note aligned with its text, so that stats don't need to parse
+   * every note
+   */
+  private void updateNoteStats(long noteId, Note note, SQLiteDatabase db) {
+    ContentValues values = new ContentValues();
+    values.put(KEY_NOTE_STATS_NOTE_ID, noteId);
+    values.put(KEY_NOTE_STATS_WORDS, NotesHelper.getWords(note));
+    values.put(KEY_NOTE_STATS_CHARS, NotesHelper.getChars(note));
+    db.insertWithOnConflict(TABLE_NOTE_STATS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+  }
+
+
+  /**
+   * Rebuilds full-text index and its words vocabulary from all the notes
+   */
+  public void rebuildSearchIndex() {
+    SQLiteDatabase db = getDatabase(true);
+    db.beginTransactionNonExclusive();
+    try {
+      db.execSQL("INSERT INTO " + TABLE_NOTES_FTS + "(" + TABLE_NOTES_FTS + ") VALUES('rebuild')");
+      db.delete(TABLE_SEARCH_TERMS, null, null);
+      fillNotesDerivedTables(db, false, false, true);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+
+  /**
+   * Populates tags, stats and search words tables parsing all the existing notes, a batch at a time
+   */
+  private void fillNotesDerivedTables(SQLiteDatabase db, boolean tags, boolean stats,
+      boolean searchTerms) {
+    LogDelegate.i("Filling notes " + (tags ? "tags " : "") + (stats ? "stats " : "")
+        + (searchTerms ? "search terms" : ""));
+    Map<String, Integer> termsNotes = new HashMap<>();
+    long lastNoteId = -1;
+    List<Note> notes;
+    do {
+      notes = getNotesByQuery(getNotesQuery(" WHERE " + KEY_ID + " > ?", false)
+              + " ORDER BY " + KEY_ID + " LIMIT " + UPGRADE_NOTES_BATCH_SIZE,
+          new String[]{String.valueOf(lastNoteId)}, false);
+      for (Note note : notes) {
+        if (tags) {
+          updateNoteTags(note.get_id(), note, db);
+        }
+        if (stats) {
+          updateNoteStats(note.get_id(), note, db);
+        }
+        if (searchTerms) {
+          Set<String> terms = getSearchTerms(note.getTitle());
+          if (!Boolean.TRUE.equals(note.isLocked())) {
+            terms.addAll(getSearchTerms(note.getContent()));
+          }
+          for (String term : terms) {
+            Integer termNotes = termsNotes.get(term);
+            termsNotes.put(term, termNotes != null ? termNotes + 1 : 1);
+          }
+        }
+        lastNoteId = note.get_id();
+      }
+    } while (notes.size() == UPGRADE_NOTES_BATCH_SIZE);
+    updateSearchTerms(termsNotes, db);
   }
 
 
@@ -288,7 +769,15 @@ public class DbHelper extends SQLiteOpenHelper {
    * Attachments update
    */
   public Attachment updateAttachment(Attachment attachment) {
-    return updateAttachment(-1, attachment, getDatabase(true));
+    SQLiteDatabase db = getDatabase(true);
+    db.beginTransactionNonExclusive();
+    try {
+      updateAttachment(-1, attachment, db);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    return attachment;
   }
 
 
@@ -296,10 +785,10 @@ public class DbHelper extends SQLiteOpenHelper {
    * New attachment insertion
    */
   public Attachment updateAttachment(long noteId, Attachment attachment, SQLiteDatabase db) {
+    long attachmentId = attachment.getId() != null ? attachment.getId() : Calendar
+        .getInstance().getTimeInMillis();
     ContentValues valuesAttachments = new ContentValues();
-    valuesAttachments
-        .put(KEY_ATTACHMENT_ID, attachment.getId() != null ? attachment.getId() : Calendar
-            .getInstance().getTimeInMillis());
+    valuesAttachments.put(KEY_ATTACHMENT_ID, attachmentId);
     valuesAttachments.put(KEY_ATTACHMENT_NOTE_ID, noteId);
     valuesAttachments.put(KEY_ATTACHMENT_URI, attachment.getUri().toString());
     valuesAttachments.put(KEY_ATTACHMENT_MIME_TYPE, attachment.getMime_type());
@@ -312,11 +801,54 @@ public class DbHelper extends SQLiteOpenHelper {
   }
 
 
+  /**
+   * Points to another file all the attachments using the given one, as when it's moved into
+   * attachments store
+   */
+  public void replaceAttachmentUri(String uri, String newUri) {
+    ContentValues values = new ContentValues();
+    values.put(KEY_ATTACHMENT_URI, newUri);
+    getDatabase(true).update(TABLE_ATTACHMENTS, values, KEY_ATTACHMENT_URI + " = ?",
+        new String[]{uri});
+  }
+
+
+  /**
+   * Attachments are counted through the index on their uri, so that no count has to be kept
+   * aligned with them
+   *
+   * @return Number of attachments using the file, that can be deleted only when none does
+   */
+  public long getAttachmentRefCount(String uri) {
+    return queryForLong("SELECT COUNT(*) FROM " + TABLE_ATTACHMENTS
+        + " WHERE " + KEY_ATTACHMENT_URI + " = ?", uri);
+  }
+
+
+  /**
+   * Deletes attachments within a single transaction, their files are left to be released
+   */
+  public void deleteAttachments(Collection<Long> attachmentIds) {
+    SQLiteDatabase db = getDatabase(true);
+    db.beginTransactionNonExclusive();
+    try {
+      for (String ids : getIdsBatches(attachmentIds)) {
+        db.delete(TABLE_ATTACHMENTS, KEY_ATTACHMENT_ID + " IN (" + ids + ")", null);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+
+
   /**
    * Getting single note
    */
   public Note getNote(long id) {
-    List<Note> notes = getNotes(" WHERE " + KEY_ID + " = " + id, true);
+    List<Note> notes = getNotes(" WHERE " + KEY_ID + " = ?", new String[]{String.valueOf(id)},
+        false);
     return notes.isEmpty() ? null : notes.get(0);
   }
 
@@ -329,56 +861,64 @@ public class DbHelper extends SQLiteOpenHelper {
    * @return Notes list
    */
   public List<Note> getAllNotes(Boolean checkNavigation) {
-    String whereCondition = "";
-    if (Boolean.TRUE.equals(checkNavigation)) {
-      int navigation = Navigation.getNavigation();
-      switch (navigation) {
-        case Navigation.NOTES:
-          return getNotesActive();
-        case Navigation.ARCHIVE:
-          return getNotesArchived();
-        case Navigation.REMINDERS:
-          return getNotesWithReminder(Prefs.getBoolean(PREF_FILTER_PAST_REMINDERS, false));
-        case Navigation.TRASH:
-          return getNotesTrashed();
-        case Navigation.UNCATEGORIZED:
-          return getNotesUncategorized();
-        case Navigation.CATEGORY:
-          return getNotesByCategory(Navigation.getCategory());
-        default:
-          return getNotes(whereCondition, true);
-      }
-    } else {
-      return getNotes(whereCondition, true);
-    }
+    return getNotes(Boolean.TRUE.equals(checkNavigation) ? getNavigationCondition() : "", true);
+  }
+
+
+  /**
+   * Same as {@link #getAllNotes(Boolean)} but a page of notes is retrieved as summaries
+   *
+   * @see #getNoteSummaries(String, NotesPage)
+   */
+  public List<Note> getAllNoteSummaries(Boolean checkNavigation, NotesPage page) {
+    return getNoteSummaries(
+        Boolean.TRUE.equals(checkNavigation) ? getNavigationCondition() : "", page);
+  }
 
+
+  /**
+   * Builds condition to retrieve notes belonging to current navigation
+   */
+  static String getNavigationCondition() {
+    switch (Navigation.getNavigation()) {
+      case Navigation.NOTES:
+        return NOTES_ACTIVE_CONDITION;
+      case Navigation.ARCHIVE:
+        return NOTES_ARCHIVED_CONDITION;
+      case Navigation.REMINDERS:
+        return getNotesWithReminderCondition(
+            Prefs.getBoolean(PREF_FILTER_PAST_REMINDERS, false));
+      case Navigation.TRASH:
+        return NOTES_TRASHED_CONDITION;
+      case Navigation.UNCATEGORIZED:
+        return NOTES_UNCATEGORIZED_CONDITION;
+      case Navigation.CATEGORY:
+        Long categoryId = Navigation.getCategory();
+        return getNotesByCategoryCondition(categoryId,
+            Prefs.getBoolean(PREF_FILTER_ARCHIVED_IN_CATEGORIES + categoryId, false));
+      default:
+        return "";
+    }
   }
 
 
   public List<Note> getNotesActive() {
-    String whereCondition =
-        " WHERE " + KEY_ARCHIVED + " IS NOT 1 AND " + KEY_TRASHED + " IS NOT 1 ";
-    return getNotes(whereCondition, true);
+    return getNotes(NOTES_ACTIVE_CONDITION, true);
   }
 
 
   public List<Note> getNotesArchived() {
-    String whereCondition = " WHERE " + KEY_ARCHIVED + " = 1 AND " + KEY_TRASHED + " IS NOT 1 ";
-    return getNotes(whereCondition, true);
+    return getNotes(NOTES_ARCHIVED_CONDITION, true);
   }
 
 
   public List<Note> getNotesTrashed() {
-    String whereCondition = " WHERE " + KEY_TRASHED + " = 1 ";
-    return getNotes(whereCondition, true);
+    return getNotes(NOTES_TRASHED_CONDITION, true);
   }
 
 
   public List<Note> getNotesUncategorized() {
-    String whereCondition = " WHERE "
-        + "(" + KEY_CATEGORY_ID + " IS NULL OR " + KEY_CATEGORY_ID + " == 0) "
-        + "AND " + KEY_TRASHED + " IS NOT 1";
-    return getNotes(whereCondition, true);
+    return getNotes(NOTES_UNCATEGORIZED_CONDITION, true);
   }
 
 
@@ -393,57 +933,70 @@ public class DbHelper extends SQLiteOpenHelper {
    * Common method for notes retrieval. It accepts a query to perform and returns matching records.
    */
   public List<Note> getNotes(String whereCondition, boolean order) {
-    List<Note> noteList = new ArrayList<>();
+    return getNotes(whereCondition, null, order);
+  }
 
-    String sortColumn = "";
-    String sortOrder = "";
 
-    // Getting sorting criteria from preferences. Reminder screen forces sorting.
-    if (Navigation.checkNavigation(Navigation.REMINDERS)) {
-      sortColumn = KEY_REMINDER;
-    } else {
-      sortColumn = Prefs.getString(PREF_SORTING_COLUMN, KEY_TITLE);
-    }
-    if (order) {
-      sortOrder =
-          KEY_TITLE.equals(sortColumn) || KEY_REMINDER.equals(sortColumn) ? " ASC " : " DESC ";
+  /**
+   * @param selectionArgs Values bound to condition placeholders, so that query text doesn't change
+   *                      and its compiled statement can be reused
+   */
+  public List<Note> getNotes(String whereCondition, String[] selectionArgs, boolean order) {
+    return getNotesByQuery(getNotesQuery(whereCondition, order, false), selectionArgs, false);
+  }
+
+
+  /**
+   * Lightweight notes retrieval for lists rendering: content is truncated (unless note is locked,
+   * to allow its decryption) and only the first attachment of each note is loaded. Returned notes
+   * are flagged as summaries and must be completed with {@link #completeNotes(List)} before being
+   * edited or processed.
+   *
+   * @param page Window of sorted notes to retrieve, following ones can be requested passing the
+   *             last retrieved note
+   */
+  public List<Note> getNoteSummaries(String whereCondition, NotesPage page) {
+    return getNoteSummaries(whereCondition, null, page);
+  }
+
+
+  public List<Note> getNoteSummaries(String whereCondition, String[] selectionArgs,
+      NotesPage page) {
+    String query = getNotesQuery(getPageCondition(whereCondition, page), true, true)
+        + " LIMIT " + page.getSize();
+    List<Note> notes = getNotesByQuery(query, getPageArgs(selectionArgs, page), true);
+    if (!notes.isEmpty()) {
+      setSortKey(notes.get(notes.size() - 1));
     }
+    return notes;
+  }
 
-    // In case of title sorting criteria it must be handled empty title by concatenating content
-    sortColumn = KEY_TITLE.equals(sortColumn) ? KEY_TITLE + "||" + KEY_CONTENT : sortColumn;
 
-    // In case of reminder sorting criteria the empty reminder notes must be moved on bottom of results
-    sortColumn = KEY_REMINDER.equals(sortColumn) ? "IFNULL(" + KEY_REMINDER + ", " +
-        "" + TIMESTAMP_UNIX_EPOCH + ")" : sortColumn;
+  /**
+   * Reads the sorting key of the note that will be the starting one of next page, so that paging
+   * goes on even if it's deleted meanwhile. Only the last note's key is read, as with title sorting
+   * it includes the whole content.
+   */
+  private void setSortKey(Note note) {
+    try (Cursor cursor = getDatabase().rawQuery("SELECT " + getSortColumn() + " FROM "
+        + TABLE_NOTES + " WHERE " + KEY_ID + " = ?", new String[]{String.valueOf(note.get_id())})) {
+      if (cursor.moveToFirst()) {
+        note.setSortKey(cursor.getType(0) == Cursor.FIELD_TYPE_INTEGER
+            ? (Object) cursor.getLong(0) : cursor.getString(0));
+      }
+    }
+  }
 
-    // Generic query to be specialized with conditions passed as parameter
-    String query = "SELECT "
-        + KEY_CREATION + ","
-        + KEY_LAST_MODIFICATION + ","
-        + KEY_TITLE + ","
-        + KEY_CONTENT + ","
-        + KEY_ARCHIVED + ","
-        + KEY_TRASHED + ","
-        + KEY_REMINDER + ","
-        + KEY_REMINDER_FIRED + ","
-        + KEY_RECURRENCE_RULE + ","
-        + KEY_LATITUDE + ","
-        + KEY_LONGITUDE + ","
-        + KEY_ADDRESS + ","
-        + KEY_LOCKED + ","
-        + KEY_CHECKLIST + ","
-        + KEY_CATEGORY + ","
-        + KEY_CATEGORY_NAME + ","
-        + KEY_CATEGORY_DESCRIPTION + ","
-        + KEY_CATEGORY_COLOR
-        + " FROM " + TABLE_NOTES
-        + " LEFT JOIN " + TABLE_CATEGORY + " USING( " + KEY_CATEGORY + ") "
-        + whereCondition
-        + (order ? " ORDER BY " + sortColumn + " COLLATE NOCASE " + sortOrder : "");
+
+  private List<Note> getNotesByQuery(String query, String[] selectionArgs, boolean summary) {
+    List<Note> noteList = new ArrayList<>();
 
     LogDelegate.v("Query: " + query);
 
-    try (Cursor cursor = getDatabase().rawQuery(query, null)) {
+    String password = Prefs.getString(PREF_PASSWORD, "");
+    PasswordRekey passwordRekey = null;
+    boolean passwordRekeyRead = false;
+    try (Cursor cursor = getDatabase().rawQuery(query, selectionArgs)) {
 
       if (cursor.moveToFirst()) {
         do {
@@ -463,167 +1016,850 @@ public class DbHelper extends SQLiteOpenHelper {
           note.setAddress(cursor.getString(i++));
           note.setLocked("1".equals(cursor.getString(i++)));
           note.setChecklist("1".equals(cursor.getString(i++)));
+          note.setSummary(summary);
 
           // Eventual decryption of content
           if (Boolean.TRUE.equals(note.isLocked())) {
-            note.setContent(
-                Security.decrypt(note.getContent(), Prefs.getString(PREF_PASSWORD, "")));
+            if (!passwordRekeyRead) {
+              passwordRekey = getPasswordRekey(getDatabase());
+              passwordRekeyRead = true;
+            }
+            note.setContent(DecryptedContentCache.decrypt(note.get_id(),
+                note.getLastModification(), note.getContent(),
+                passwordRekey != null ? passwordRekey.getPassword(note.get_id()) : password));
+          }
+
+          // Set category
+          long categoryId = cursor.getLong(i++);
+          if (categoryId != 0) {
+            Category category = new Category(categoryId, cursor.getString(i++),
+                cursor.getString(i++), cursor.getString(i));
+            note.setCategory(category);
           }
 
-          // Set category
-          long categoryId = cursor.getLong(i++);
-          if (categoryId != 0) {
-            Category category = new Category(categoryId, cursor.getString(i++),
-                cursor.getString(i++), cursor.getString(i));
-            note.setCategory(category);
-          }
+          // Adding note to list
+          noteList.add(note);
+
+        } while (cursor.moveToNext());
+      }
+
+    }
+
+    // Add eventual attachments uri
+    setNotesAttachments(noteList, summary);
+
+    // Summaries will get their stored values when completed
+    if (!summary) {
+      for (Note note : noteList) {
+        ContentValues storedValues = getNoteValues(note);
+        storedValues.put(KEY_LAST_MODIFICATION, note.getLastModification());
+        note.setStoredValues(storedValues);
+      }
+    }
+
+    LogDelegate.v("Query: Retrieval finished!");
+    return noteList;
+  }
+
+
+  /**
+   * Fills attachments of all the given notes retrieving them with a query for every chunk of notes
+   * instead of one for each note
+   *
+   * @param firstOnly Only the first attachment of each note is retrieved
+   */
+  private void setNotesAttachments(List<Note> notes, boolean firstOnly) {
+    if (notes.isEmpty()) {
+      return;
+    }
+    Map<Long, ArrayList<Attachment>> attachmentsByNote = new HashMap<>();
+    for (int i = 0; i < notes.size(); i += ATTACHMENTS_BATCH_SIZE) {
+      List<Note> chunk = notes.subList(i, Math.min(i + ATTACHMENTS_BATCH_SIZE, notes.size()));
+      String whereCondition = " WHERE " + KEY_ATTACHMENT_NOTE_ID + " IN (" + getIds(chunk) + ")";
+      attachmentsByNote.putAll(getAttachmentsByNote(firstOnly
+          ? getFirstAttachmentsQuery(whereCondition)
+          : getAttachmentsQuery(whereCondition)));
+    }
+    for (Note note : notes) {
+      ArrayList<Attachment> attachments = attachmentsByNote.get(note.get_id());
+      note.setAttachmentsList(attachments != null ? attachments : new ArrayList<>());
+    }
+  }
+
+
+  /**
+   * Completes notes retrieved as summaries with their whole content and attachments
+   */
+  public void completeNotes(List<Note> notes) {
+    List<Note> summaries = new ArrayList<>();
+    for (Note note : notes) {
+      if (note.isSummary()) {
+        summaries.add(note);
+      }
+    }
+    Map<Long, Note> fullNotes = new HashMap<>();
+    for (int i = 0; i < summaries.size(); i += ATTACHMENTS_BATCH_SIZE) {
+      List<Note> chunk = summaries
+          .subList(i, Math.min(i + ATTACHMENTS_BATCH_SIZE, summaries.size()));
+      for (Note fullNote : getNotes(" WHERE " + KEY_ID + " IN (" + getIds(chunk) + ")", false)) {
+        fullNotes.put(fullNote.get_id(), fullNote);
+      }
+    }
+    for (Note note : summaries) {
+      Note fullNote = fullNotes.get(note.get_id());
+      if (fullNote != null) {
+        note.setContent(fullNote.getContent());
+        note.setAttachmentsList(new ArrayList<>(fullNote.getAttachmentsList()));
+        note.setStoredValues(fullNote.getStoredValues());
+      }
+      note.setSummary(false);
+    }
+  }
+
+
+  /**
+   * Completes a note retrieved as summary with its whole content and attachments
+   */
+  public Note completeNote(Note note) {
+    completeNotes(Collections.singletonList(note));
+    return note;
+  }
+
+
+  private static String getIds(List<Note> notes) {
+    StringBuilder noteIds = new StringBuilder();
+    for (Note note : notes) {
+      if (noteIds.length() > 0) {
+        noteIds.append(",");
+      }
+      noteIds.append(note.get_id());
+    }
+    return noteIds.toString();
+  }
+
+
+  /**
+   * Builds notes retrieval query specialized with conditions passed as parameter
+   */
+  String getNotesQuery(String whereCondition, boolean order) {
+    return getNotesQuery(whereCondition, order, false);
+  }
+
+
+  String getNotesQuery(String whereCondition, boolean order, boolean summary) {
+    String sortColumn = getSortColumn();
+    // Notes creation breaks ties to give a stable sorting, needed by pagination
+    String sortOrder = isSortAscending() ? " ASC " : " DESC ";
+
+    // Generic query to be specialized with conditions passed as parameter
+    return "SELECT "
+        + KEY_CREATION + ","
+        + KEY_LAST_MODIFICATION + ","
+        + KEY_TITLE + ","
+        + (summary
+        ? "CASE WHEN " + KEY_LOCKED + " = 1 THEN " + KEY_CONTENT
+        + " ELSE SUBSTR(" + KEY_CONTENT + ", 1, " + SUMMARY_CONTENT_LENGTH + ") END"
+        : KEY_CONTENT) + ","
+        + KEY_ARCHIVED + ","
+        + KEY_TRASHED + ","
+        + KEY_REMINDER + ","
+        + KEY_REMINDER_FIRED + ","
+        + KEY_RECURRENCE_RULE + ","
+        + KEY_LATITUDE + ","
+        + KEY_LONGITUDE + ","
+        + KEY_ADDRESS + ","
+        + KEY_LOCKED + ","
+        + KEY_CHECKLIST + ","
+        + KEY_CATEGORY + ","
+        + KEY_CATEGORY_NAME + ","
+        + KEY_CATEGORY_DESCRIPTION + ","
+        + KEY_CATEGORY_COLOR
+        + " FROM " + TABLE_NOTES
+        + " LEFT JOIN " + TABLE_CATEGORY + " USING( " + KEY_CATEGORY + ") "
+        + whereCondition
+        + (order ? " ORDER BY " + sortColumn + " COLLATE NOCASE " + sortOrder
+        + ", " + KEY_ID + sortOrder : "");
+  }
+
+
+  /**
+   * Gets sorting criteria from preferences. Reminder screen forces sorting.
+   */
+  private static String getSortingColumnPreference() {
+    return Navigation.checkNavigation(Navigation.REMINDERS)
+        ? KEY_REMINDER
+        : Prefs.getString(PREF_SORTING_COLUMN, KEY_TITLE);
+  }
+
+
+  /**
+   * Builds sorting expression for the column chosen by user
+   */
+  static String getSortColumn() {
+    String sortColumn = getSortingColumnPreference();
+    // In case of title sorting criteria it must be handled empty title by concatenating content
+    if (KEY_TITLE.equals(sortColumn)) {
+      return "IFNULL(" + KEY_TITLE + ", '')||IFNULL(" + KEY_CONTENT + ", '')";
+    }
+    // In case of reminder sorting criteria the empty reminder notes must be moved on bottom of results
+    if (KEY_REMINDER.equals(sortColumn)) {
+      return "IFNULL(" + KEY_REMINDER + ", " + TIMESTAMP_UNIX_EPOCH + ")";
+    }
+    return sortColumn;
+  }
+
+
+  static boolean isSortAscending() {
+    String sortColumn = getSortingColumnPreference();
+    return KEY_TITLE.equals(sortColumn) || KEY_REMINDER.equals(sortColumn);
+  }
+
+
+  /**
+   * Narrows condition to the notes following the page's starting one in current sorting. The
+   * sorting key read with the starting note is used, otherwise it's read from database so that the
+   * note doesn't need to be fully loaded. Numeric keys are inlined as they'd be compared as text if
+   * bound.
+   */
+  static String getPageCondition(String whereCondition, NotesPage page) {
+    if (page.isFirst()) {
+      return whereCondition;
+    }
+    String sortColumn = getSortColumn();
+    String comparison = isSortAscending() ? " > " : " < ";
+    Object sortKey = page.getAfter().getSortKey();
+    String afterKey;
+    if (sortKey instanceof Long) {
+      afterKey = String.valueOf(sortKey);
+    } else if (sortKey != null) {
+      afterKey = "?";
+    } else {
+      afterKey = "(SELECT " + sortColumn + " FROM " + TABLE_NOTES + " WHERE " + KEY_ID + " = ?)";
+    }
+    return (StringUtils.isBlank(whereCondition) ? " WHERE " : whereCondition + " AND ")
+        + "(" + sortColumn + " COLLATE NOCASE" + comparison + afterKey
+        + " OR (" + sortColumn + " COLLATE NOCASE = " + afterKey
+        + " AND " + KEY_ID + comparison + "?))";
+  }
+
+
+  /**
+   * Appends to condition arguments the ones of page condition placeholders
+   *
+   * @see #getPageCondition(String, NotesPage)
+   */
+  static String[] getPageArgs(String[] selectionArgs, NotesPage page) {
+    if (page.isFirst()) {
+      return selectionArgs;
+    }
+    String afterId = String.valueOf(page.getAfter().get_id());
+    Object sortKey = page.getAfter().getSortKey();
+    if (sortKey instanceof Long) {
+      return ArrayUtils.addAll(selectionArgs, afterId);
+    }
+    String afterKey = sortKey != null ? String.valueOf(sortKey) : afterId;
+    return ArrayUtils.addAll(selectionArgs, afterKey, afterKey, afterId);
+  }
+
+
+  /**
+   * Archives/restore single note
+   */
+  public void archiveNote(Note note, boolean archive) {
+    note.setArchived(archive);
+    updateNote(note, false);
+  }
+
+
+  /**
+   * Trashes/restore single note
+   */
+  public void trashNote(Note note, boolean trash) {
+    note.setTrashed(trash);
+    updateNote(note, false);
+  }
+
+
+  /**
+   * Deleting single note
+   */
+  public boolean deleteNote(Note note) {
+    return deleteNote(note, false);
+  }
+
+
+  /**
+   * Deleting single note, eventually keeping attachments
+   */
+  public boolean deleteNote(Note note, boolean keepAttachments) {
+    return deleteNote(note.get_id(), keepAttachments);
+  }
+
+
+  /**
+   * Deleting single note by its ID
+   */
+  public boolean deleteNote(long noteId, boolean keepAttachments) {
+    deleteNotes(Collections.singletonList(noteId), keepAttachments);
+    return true;
+  }
+
+
+  /**
+   * Deletes notes, and everything bound to them, within a single transaction
+   */
+  public void deleteNotes(Collection<Long> noteIds, boolean keepAttachments) {
+    SQLiteDatabase db = getDatabase(true);
+    db.beginTransactionNonExclusive();
+    try {
+      for (String ids : getIdsBatches(noteIds)) {
+        deleteNotes(ids, keepAttachments, db);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+
+  /**
+   * @param noteIds Comma separated ids, or a query selecting them
+   */
+  private void deleteNotes(String noteIds, boolean keepAttachments, SQLiteDatabase db) {
+    // Words to remove from vocabulary and full-text index are read from notes text
+    Map<String, Integer> termsChanges = new HashMap<>();
+    try (Cursor cursor = db.query(VIEW_NOTES_SEARCH, new String[]{KEY_TITLE, KEY_CONTENT},
+        KEY_SEARCH_ROWID + " IN (" + noteIds + ")", null, null, null, null)) {
+      while (cursor.moveToNext()) {
+        Set<String> terms = getSearchTerms(cursor.getString(0));
+        terms.addAll(getSearchTerms(cursor.getString(1)));
+        for (String term : terms) {
+          Integer termChange = termsChanges.get(term);
+          termsChanges.put(term, termChange != null ? termChange - 1 : -1);
+        }
+      }
+    }
+    updateSearchTerms(termsChanges, db);
+    db.delete(TABLE_NOTES_FTS, KEY_FTS_DOCID + " IN (" + noteIds + ")", null);
+    db.delete(TABLE_NOTE_TAGS, KEY_NOTE_TAG_NOTE_ID + " IN (" + noteIds + ")", null);
+    db.delete(TABLE_NOTE_STATS, KEY_NOTE_STATS_NOTE_ID + " IN (" + noteIds + ")", null);
+    if (!keepAttachments) {
+      db.delete(TABLE_ATTACHMENTS, KEY_ATTACHMENT_NOTE_ID + " IN (" + noteIds + ")", null);
+    }
+    // Notes are deleted last as they could be selected by noteIds query
+    db.delete(TABLE_NOTES, KEY_ID + " IN (" + noteIds + ")", null);
+  }
+
+
+  /**
+   * Empties trash deleting all trashed notes within a single transaction
+   */
+  public void emptyTrash() {
+    SQLiteDatabase db = getDatabase(true);
+    db.beginTransactionNonExclusive();
+    try {
+      deleteNotes("SELECT " + KEY_ID + " FROM " + TABLE_NOTES + NOTES_TRASHED_CONDITION, false,
+          db);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+
+  /**
+   * Trashes/restores notes within a single transaction
+   */
+  public void trashNotes(Collection<Long> noteIds, boolean trash) {
+    ContentValues values = new ContentValues();
+    values.put(KEY_TRASHED, trash);
+    updateNotes(noteIds, values);
+  }
+
+
+  /**
+   * Archives/restores notes within a single transaction
+   */
+  public void archiveNotes(Collection<Long> noteIds, boolean archive) {
+    ContentValues values = new ContentValues();
+    values.put(KEY_ARCHIVED, archive);
+    updateNotes(noteIds, values);
+  }
+
+
+  /**
+   * Sets notes category, or removes it if null, within a single transaction
+   */
+  public void categorizeNotes(Collection<Long> noteIds, Category category) {
+    ContentValues values = new ContentValues();
+    values.put(KEY_CATEGORY, category != null ? category.getId() : null);
+    updateNotes(noteIds, values);
+  }
+
+
+  /**
+   * Updates only the given columns of notes, without touching their last modification
+   */
+  private void updateNotes(Collection<Long> noteIds, ContentValues values) {
+    SQLiteDatabase db = getDatabase(true);
+    db.beginTransactionNonExclusive();
+    try {
+      for (String ids : getIdsBatches(noteIds)) {
+        db.update(TABLE_NOTES, values, KEY_ID + " IN (" + ids + ")", null);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+
+  /**
+   * Splits ids into comma separated batches to keep statements short
+   */
+  private static List<String> getIdsBatches(Collection<Long> ids) {
+    List<Long> idsList = new ArrayList<>(ids);
+    List<String> batches = new ArrayList<>();
+    for (int i = 0; i < idsList.size(); i += NOTES_IDS_BATCH_SIZE) {
+      batches.add(TextUtils.join(",",
+          idsList.subList(i, Math.min(i + NOTES_IDS_BATCH_SIZE, idsList.size()))));
+    }
+    return batches;
+  }
+
+
+  /**
+   * Gets notes matching pattern as substring of title or content text. Candidates of patterns made
+   * of words are narrowed through full-text index, while the ones including symbols are scanned.
+   *
+   * @param pattern String to match with
+   * @return Notes list
+   */
+  public List<Note> getNotesByPattern(String pattern) {
+    String ftsQuery = getFtsQuery(pattern);
+    return getNotes(getNotesByPatternCondition(ftsQuery != null),
+        getPatternArgs(pattern, ftsQuery), true);
+  }
+
+
+  /**
+   * Same as {@link #getNotesByPattern(String)} but a page of notes is retrieved as summaries
+   */
+  public List<Note> getNoteSummariesByPattern(String pattern, NotesPage page) {
+    String ftsQuery = getFtsQuery(pattern);
+    return getNoteSummaries(getNotesByPatternCondition(ftsQuery != null),
+        getPatternArgs(pattern, ftsQuery), page);
+  }
+
+
+  /**
+   * Same as {@link #getNoteSummariesByPattern(String, NotesPage)} but searching only between the
+   * given notes, ie. the ones matched by a previous pattern refined by this one. Too many notes are
+   * not inlined into query, searching between all of them instead.
+   *
+   * @see #isPatternRefinement(String, String)
+   */
+  public List<Note> getNoteSummariesByPattern(String pattern, Collection<Long> noteIds,
+      NotesPage page) {
+    if (noteIds.size() > PATTERN_REFINEMENT_MAX_NOTES) {
+      return getNoteSummariesByPattern(pattern, page);
+    }
+    String ftsQuery = getFtsQuery(pattern);
+    return getNoteSummaries(getNotesByPatternCondition(ftsQuery != null)
+            + " AND " + KEY_ID + " IN (" + TextUtils.join(",", noteIds) + ")",
+        getPatternArgs(pattern, ftsQuery), page);
+  }
+
+
+  /**
+   * Tells if notes matching pattern are surely a subset of the ones matching previous pattern, so
+   * that search can be narrowed to these ones
+   */
+  public static boolean isPatternRefinement(String previousPattern, String pattern) {
+    return previousPattern != null && pattern != null && pattern.startsWith(previousPattern);
+  }
+
+
+  /**
+   * @param fullText Candidates are narrowed through full-text index
+   */
+  static String getNotesByPatternCondition(boolean fullText) {
+    int navigation = Navigation.getNavigation();
+    return " WHERE "
+        + KEY_TRASHED + (navigation == Navigation.TRASH ? " = 1" : " = 0")
+        + (navigation == Navigation.ARCHIVE ? " AND " + KEY_ARCHIVED + " = 1" : "")
+        + (navigation == Navigation.CATEGORY ? " AND " + KEY_CATEGORY + " = " + Navigation
+        .getCategory() : "")
+        + (navigation == Navigation.UNCATEGORIZED ? " AND (" + KEY_CATEGORY + " IS NULL OR "
+        + KEY_CATEGORY_ID
+        + " == 0) " : "")
+        + (Navigation.checkNavigation(Navigation.REMINDERS) ? " AND " + KEY_REMINDER
+        + " IS NOT NULL" : "")
+        + " AND " + getPatternCondition(fullText);
+  }
+
+
+  /**
+   * Builds pattern matching condition, pattern is bound through placeholders
+   *
+   * @see #getPatternArgs(String, String)
+   */
+  static String getPatternCondition(boolean fullText) {
+    String likeCondition = "("
+        + " ( " + KEY_LOCKED + " = 0 AND (" + KEY_TITLE + " LIKE ? ESCAPE '\\' OR "
+        + KEY_CONTENT + " LIKE ? ESCAPE '\\' ))"
+        + " OR ( " + KEY_LOCKED + " = 1 AND " + KEY_TITLE + " LIKE ? ESCAPE '\\' )"
+        + ")";
+    if (fullText) {
+      // Index only narrows candidates, substring match is still checked on them
+      return "(" + KEY_ID + " IN (SELECT " + KEY_FTS_DOCID + " FROM " + TABLE_NOTES_FTS
+          + " WHERE " + TABLE_NOTES_FTS + " MATCH ?) AND " + likeCondition + ")";
+    }
+    return likeCondition;
+  }
+
+
+  /**
+   * @param ftsQuery Full-text query narrowing candidates, if any
+   */
+  static String[] getPatternArgs(String pattern, String ftsQuery) {
+    String likePattern = "%" + escapeLikeWildcards(pattern) + "%";
+    if (ftsQuery != null) {
+      return new String[]{ftsQuery, likePattern, likePattern, likePattern};
+    }
+    return new String[]{likePattern, likePattern, likePattern};
+  }
+
+
+  /**
+   * Builds a full-text query matching notes having each word of pattern as part of their words.
+   * Indexed words containing it are looked up into words vocabulary, so that infixes and words of
+   * scripts not separated by spaces (as CJK ones) can be found.
+   *
+   * @return Query or null if pattern can't be searched through full-text index, or each of its
+   * words is part of too many indexed ones to narrow search
+   */
+  String getFtsQuery(String pattern) {
+    if (StringUtils.isBlank(pattern) || !FTS_SEARCHABLE_PATTERN.matcher(pattern).matches()) {
+      return null;
+    }
+    StringBuilder ftsQuery = new StringBuilder();
+    for (String word : getSearchTerms(pattern)) {
+      List<String> terms = new ArrayList<>();
+      // Pattern is made only by letters, digits and spaces, so there are no wildcards to escape
+      try (Cursor cursor = getDatabase().query(TABLE_SEARCH_TERMS, new String[]{KEY_SEARCH_TERM},
+          KEY_SEARCH_TERM + " LIKE ?", new String[]{"%" + word + "%"}, null, null, null,
+          String.valueOf(FTS_MAX_TERMS + 1))) {
+        while (cursor.moveToNext()) {
+          terms.add(cursor.getString(0));
+        }
+      }
+      if (terms.size() > FTS_MAX_TERMS) {
+        continue;
+      }
+      if (terms.isEmpty()) {
+        // No note has it, word itself is searched to match nothing
+        terms.add(word);
+      }
+      if (ftsQuery.length() > 0) {
+        ftsQuery.append(" ");
+      }
+      // Alternatives bind tighter than implicit AND between words
+      ftsQuery.append("\"").append(TextUtils.join("\" OR \"", terms)).append("\"");
+    }
+    return ftsQuery.length() > 0 ? ftsQuery.toString() : null;
+  }
+
+  static String escapeLikeWildcards(String pattern) {
+    return pattern.replace("\\", "\\\\")
+        .replace("%", "\\%")
+        .replace("_", "\\_");
+  }
+
+
+  /**
+   * Search for notes with reminder
+   *
+   * @param filterPastReminders Excludes past reminders
+   * @return Notes list
+   */
+  public List<Note> getNotesWithReminder(boolean filterPastReminders) {
+    return getNotes(getNotesWithReminderCondition(filterPastReminders), true);
+  }
+
+
+  static String getNotesWithReminderCondition(boolean filterPastReminders) {
+    return " WHERE " + KEY_REMINDER
+        + (filterPastReminders ? " >= " + Calendar.getInstance().getTimeInMillis() : " IS NOT NULL")
+        + " AND " + KEY_ARCHIVED + " = 0"
+        + " AND " + KEY_TRASHED + " = 0";
+  }
+
+
+  /**
+   * Returns all notes that have a reminder that has not been alredy fired
+   *
+   * @return Notes list
+   */
+  public List<Note> getNotesWithReminderNotFired() {
+    return getNotes(NOTES_WITH_REMINDER_NOT_FIRED_CONDITION, true);
+  }
+
 
-          // Add eventual attachments uri
-          note.setAttachmentsList(getNoteAttachments(note));
+  /**
+   * Retrieves locked or unlocked notes
+   */
+  public List<Note> getNotesWithLock(boolean locked) {
+    String whereCondition = " WHERE " + KEY_LOCKED + (locked ? " = 1 " : " = 0 ");
+    return getNotes(whereCondition, true);
+  }
 
-          // Adding note to list
-          noteList.add(note);
 
-        } while (cursor.moveToNext());
+  /**
+   * Starts re-encryption of locked notes with a new password, or their unlocking if it's null.
+   * Progress is journaled into database, so an interrupted job can be resumed without leaving notes
+   * encrypted with a password no longer known.
+   */
+  public void startPasswordRekey(String oldPassword, String newPassword) {
+    SQLiteDatabase db = getDatabase(true);
+    db.beginTransactionNonExclusive();
+    try {
+      if (getPasswordRekey(db) != null) {
+        throw new IllegalStateException("Another password re-encryption is pending");
       }
+      ContentValues values = new ContentValues();
+      values.put(KEY_PASSWORD_REKEY_OLD_PASSWORD, oldPassword);
+      values.put(KEY_PASSWORD_REKEY_NEW_PASSWORD, newPassword);
+      values.put(KEY_PASSWORD_REKEY_LAST_NOTE_ID, 0);
+      db.insert(TABLE_PASSWORD_REKEY, null, values);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+
+  /**
+   * @return Pending re-encryption of locked notes, null if there's none
+   */
+  public PasswordRekey getPasswordRekey() {
+    return getPasswordRekey(getDatabase());
+  }
 
+
+  private PasswordRekey getPasswordRekey(SQLiteDatabase db) {
+    try (Cursor cursor = db.query(TABLE_PASSWORD_REKEY, new String[]{
+            KEY_PASSWORD_REKEY_OLD_PASSWORD, KEY_PASSWORD_REKEY_NEW_PASSWORD,
+            KEY_PASSWORD_REKEY_LAST_NOTE_ID}, null, null, null, null, null)) {
+      return cursor.moveToFirst()
+          ? new PasswordRekey(cursor.getString(0), cursor.getString(1), cursor.getLong(2))
+          : null;
     }
+  }
 
-    LogDelegate.v("Query: Retrieval finished!");
-    return noteList;
+
+  private String getNotePassword(long noteId, SQLiteDatabase db) {
+    PasswordRekey passwordRekey = getPasswordRekey(db);
+    return passwordRekey != null
+        ? passwordRekey.getPassword(noteId)
+        : Prefs.getString(PREF_PASSWORD, "");
   }
 
 
   /**
-   * Archives/restore single note
+   * Number of locked notes still to be processed by pending re-encryption
    */
-  public void archiveNote(Note note, boolean archive) {
-    note.setArchived(archive);
-    updateNote(note, false);
+  public int getPasswordRekeyRemainingCount() {
+    PasswordRekey passwordRekey = getPasswordRekey();
+    if (passwordRekey == null) {
+      return 0;
+    }
+    return (int) queryForLong("SELECT COUNT(*) FROM " + TABLE_NOTES + " WHERE "
+            + getPasswordRekeyCondition(passwordRekey),
+        getPasswordRekeyArgs(passwordRekey));
   }
 
 
   /**
-   * Trashes/restore single note
+   * Re-encrypts, or unlocks, the next batch of locked notes. Notes and journal progress are written
+   * into the same transaction, so a crash never leaves notes encrypted with an unexpected key.
+   *
+   * @return Number of notes processed, zero when there's nothing left
    */
-  public void trashNote(Note note, boolean trash) {
-    note.setTrashed(trash);
-    updateNote(note, false);
+  public int rekeyLockedNotes() {
+    SQLiteDatabase db = getDatabase(true);
+    db.beginTransactionNonExclusive();
+    try {
+      PasswordRekey passwordRekey = getPasswordRekey(db);
+      if (passwordRekey == null) {
+        return 0;
+      }
+
+      // Batch is read before writing to not update rows while cursor is iterating them
+      List<Note> notes = new ArrayList<>();
+      try (Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_ID, KEY_TITLE, KEY_CONTENT},
+          getPasswordRekeyCondition(passwordRekey), getPasswordRekeyArgs(passwordRekey), null,
+          null, KEY_ID, String.valueOf(PASSWORD_REKEY_BATCH_SIZE))) {
+        while (cursor.moveToNext()) {
+          Note note = new Note();
+          note.setCreation(cursor.getLong(0));
+          note.setTitle(cursor.getString(1));
+          note.setContent(Security.decrypt(cursor.getString(2), passwordRekey.getOldPassword()));
+          notes.add(note);
+        }
+      }
+
+      for (Note note : notes) {
+        ContentValues values = new ContentValues();
+        if (passwordRekey.isPasswordRemoval()) {
+          values.put(KEY_CONTENT, note.getContent());
+          values.put(KEY_LOCKED, false);
+        } else {
+          values.put(KEY_CONTENT,
+              Security.encrypt(note.getContent(), passwordRekey.getNewPassword()));
+        }
+        // Unlocked notes content becomes searchable
+        Set<String> indexedTerms = passwordRekey.isPasswordRemoval()
+            ? deleteNoteSearchIndex(note.get_id(), db)
+            : null;
+        db.update(TABLE_NOTES, values, KEY_ID + " = ?",
+            new String[]{String.valueOf(note.get_id())});
+        if (indexedTerms != null) {
+          note.setLocked(false);
+          insertNoteSearchIndex(note.get_id(), note, indexedTerms, db);
+          updateNoteTags(note.get_id(), note, db);
+        }
+      }
+
+      if (!notes.isEmpty()) {
+        ContentValues progress = new ContentValues();
+        progress.put(KEY_PASSWORD_REKEY_LAST_NOTE_ID, notes.get(notes.size() - 1).get_id());
+        db.update(TABLE_PASSWORD_REKEY, progress, null, null);
+      }
+      db.setTransactionSuccessful();
+      return notes.size();
+    } finally {
+      db.endTransaction();
+    }
   }
 
 
   /**
-   * Deleting single note
+   * Removes the journal of re-encryption, once new password has been stored
    */
-  public boolean deleteNote(Note note) {
-    return deleteNote(note, false);
+  public void finishPasswordRekey() {
+    getDatabase(true).delete(TABLE_PASSWORD_REKEY, null, null);
   }
 
 
   /**
-   * Deleting single note, eventually keeping attachments
+   * Locked notes still to be processed. When password is removed they're unlocked while processed,
+   * otherwise last processed note is used as keyset.
    */
-  public boolean deleteNote(Note note, boolean keepAttachments) {
-    return deleteNote(note.get_id(), keepAttachments);
+  private static String getPasswordRekeyCondition(PasswordRekey passwordRekey) {
+    return KEY_LOCKED + " = 1"
+        + (passwordRekey.isPasswordRemoval() ? "" : " AND " + KEY_ID + " > ?");
+  }
+
+
+  private static String[] getPasswordRekeyArgs(PasswordRekey passwordRekey) {
+    return passwordRekey.isPasswordRemoval()
+        ? new String[]{}
+        : new String[]{String.valueOf(passwordRekey.getLastNoteId())};
   }
 
 
   /**
-   * Deleting single note by its ID
+   * Starts checkpointing a backup or restore, replacing any other one left pending
    */
-  public boolean deleteNote(long noteId, boolean keepAttachments) {
+  public BackupJob startBackupJob(String action, String backupName) {
     SQLiteDatabase db = getDatabase(true);
-    db.delete(TABLE_NOTES, KEY_ID + " = ?", new String[]{String.valueOf(noteId)});
-    if (!keepAttachments) {
-      db.delete(TABLE_ATTACHMENTS, KEY_ATTACHMENT_NOTE_ID + " = ?",
-          new String[]{String.valueOf(noteId)});
+    db.beginTransactionNonExclusive();
+    try {
+      db.delete(TABLE_BACKUP_JOB, null, null);
+      ContentValues values = new ContentValues();
+      values.put(KEY_BACKUP_JOB_ACTION, action);
+      values.put(KEY_BACKUP_JOB_BACKUP_NAME, backupName);
+      values.put(KEY_BACKUP_JOB_LAST_NOTE_ID, 0);
+      db.insert(TABLE_BACKUP_JOB, null, values);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
     }
-    return true;
+    return new BackupJob(action, backupName, 0, null, new ArrayList<>());
   }
 
 
   /**
-   * Empties trash deleting all trashed notes
+   * @return Pending backup or restore, null if there's none
    */
-  public void emptyTrash() {
-    for (Note note : getNotesTrashed()) {
-      deleteNote(note);
+  public BackupJob getBackupJob() {
+    return getBackupJob(getDatabase());
+  }
+
+
+  private BackupJob getBackupJob(SQLiteDatabase db) {
+    try (Cursor cursor = db.query(TABLE_BACKUP_JOB, new String[]{KEY_BACKUP_JOB_ACTION,
+            KEY_BACKUP_JOB_BACKUP_NAME, KEY_BACKUP_JOB_LAST_NOTE_ID,
+            KEY_BACKUP_JOB_LAST_ATTACHMENT, KEY_BACKUP_JOB_FAILURES}, null, null, null, null,
+        null)) {
+      return cursor.moveToFirst()
+          ? new BackupJob(cursor.getString(0), cursor.getString(1), cursor.getLong(2),
+          cursor.getString(3), getBackupJobFailures(cursor.getString(4)))
+          : null;
     }
   }
 
 
   /**
-   * Gets notes matching pattern with title or content text
-   *
-   * @param pattern String to match with
-   * @return Notes list
+   * Stores the last note processed by pending backup or restore. When called inside the
+   * transaction writing notes the checkpoint is committed together with them.
    */
-  public List<Note> getNotesByPattern(String pattern) {
-    String escapedPattern = escapeSql(pattern);
-    int navigation = Navigation.getNavigation();
-    String whereCondition = " WHERE "
-        + KEY_TRASHED + (navigation == Navigation.TRASH ? " IS 1" : " IS NOT 1")
-        + (navigation == Navigation.ARCHIVE ? " AND " + KEY_ARCHIVED + " IS 1" : "")
-        + (navigation == Navigation.CATEGORY ? " AND " + KEY_CATEGORY + " = " + Navigation
-        .getCategory() : "")
-        + (navigation == Navigation.UNCATEGORIZED ? " AND (" + KEY_CATEGORY + " IS NULL OR "
-        + KEY_CATEGORY_ID
-        + " == 0) " : "")
-        + (Navigation.checkNavigation(Navigation.REMINDERS) ? " AND " + KEY_REMINDER
-        + " IS NOT NULL" : "")
-        + " AND ("
-        + " ( " + KEY_LOCKED + " IS NOT 1 AND (" + KEY_TITLE + " LIKE '%" + escapedPattern
-        + "%' ESCAPE '\\' " + " OR "
-        +
-        KEY_CONTENT + " LIKE '%" + escapedPattern + "%' ESCAPE '\\' ))"
-        + " OR ( " + KEY_LOCKED + " = 1 AND " + KEY_TITLE + " LIKE '%" + escapedPattern
-        + "%' ESCAPE '\\' )"
-        + ")";
-    return getNotes(whereCondition, true);
+  public void setBackupJobLastNoteId(long noteId) {
+    ContentValues values = new ContentValues();
+    values.put(KEY_BACKUP_JOB_LAST_NOTE_ID, noteId);
+    getDatabase(true).update(TABLE_BACKUP_JOB, values, null, null);
   }
 
-  static String escapeSql(String pattern) {
-    return StringUtils.replace(pattern, "'", "''")
-        .replace("%", "\\%")
-        .replace("_", "\\_");
+
+  public void setBackupJobLastAttachment(String attachmentName) {
+    ContentValues values = new ContentValues();
+    values.put(KEY_BACKUP_JOB_LAST_ATTACHMENT, attachmentName);
+    getDatabase(true).update(TABLE_BACKUP_JOB, values, null, null);
   }
 
 
   /**
-   * Search for notes with reminder
-   *
-   * @param filterPastReminders Excludes past reminders
-   * @return Notes list
+   * Records an item that pending backup or restore couldn't process, once even if the job is
+   * resumed and fails on it again
    */
-  public List<Note> getNotesWithReminder(boolean filterPastReminders) {
-    String whereCondition = " WHERE " + KEY_REMINDER
-        + (filterPastReminders ? " >= " + Calendar.getInstance().getTimeInMillis() : " IS NOT NULL")
-        + " AND " + KEY_ARCHIVED + " IS NOT 1"
-        + " AND " + KEY_TRASHED + " IS NOT 1";
-    return getNotes(whereCondition, true);
+  public void addBackupJobFailure(String item) {
+    SQLiteDatabase db = getDatabase(true);
+    db.beginTransactionNonExclusive();
+    try {
+      BackupJob backupJob = getBackupJob(db);
+      if (backupJob != null && !backupJob.getFailures().contains(item)) {
+        List<String> failures = new ArrayList<>(backupJob.getFailures());
+        failures.add(item);
+        ContentValues values = new ContentValues();
+        values.put(KEY_BACKUP_JOB_FAILURES, TextUtils.join("\n", failures));
+        db.update(TABLE_BACKUP_JOB, values, null, null);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
   }
 
 
-  /**
-   * Returns all notes that have a reminder that has not been alredy fired
-   *
-   * @return Notes list
-   */
-  public List<Note> getNotesWithReminderNotFired() {
-    String whereCondition = " WHERE " + KEY_REMINDER + " IS NOT NULL"
-        + " AND " + KEY_REMINDER_FIRED + " IS NOT 1"
-        + " AND " + KEY_ARCHIVED + " IS NOT 1"
-        + " AND " + KEY_TRASHED + " IS NOT 1";
-    return getNotes(whereCondition, true);
+  public void finishBackupJob() {
+    getDatabase(true).delete(TABLE_BACKUP_JOB, null, null);
   }
 
 
-  /**
-   * Retrieves locked or unlocked notes
-   */
-  public List<Note> getNotesWithLock(boolean locked) {
-    String whereCondition = " WHERE " + KEY_LOCKED + (locked ? " = 1 " : " IS NOT 1 ");
-    return getNotes(whereCondition, true);
+  private static List<String> getBackupJobFailures(String failures) {
+    return TextUtils.isEmpty(failures) ? new ArrayList<>()
+        : new ArrayList<>(Arrays.asList(failures.split("\n")));
   }
 
 
@@ -635,7 +1871,7 @@ public class DbHelper extends SQLiteOpenHelper {
   public List<Note> getTodayReminders() {
     String whereCondition =
         " WHERE DATE(" + KEY_REMINDER + "/1000, 'unixepoch') = DATE('now') AND " +
-            KEY_TRASHED + " IS NOT 1";
+            KEY_TRASHED + " = 0";
     return getNotes(whereCondition, false);
   }
 
@@ -644,8 +1880,8 @@ public class DbHelper extends SQLiteOpenHelper {
    * Retrieves all attachments related to specific note
    */
   public ArrayList<Attachment> getNoteAttachments(Note note) {
-    String whereCondition = " WHERE " + KEY_ATTACHMENT_NOTE_ID + " = " + note.get_id();
-    return getAttachments(whereCondition);
+    String whereCondition = " WHERE " + KEY_ATTACHMENT_NOTE_ID + " = ?";
+    return getAttachments(whereCondition, new String[]{String.valueOf(note.get_id())});
   }
 
 
@@ -672,11 +1908,7 @@ public class DbHelper extends SQLiteOpenHelper {
     boolean filterArchived = Prefs
         .getBoolean(PREF_FILTER_ARCHIVED_IN_CATEGORIES + categoryId, false);
     try {
-      String whereCondition = " WHERE "
-          + KEY_CATEGORY_ID + " = " + categoryId
-          + " AND " + KEY_TRASHED + " IS NOT 1"
-          + (filterArchived ? " AND " + KEY_ARCHIVED + " IS NOT 1" : "");
-      notes = getNotes(whereCondition, true);
+      notes = getNotes(getNotesByCategoryCondition(categoryId, filterArchived), true);
     } catch (NumberFormatException e) {
       notes = getAllNotes(true);
     }
@@ -684,6 +1916,24 @@ public class DbHelper extends SQLiteOpenHelper {
   }
 
 
+  /**
+   * Same as {@link #getNotesByCategory(Long)} but a page of notes is retrieved as summaries
+   */
+  public List<Note> getNoteSummariesByCategory(Long categoryId, NotesPage page) {
+    boolean filterArchived = Prefs
+        .getBoolean(PREF_FILTER_ARCHIVED_IN_CATEGORIES + categoryId, false);
+    return getNoteSummaries(getNotesByCategoryCondition(categoryId, filterArchived), page);
+  }
+
+
+  static String getNotesByCategoryCondition(Long categoryId, boolean filterArchived) {
+    return " WHERE "
+        + KEY_CATEGORY_ID + " = " + categoryId
+        + " AND " + KEY_TRASHED + " = 0"
+        + (filterArchived ? " AND " + KEY_ARCHIVED + " = 0" : "");
+  }
+
+
   /**
    * Retrieves all tags
    */
@@ -697,26 +1947,18 @@ public class DbHelper extends SQLiteOpenHelper {
    */
   public List<Tag> getTags(Note note) {
     List<Tag> tags = new ArrayList<>();
-    HashMap<String, Integer> tagsMap = new HashMap<>();
-
-    String whereCondition = " WHERE "
-        + (note != null ? KEY_ID + " = " + note.get_id() + " AND " : "")
-        + "(" + KEY_CONTENT + " LIKE '%#%' OR " + KEY_TITLE + " LIKE '%#%' " + ")"
-        + " AND " + KEY_TRASHED + " IS " + (Navigation.checkNavigation(Navigation.TRASH) ? ""
-        : " NOT ") + " 1";
-    List<Note> notesRetrieved = getNotes(whereCondition, true);
-
-    for (Note noteRetrieved : notesRetrieved) {
-      HashMap<String, Integer> tagsRetrieved = TagsHelper.retrieveTags(noteRetrieved);
-      for (String s : tagsRetrieved.keySet()) {
-        int count = tagsMap.get(s) == null ? 0 : tagsMap.get(s);
-        tagsMap.put(s, ++count);
-      }
-    }
 
-    for (Entry<String, Integer> entry : tagsMap.entrySet()) {
-      Tag tag = new Tag(entry.getKey(), entry.getValue());
-      tags.add(tag);
+    String sql = "SELECT " + KEY_NOTE_TAG + ", COUNT(*)"
+        + " FROM " + TABLE_NOTE_TAGS
+        + " JOIN " + TABLE_NOTES + " ON " + KEY_ID + " = " + KEY_NOTE_TAG_NOTE_ID
+        + " WHERE " + KEY_TRASHED + (Navigation.checkNavigation(Navigation.TRASH) ? " = 1" : " = 0")
+        + (note != null ? " AND " + KEY_NOTE_TAG_NOTE_ID + " = " + note.get_id() : "")
+        + " GROUP BY " + KEY_NOTE_TAG;
+
+    try (Cursor cursor = getDatabase().rawQuery(sql, null)) {
+      while (cursor.moveToNext()) {
+        tags.add(new Tag(cursor.getString(0), cursor.getInt(1)));
+      }
     }
 
     Collections.sort(tags, (tag1, tag2) -> tag1.getText().compareToIgnoreCase(tag2.getText()));
@@ -736,49 +1978,60 @@ public class DbHelper extends SQLiteOpenHelper {
   }
 
 
+  /**
+   * Same as {@link #getNotesByTag(String)} but a page of notes is retrieved as summaries
+   */
+  public List<Note> getNoteSummariesByTag(String tag, NotesPage page) {
+    return getNoteSummaries(getNotesByTagCondition(tag.split(",")), page);
+  }
+
+
   /**
    * Retrieves all notes with specified tags
    */
   public List<Note> getNotesByTag(String[] tags) {
-    StringBuilder whereCondition = new StringBuilder();
-    whereCondition.append(" WHERE ");
-    for (int i = 0; i < tags.length; i++) {
-      if (i != 0) {
-        whereCondition.append(" AND ");
+    return getNotes(getNotesByTagCondition(tags), true);
+  }
+
+
+  static String getNotesByTagCondition(String[] tags) {
+    Set<String> distinctTags = new HashSet<>();
+    StringBuilder tagsList = new StringBuilder();
+    for (String tag : tags) {
+      if (distinctTags.add(tag.trim())) {
+        tagsList.append(tagsList.length() > 0 ? "," : "")
+            .append(DatabaseUtils.sqlEscapeString(tag.trim()));
       }
-      whereCondition.append("(" + KEY_CONTENT + " LIKE '%").append(tags[i]).append("%' OR ")
-          .append(KEY_TITLE)
-          .append(" LIKE '%").append(tags[i]).append("%')");
-    }
-    // Trashed notes must be included in search results only if search if performed from trash
-    whereCondition.append(" AND " + KEY_TRASHED + " IS ")
-        .append(Navigation.checkNavigation(Navigation.TRASH) ?
-            "" : "" +
-            " NOT ").append(" 1");
-
-    return rx.Observable.from(getNotes(whereCondition.toString(), true))
-        .map(note -> {
-          boolean matches = rx.Observable.from(tags)
-              .all(tag -> {
-                Pattern p = Pattern.compile(".*(\\s|^)" + tag + "(\\s|$).*",
-                    Pattern.MULTILINE);
-                return p.matcher(
-                    (note.getTitle() + " " + note.getContent())).find();
-              }).toBlocking().single();
-          return matches ? note : null;
-        })
-        .filter(Objects::nonNull)
-        .toList().toBlocking().single();
+    }
+    return " WHERE " + KEY_ID + " IN ("
+        + " SELECT " + KEY_NOTE_TAG_NOTE_ID + " FROM " + TABLE_NOTE_TAGS
+        + " WHERE " + KEY_NOTE_TAG + " IN (" + tagsList + ")"
+        + " GROUP BY " + KEY_NOTE_TAG_NOTE_ID
+        + " HAVING COUNT(*) = " + distinctTags.size() + ")"
+        // Trashed notes must be included in search results only if search if performed from trash
+        + " AND " + KEY_TRASHED + (Navigation.checkNavigation(Navigation.TRASH) ? " = 1" : " = 0");
   }
 
   /**
    * Retrieves all uncompleted checklists
    */
   public List<Note> getNotesByUncompleteChecklist() {
-    String whereCondition =
-        " WHERE " + KEY_CHECKLIST + " = 1 AND " + KEY_CONTENT + " LIKE '%" + UNCHECKED_SYM + "%' AND "
-    + KEY_TRASHED + (Navigation.checkNavigation(Navigation.TRASH) ? " IS 1" : " IS NOT 1");
-    return getNotes(whereCondition, true);
+    return getNotes(getNotesByUncompleteChecklistCondition(), true);
+  }
+
+
+  /**
+   * Same as {@link #getNotesByUncompleteChecklist()} but a page of notes is retrieved as summaries
+   */
+  public List<Note> getNoteSummariesByUncompleteChecklist(NotesPage page) {
+    return getNoteSummaries(getNotesByUncompleteChecklistCondition(), page);
+  }
+
+
+  static String getNotesByUncompleteChecklistCondition() {
+    return " WHERE " + KEY_CHECKLIST + " = 1 AND " + KEY_CONTENT + " LIKE '%" + UNCHECKED_SYM
+        + "%' AND " + KEY_TRASHED + (Navigation.checkNavigation(Navigation.TRASH) ? " = 1"
+        : " = 0");
   }
 
 
@@ -790,29 +2043,41 @@ public class DbHelper extends SQLiteOpenHelper {
   }
 
 
+  /**
+   * Retrieves a batch of attachments following the given one by id, so that all of them can be
+   * scanned keeping only a few into memory
+   *
+   * @param withoutNote Retrieves only attachments whose note doesn't exist anymore
+   */
+  public ArrayList<Attachment> getAttachments(long lastAttachmentId, int limit,
+      boolean withoutNote) {
+    return getAttachments(" WHERE " + KEY_ATTACHMENT_ID + " > ?"
+            + (withoutNote ? " AND NOT EXISTS (SELECT 1 FROM " + TABLE_NOTES
+            + " WHERE " + KEY_ID + " = " + KEY_ATTACHMENT_NOTE_ID + ")" : "")
+            + " ORDER BY " + KEY_ATTACHMENT_ID + " LIMIT " + limit,
+        new String[]{String.valueOf(lastAttachmentId)});
+  }
+
+
   /**
    * Retrieves attachments using a condition passed as parameter
    *
    * @return List of attachments
    */
   public ArrayList<Attachment> getAttachments(String whereCondition) {
+    return getAttachments(whereCondition, null);
+  }
+
+
+  public ArrayList<Attachment> getAttachments(String whereCondition, String[] selectionArgs) {
 
     ArrayList<Attachment> attachmentsList = new ArrayList<>();
-    String sql = "SELECT "
-        + KEY_ATTACHMENT_ID + ","
-        + KEY_ATTACHMENT_URI + ","
-        + KEY_ATTACHMENT_NAME + ","
-        + KEY_ATTACHMENT_SIZE + ","
-        + KEY_ATTACHMENT_LENGTH + ","
-        + KEY_ATTACHMENT_MIME_TYPE
-        + " FROM " + TABLE_ATTACHMENTS
-        + whereCondition;
-    SQLiteDatabase db;
+    String sql = getAttachmentsQuery(whereCondition);
     Cursor cursor = null;
 
     try {
 
-      cursor = getDatabase().rawQuery(sql, null);
+      cursor = getDatabase().rawQuery(sql, selectionArgs);
 
       // Looping through all rows and adding to list
       if (cursor.moveToFirst()) {
@@ -834,6 +2099,70 @@ public class DbHelper extends SQLiteOpenHelper {
   }
 
 
+  /**
+   * Builds attachments retrieval query specialized with conditions passed as parameter
+   */
+  String getAttachmentsQuery(String whereCondition) {
+    return "SELECT "
+        + KEY_ATTACHMENT_ID + ","
+        + KEY_ATTACHMENT_URI + ","
+        + KEY_ATTACHMENT_NAME + ","
+        + KEY_ATTACHMENT_SIZE + ","
+        + KEY_ATTACHMENT_LENGTH + ","
+        + KEY_ATTACHMENT_MIME_TYPE + ","
+        + KEY_ATTACHMENT_NOTE_ID
+        + " FROM " + TABLE_ATTACHMENTS
+        + whereCondition;
+  }
+
+
+  /**
+   * Builds a query retrieving only the first attachment of each note matching conditions
+   */
+  String getFirstAttachmentsQuery(String whereCondition) {
+    // Bare columns of an aggregate query with MIN() are taken from the row holding the minimum
+    return "SELECT "
+        + "MIN(" + KEY_ATTACHMENT_ID + "),"
+        + KEY_ATTACHMENT_URI + ","
+        + KEY_ATTACHMENT_NAME + ","
+        + KEY_ATTACHMENT_SIZE + ","
+        + KEY_ATTACHMENT_LENGTH + ","
+        + KEY_ATTACHMENT_MIME_TYPE + ","
+        + KEY_ATTACHMENT_NOTE_ID
+        + " FROM " + TABLE_ATTACHMENTS
+        + whereCondition
+        + " GROUP BY " + KEY_ATTACHMENT_NOTE_ID;
+  }
+
+
+  /**
+   * Retrieves attachments using the query passed as parameter grouping them by note
+   *
+   * @return Map of attachments lists keyed by note ID
+   */
+  private Map<Long, ArrayList<Attachment>> getAttachmentsByNote(String sql) {
+    Map<Long, ArrayList<Attachment>> attachmentsByNote = new HashMap<>();
+
+    try (Cursor cursor = getDatabase().rawQuery(sql, null)) {
+      if (cursor.moveToFirst()) {
+        do {
+          Attachment attachment = new Attachment(cursor.getLong(0),
+              Uri.parse(cursor.getString(1)), cursor.getString(2), cursor.getInt(3),
+              (long) cursor.getInt(4), cursor.getString(5));
+          long noteId = cursor.getLong(6);
+          ArrayList<Attachment> noteAttachments = attachmentsByNote.get(noteId);
+          if (noteAttachments == null) {
+            noteAttachments = new ArrayList<>();
+            attachmentsByNote.put(noteId, noteAttachments);
+          }
+          noteAttachments.add(attachment);
+        } while (cursor.moveToNext());
+      }
+    }
+    return attachmentsByNote;
+  }
+
+
   /**
    * Retrieves categories list from database
    *
@@ -851,7 +2180,7 @@ public class DbHelper extends SQLiteOpenHelper {
         + " LEFT JOIN ("
         + " SELECT " + KEY_ID + ", " + KEY_CATEGORY
         + " FROM " + TABLE_NOTES
-        + " WHERE " + KEY_TRASHED + " IS NOT 1"
+        + " WHERE " + KEY_TRASHED + " = 0"
         + ") USING( " + KEY_CATEGORY + ") "
         + " GROUP BY "
         + KEY_CATEGORY_ID + ","
@@ -936,9 +2265,9 @@ public class DbHelper extends SQLiteOpenHelper {
         + KEY_CATEGORY_DESCRIPTION + ","
         + KEY_CATEGORY_COLOR
         + " FROM " + TABLE_CATEGORY
-        + " WHERE " + KEY_CATEGORY_ID + " = " + id;
+        + " WHERE " + KEY_CATEGORY_ID + " = ?";
 
-    try (Cursor cursor = getDatabase().rawQuery(sql, null)) {
+    try (Cursor cursor = getDatabase().rawQuery(sql, new String[]{String.valueOf(id)})) {
 
       if (cursor.moveToFirst()) {
         category = new Category(cursor.getLong(0), cursor.getString(1),
@@ -951,136 +2280,149 @@ public class DbHelper extends SQLiteOpenHelper {
 
 
   public int getCategorizedCount(Category category) {
-    int count = 0;
-    String sql = "SELECT COUNT(*)"
-        + " FROM " + TABLE_NOTES
-        + " WHERE " + KEY_CATEGORY + " = " + category.getId();
+    return (int) queryForLong("SELECT COUNT(*) FROM " + TABLE_NOTES
+        + " WHERE " + KEY_CATEGORY + " = ?", String.valueOf(category.getId()));
+  }
 
-    try (Cursor cursor = getDatabase().rawQuery(sql, null)) {
-      if (cursor.moveToFirst()) {
-        count = cursor.getInt(0);
-      }
+
+  /**
+   * Runs a query returning a single value through a statement compiled only once
+   *
+   * @param sql Query with placeholders, it must not be built with variable values
+   */
+  private synchronized long queryForLong(String sql, String... selectionArgs) {
+    SQLiteDatabase database = getDatabase();
+    // Statements compiled on a database since reopened are not valid anymore
+    if (database != compiledStatementsDatabase) {
+      closeCompiledStatements();
+      compiledStatementsDatabase = database;
     }
-    return count;
+    SQLiteStatement statement = compiledStatements.get(sql);
+    if (statement == null) {
+      statement = database.compileStatement(sql);
+      compiledStatements.put(sql, statement);
+    }
+    statement.bindAllArgsAsStrings(selectionArgs);
+    return statement.simpleQueryForLong();
+  }
+
+
+  /**
+   * Releases statements compiled by this instance, as when it's replaced by a new one
+   */
+  private synchronized void closeCompiledStatements() {
+    for (SQLiteStatement statement : compiledStatements.values()) {
+      statement.close();
+    }
+    compiledStatements.clear();
+    compiledStatementsDatabase = null;
   }
 
 
   /**
-   * Retrieves statistics data based on app usage
+   * Retrieves statistics data based on app usage. Stats are computed through aggregate queries, so
+   * that notes are never loaded.
    */
   public Stats getStats() {
     Stats mStats = new Stats();
+    SQLiteDatabase db = getDatabase();
 
-    // Categories
-    mStats.setCategories(getCategories().size());
-
-    // Everything about notes and their text stats
-    int notesActive = 0;
-    int notesArchived = 0;
-    int notesTrashed = 0;
-    int reminders = 0;
-    int remindersFuture = 0;
-    int checklists = 0;
-    int notesMasked = 0;
-    int tags = 0;
-    int locations = 0;
-    int totalWords = 0;
-    int totalChars = 0;
-    int maxWords = 0;
-    int maxChars = 0;
-    int avgWords;
-    int avgChars;
-    int words;
-    int chars;
-    List<Note> notes = getAllNotes(false);
-    for (Note note : notes) {
-      if (note.isTrashed()) {
-        notesTrashed++;
-      } else if (note.isArchived()) {
-        notesArchived++;
-      } else {
-        notesActive++;
-      }
-      if (note.getAlarm() != null && Long.parseLong(note.getAlarm()) > 0) {
-        if (Long.parseLong(note.getAlarm()) > Calendar.getInstance().getTimeInMillis()) {
-          remindersFuture++;
-        } else {
-          reminders++;
-        }
-      }
-      if (note.isChecklist()) {
-        checklists++;
-      }
-      if (note.isLocked()) {
-        notesMasked++;
-      }
-      tags += TagsHelper.retrieveTags(note).size();
-      if (note.getLongitude() != null && note.getLongitude() != 0) {
-        locations++;
-      }
-      words = NotesHelper.getWords(note);
-      chars = NotesHelper.getChars(note);
-      if (words > maxWords) {
-        maxWords = words;
-      }
-      if (chars > maxChars) {
-        maxChars = chars;
-      }
-      totalWords += words;
-      totalChars += chars;
-    }
-    mStats.setNotesActive(notesActive);
-    mStats.setNotesArchived(notesArchived);
-    mStats.setNotesTrashed(notesTrashed);
-    mStats.setReminders(reminders);
-    mStats.setRemindersFutures(remindersFuture);
-    mStats.setNotesChecklist(checklists);
-    mStats.setNotesMasked(notesMasked);
-    mStats.setTags(tags);
-    mStats.setLocation(locations);
-    avgWords = totalWords / (!notes.isEmpty() ? notes.size() : 1);
-    avgChars = totalChars / (!notes.isEmpty() ? notes.size() : 1);
-
-    mStats.setWords(totalWords);
-    mStats.setWordsMax(maxWords);
-    mStats.setWordsAvg(avgWords);
-    mStats.setChars(totalChars);
-    mStats.setCharsMax(maxChars);
-    mStats.setCharsAvg(avgChars);
+    mStats.setCategories((int) DatabaseUtils.queryNumEntries(db, TABLE_CATEGORY));
+    mStats.setTags((int) DatabaseUtils.queryNumEntries(db, TABLE_NOTE_TAGS));
+
+    // Everything about notes
+    int notesNumber;
+    String sql = "SELECT "
+        + "COUNT(*),"
+        + "SUM(" + KEY_TRASHED + " = 1),"
+        + "SUM(" + KEY_TRASHED + " = 0 AND " + KEY_ARCHIVED + " = 1),"
+        + "SUM(" + KEY_REMINDER + " > 0 AND " + KEY_REMINDER + " <= ?),"
+        + "SUM(" + KEY_REMINDER + " > ?),"
+        + "SUM(" + KEY_CHECKLIST + " = 1),"
+        + "SUM(" + KEY_LOCKED + " = 1),"
+        + "SUM(" + KEY_LONGITUDE + " IS NOT NULL AND " + KEY_LONGITUDE + " != 0)"
+        + " FROM " + TABLE_NOTES;
+    String now = String.valueOf(Calendar.getInstance().getTimeInMillis());
+    try (Cursor cursor = db.rawQuery(sql, new String[]{now, now})) {
+      cursor.moveToFirst();
+      int i = 0;
+      notesNumber = cursor.getInt(i++);
+      mStats.setNotesTrashed(cursor.getInt(i++));
+      mStats.setNotesArchived(cursor.getInt(i++));
+      mStats.setNotesActive(notesNumber - mStats.getNotesTrashed() - mStats.getNotesArchived());
+      mStats.setReminders(cursor.getInt(i++));
+      mStats.setRemindersFutures(cursor.getInt(i++));
+      mStats.setNotesChecklist(cursor.getInt(i++));
+      mStats.setNotesMasked(cursor.getInt(i++));
+      mStats.setLocation(cursor.getInt(i));
+    }
+
+    // Text stats, kept updated on notes saving
+    sql = "SELECT "
+        + "SUM(" + KEY_NOTE_STATS_WORDS + "),"
+        + "MAX(" + KEY_NOTE_STATS_WORDS + "),"
+        + "SUM(" + KEY_NOTE_STATS_CHARS + "),"
+        + "MAX(" + KEY_NOTE_STATS_CHARS + ")"
+        + " FROM " + TABLE_NOTE_STATS;
+    try (Cursor cursor = db.rawQuery(sql, null)) {
+      cursor.moveToFirst();
+      int i = 0;
+      mStats.setWords(cursor.getInt(i++));
+      mStats.setWordsMax(cursor.getInt(i++));
+      mStats.setChars(cursor.getInt(i++));
+      mStats.setCharsMax(cursor.getInt(i));
+    }
+    mStats.setWordsAvg(mStats.getWords() / Math.max(notesNumber, 1));
+    mStats.setCharsAvg(mStats.getChars() / Math.max(notesNumber, 1));
 
     // Everything about attachments
     int attachmentsAll = 0;
-    int images = 0;
-    int videos = 0;
-    int audioRecordings = 0;
-    int sketches = 0;
-    int files = 0;
-
-    List<Attachment> attachments = getAllAttachments();
-    for (Attachment attachment : attachments) {
-      if (MIME_TYPE_IMAGE.equals(attachment.getMime_type())) {
-        images++;
-      } else if (MIME_TYPE_VIDEO.equals(attachment.getMime_type())) {
-        videos++;
-      } else if (MIME_TYPE_AUDIO.equals(attachment.getMime_type())) {
-        audioRecordings++;
-      } else if (MIME_TYPE_SKETCH.equals(attachment.getMime_type())) {
-        sketches++;
-      } else if (MIME_TYPE_FILES.equals(attachment.getMime_type())) {
-        files++;
+    sql = "SELECT " + KEY_ATTACHMENT_MIME_TYPE + ", COUNT(*)"
+        + " FROM " + TABLE_ATTACHMENTS
+        + " GROUP BY " + KEY_ATTACHMENT_MIME_TYPE;
+    try (Cursor cursor = db.rawQuery(sql, null)) {
+      while (cursor.moveToNext()) {
+        String mimeType = cursor.getString(0);
+        int count = cursor.getInt(1);
+        if (MIME_TYPE_IMAGE.equals(mimeType)) {
+          mStats.setImages(count);
+        } else if (MIME_TYPE_VIDEO.equals(mimeType)) {
+          mStats.setVideos(count);
+        } else if (MIME_TYPE_AUDIO.equals(mimeType)) {
+          mStats.setAudioRecordings(count);
+        } else if (MIME_TYPE_SKETCH.equals(mimeType)) {
+          mStats.setSketches(count);
+        } else if (MIME_TYPE_FILES.equals(mimeType)) {
+          mStats.setFiles(count);
+        }
+        attachmentsAll += count;
       }
     }
     mStats.setAttachments(attachmentsAll);
-    mStats.setImages(images);
-    mStats.setVideos(videos);
-    mStats.setAudioRecordings(audioRecordings);
-    mStats.setSketches(sketches);
-    mStats.setFiles(files);
 
     return mStats;
   }
 
 
+  /**
+   * Counts notes of navigation items that are hidden when empty with a single aggregate query
+   */
+  public NavigationCounters getNavigationCounters() {
+    String sql = "SELECT "
+        + "SUM(" + KEY_TRASHED + " = 0 AND " + KEY_ARCHIVED + " = 1),"
+        + "SUM(" + KEY_TRASHED + " = 1),"
+        + "SUM(" + KEY_CATEGORY + " IS NULL OR " + KEY_CATEGORY + " = 0),"
+        + "SUM(" + KEY_TRASHED + " = 0 AND " + KEY_ARCHIVED + " = 0 AND " + KEY_REMINDER
+        + " IS NOT NULL)"
+        + " FROM " + TABLE_NOTES;
+    try (Cursor cursor = getDatabase().rawQuery(sql, null)) {
+      cursor.moveToFirst();
+      return new NavigationCounters(cursor.getInt(0), cursor.getInt(1), cursor.getInt(2),
+          cursor.getInt(3));
+    }
+  }
+
+
   public void setReminderFired(long noteId, boolean fired) {
     ContentValues values = new ContentValues();
     values.put(KEY_REMINDER_FIRED, fired);
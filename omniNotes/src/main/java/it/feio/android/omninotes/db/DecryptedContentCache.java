@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.db;
+
+import android.util.LruCache;
+import it.feio.android.omninotes.utils.HashHelper;
+import it.feio.android.omninotes.utils.Security;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Keeps in memory the decrypted content of locked notes, so that lists loading and searches don't
+ * decrypt them every time. Entries are keyed by note, its last modification and the hash of the
+ * password used to decrypt it, so that notes of a pending re-encryption, alternating old and new
+ * passwords, are cached too.
+ */
+@UtilityClass
+public final class DecryptedContentCache {
+
+  // Cache size is measured in characters
+  private static final int MAX_SIZE = 512 * 1024;
+
+  private static final LruCache<String, String> cache = new LruCache<String, String>(MAX_SIZE) {
+    @Override
+    protected int sizeOf(String key, String value) {
+      return key.length() + value.length();
+    }
+  };
+
+  // Hashes of the passwords used, to not compute them for every note
+  private static final Map<String, String> passwordsHashes = new HashMap<>();
+
+
+  /**
+   * Returns decrypted content of a locked note, using the cached one when available
+   */
+  public static synchronized String decrypt(long noteId, long lastModification, String content,
+      String password) {
+    String key = getKey(noteId, lastModification, password);
+    String decryptedContent = cache.get(key);
+    if (decryptedContent == null) {
+      decryptedContent = Security.decrypt(content, password);
+      cache.put(key, decryptedContent);
+    }
+    return decryptedContent;
+  }
+
+
+  /**
+   * Stores content of a locked note that has just been saved, so it won't be decrypted again
+   */
+  public static synchronized void put(long noteId, long lastModification, String content,
+      String password) {
+    cache.put(getKey(noteId, lastModification, password), content);
+  }
+
+
+  /**
+   * Removes all decrypted contents from memory
+   */
+  public static synchronized void clear() {
+    cache.evictAll();
+    passwordsHashes.clear();
+  }
+
+
+  static synchronized int size() {
+    return cache.size();
+  }
+
+
+  /**
+   * Entries decrypted with another password are never served, so a password change not notified
+   * won't serve wrong contents
+   */
+  private static String getKey(long noteId, long lastModification, String password) {
+    String passwordHash = passwordsHashes.get(password);
+    if (passwordHash == null) {
+      passwordHash = HashHelper.sha256(password);
+      passwordsHashes.put(password, passwordHash);
+    }
+    return passwordHash + ":" + noteId + ":" + lastModification;
+  }
+
+}
@@ -17,15 +17,38 @@
 
 package it.feio.android.omninotes.helpers;
 
+import static it.feio.android.omninotes.utils.ConstantsBase.PREF_LEGACY_ATTACHMENTS_STORED;
 
+import android.content.ContentResolver;
+import android.net.Uri;
+import com.pixplicity.easyprefs.library.Prefs;
+import it.feio.android.omninotes.OmniNotes;
+import it.feio.android.omninotes.db.DbHelper;
 import it.feio.android.omninotes.models.Attachment;
+import it.feio.android.omninotes.models.misc.AttachmentsGcReport;
+import it.feio.android.omninotes.utils.StorageHelper;
+import it.feio.android.omninotes.utils.ThumbnailCache;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import lombok.experimental.UtilityClass;
 import org.apache.commons.io.FileUtils;
 
 @UtilityClass
 public class AttachmentsHelper {
 
+  // Files modified more recently may belong to attachments not saved yet, as the ones of a note
+  // being edited, so they're never collected
+  static final long GC_GRACE_PERIOD = TimeUnit.DAYS.toMillis(1);
+  // Max number of attachments rows or files processed in a single step of garbage collection
+  static final int GC_BATCH_SIZE = 200;
+
   /**
    * Retrieves attachment file size
    *
@@ -52,4 +75,140 @@ public class AttachmentsHelper {
     return false;
   }
 
+  /**
+   * Moves into attachments store the files of attachments created before it was introduced, or
+   * restored from old backups, merging identical ones. Each file is copied and its attachments
+   * updated before it's released, so that an interruption never leaves them without file and the
+   * migration can just be run again. It's run only once after each restore, and never while a
+   * backup or restore is pending, since it may be writing the same files.
+   *
+   * @return Number of files moved into attachments store
+   */
+  public static int storeLegacyAttachments() {
+    DbHelper dbHelper = DbHelper.getInstance();
+    if (Prefs.getBoolean(PREF_LEGACY_ATTACHMENTS_STORED, false)
+        || dbHelper.getBackupJob() != null) {
+      return 0;
+    }
+    Set<Uri> uris = new LinkedHashSet<>();
+    for (Attachment attachment : dbHelper.getAllAttachments()) {
+      if (ContentResolver.SCHEME_FILE.equals(attachment.getUri().getScheme())) {
+        uris.add(attachment.getUri());
+      }
+    }
+    int stored = 0;
+    for (Uri uri : uris) {
+      File file = new File(uri.getPath());
+      File storedFile = StorageHelper.storeAttachmentFile(file, true);
+      if (!storedFile.equals(file)) {
+        dbHelper.replaceAttachmentUri(uri.toString(), Uri.fromFile(storedFile).toString());
+        StorageHelper.releaseAttachmentFile(OmniNotes.getAppContext(), uri);
+        stored++;
+      }
+    }
+    if (stored > 0) {
+      LogDelegate.i("Moved " + stored + " attachments files into store");
+    }
+    Prefs.edit().putBoolean(PREF_LEGACY_ATTACHMENTS_STORED, true).apply();
+    return stored;
+  }
+
+  /**
+   * Mark-and-sweep of attachments. Rows whose note doesn't exist anymore are swept first, marking
+   * files used by the remaining ones, then files not marked are swept. Both rows and files are
+   * processed a batch at a time, and files are released checking again their references, so that
+   * attachments saved meanwhile are preserved. Rows whose file is missing are only reported, since
+   * file may be still to be restored or on a storage not available.
+   */
+  public static AttachmentsGcReport collectGarbage() {
+    return collectGarbage(Calendar.getInstance().getTimeInMillis() - GC_GRACE_PERIOD);
+  }
+
+  /**
+   * @param maxLastModified Files modified after this time are not collected
+   */
+  static AttachmentsGcReport collectGarbage(long maxLastModified) {
+    AttachmentsGcReport report = new AttachmentsGcReport();
+    File attachmentsDir = StorageHelper.getAttachmentDir();
+    // With storage not mounted every file would look missing
+    if (!StorageHelper.checkStorage() || attachmentsDir == null || !attachmentsDir.isDirectory()) {
+      LogDelegate.w("Attachments garbage collection skipped, storage not available");
+      return report;
+    }
+    DbHelper dbHelper = DbHelper.getInstance();
+    // A pending restore may have not copied yet the files of restored attachments
+    if (dbHelper.getBackupJob() != null) {
+      LogDelegate.w("Attachments garbage collection skipped, backup job pending");
+      return report;
+    }
+    sweepOrphanAttachments(dbHelper, report);
+    Set<Long> usedIds = new HashSet<>();
+    Set<String> usedPaths = markAttachmentsFiles(dbHelper, usedIds, report);
+    sweepAttachmentsFiles(attachmentsDir, usedPaths, maxLastModified, report);
+    // Thumbnails of attachments saved meanwhile are eventually generated again
+    ThumbnailCache.retainAll(OmniNotes.getAppContext(), usedIds);
+    return report;
+  }
+
+  private static void sweepOrphanAttachments(DbHelper dbHelper, AttachmentsGcReport report) {
+    List<Attachment> attachments;
+    long lastAttachmentId = -1;
+    do {
+      attachments = dbHelper.getAttachments(lastAttachmentId, GC_BATCH_SIZE, true);
+      List<Long> ids = new ArrayList<>();
+      for (Attachment attachment : attachments) {
+        ids.add(attachment.getId());
+        lastAttachmentId = attachment.getId();
+      }
+      dbHelper.deleteAttachments(ids);
+      report.addOrphanRows(ids.size());
+    } while (attachments.size() == GC_BATCH_SIZE);
+  }
+
+  /**
+   * @param usedIds Filled with ids of the remaining attachments
+   * @return Paths of files used by the remaining attachments
+   */
+  private static Set<String> markAttachmentsFiles(DbHelper dbHelper, Set<Long> usedIds,
+      AttachmentsGcReport report) {
+    Set<String> usedPaths = new HashSet<>();
+    List<Attachment> attachments;
+    long lastAttachmentId = -1;
+    do {
+      attachments = dbHelper.getAttachments(lastAttachmentId, GC_BATCH_SIZE, false);
+      int missingFileRows = 0;
+      for (Attachment attachment : attachments) {
+        lastAttachmentId = attachment.getId();
+        usedIds.add(attachment.getId());
+        // Files not local, as the ones shared by other apps, can't be checked
+        if (ContentResolver.SCHEME_FILE.equals(attachment.getUri().getScheme())) {
+          usedPaths.add(attachment.getUri().getPath());
+          if (!new File(attachment.getUri().getPath()).exists()) {
+            missingFileRows++;
+          }
+        }
+      }
+      report.addMissingFileRows(missingFileRows);
+    } while (attachments.size() == GC_BATCH_SIZE);
+    return usedPaths;
+  }
+
+  private static void sweepAttachmentsFiles(File attachmentsDir, Set<String> usedPaths,
+      long maxLastModified, AttachmentsGcReport report) {
+    File[] files = attachmentsDir.listFiles(file -> file.isFile() && !file.isHidden()
+        && !usedPaths.contains(file.getPath()) && file.lastModified() < maxLastModified);
+    if (files == null) {
+      return;
+    }
+    for (int i = 0; i < files.length; i += GC_BATCH_SIZE) {
+      for (File file : Arrays.copyOfRange(files, i, Math.min(i + GC_BATCH_SIZE, files.length))) {
+        long size = file.length();
+        if (StorageHelper.releaseAttachmentFile(OmniNotes.getAppContext(), Uri.fromFile(file))) {
+          report.addDeletedFile(size);
+        }
+      }
+      LogDelegate.d("Attachments garbage collection: " + report);
+    }
+  }
+
 }
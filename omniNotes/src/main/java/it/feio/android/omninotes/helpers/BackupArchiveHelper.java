@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.helpers;
+
+import static it.feio.android.omninotes.utils.ConstantsBase.PREF_PASSWORD;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import androidx.annotation.Nullable;
+import com.pixplicity.easyprefs.library.Prefs;
+import it.feio.android.omninotes.OmniNotes;
+import it.feio.android.omninotes.R;
+import it.feio.android.omninotes.db.DbHelper;
+import it.feio.android.omninotes.exceptions.BackupException;
+import it.feio.android.omninotes.helpers.notifications.NotificationsHelper;
+import it.feio.android.omninotes.models.Attachment;
+import it.feio.android.omninotes.models.Note;
+import it.feio.android.omninotes.models.misc.BackupManifest;
+import it.feio.android.omninotes.models.misc.BackupVerificationReport;
+import it.feio.android.omninotes.utils.HashHelper;
+import it.feio.android.omninotes.utils.StorageHelper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import lombok.experimental.UtilityClass;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONException;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+
+/**
+ * Backups made of a single zip archive, written and read in one sequential pass: settings first,
+ * then notes as NDJSON (a JSON per line) in ids order, attachments in names order and finally a
+ * manifest with checksums of all of them.
+ */
+@UtilityClass
+public final class BackupArchiveHelper {
+
+  public static final String ARCHIVE_EXTENSION = ".zip";
+  public static final String ARCHIVE_MIME_TYPE = "application/zip";
+
+  static final String SETTINGS_ENTRY = "settings.xml";
+  static final String NOTES_ENTRY = "notes.ndjson";
+  static final String ATTACHMENTS_ENTRY_PREFIX = "attachments/";
+
+
+  public static boolean isArchive(String backupName) {
+    return backupName.endsWith(ARCHIVE_EXTENSION);
+  }
+
+
+  /**
+   * Writes the whole backup into an archive, the stream is closed at the end. A zip can't be
+   * appended to, so an interrupted export is written again from the beginning when resumed.
+   *
+   * @return False if some attachment couldn't be exported
+   */
+  public static boolean exportArchive(OutputStream outputStream,
+      NotificationsHelper notificationsHelper) throws IOException {
+    boolean result = true;
+    BackupManifest manifest = new BackupManifest();
+
+    try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(outputStream))) {
+      // Most of attachments are already compressed media, speed is preferred
+      zip.setLevel(Deflater.BEST_SPEED);
+      File preferences = StorageHelper.getSharedPreferencesFile(OmniNotes.getAppContext());
+      manifest.setSettings(writeFileEntry(zip, SETTINGS_ENTRY, preferences));
+
+      zip.putNextEntry(new ZipEntry(NOTES_ENTRY));
+      Writer writer = new OutputStreamWriter(zip, UTF_8);
+      List<Note> notes = DbHelper.getInstance(true).getAllNotes(false);
+      Collections.sort(notes, (n1, n2) -> Long.compare(n1.get_id(), n2.get_id()));
+      for (Note note : notes) {
+        String json = getNoteLine(note);
+        writer.write(json);
+        writer.write('\n');
+        manifest.putNote(note.get_id(), new BackupManifest.Entry(note.getLastModification(),
+            json.length(), HashHelper.sha256(json)));
+      }
+      writer.flush();
+      zip.closeEntry();
+
+      Map<String, Attachment> attachments = new TreeMap<>();
+      for (Attachment attachment : DbHelper.getInstance().getAllAttachments()) {
+        String name = attachment.getUri().getLastPathSegment();
+        if (!attachments.containsKey(name)) {
+          attachments.put(name, attachment);
+        }
+      }
+      int exported = 0;
+      for (Map.Entry<String, Attachment> attachment : attachments.entrySet()) {
+        String name = attachment.getKey();
+        try {
+          manifest.putAttachment(name, writeFileEntry(zip, ATTACHMENTS_ENTRY_PREFIX + name,
+              new File(attachment.getValue().getUri().getPath())));
+        } catch (IOException e) {
+          LogDelegate.e("Error during attachment backup: " + attachment.getValue().getUriPath(),
+              e);
+          DbHelper.getInstance().addBackupJobFailure(name);
+          result = false;
+        }
+        BackupHelper.notifyProgress(notificationsHelper, R.string.attachment,
+            ++exported + "/" + attachments.size());
+      }
+
+      zip.putNextEntry(new ZipEntry(BackupManifest.FILE_NAME));
+      zip.write(manifest.toJson().getBytes(UTF_8));
+      zip.closeEntry();
+    } catch (JSONException e) {
+      throw new BackupException("Error writing backup manifest", e);
+    }
+    return result;
+  }
+
+
+  /**
+   * Restores a backup archive reading it sequentially, the stream is closed at the end. Content is
+   * verified against manifest checksums once it's reached.
+   *
+   * @return Items whose content doesn't match manifest checksums
+   */
+  public static List<String> importArchive(InputStream inputStream,
+      NotificationsHelper notificationsHelper) throws IOException {
+    return importArchive(inputStream, notificationsHelper, 0, null);
+  }
+
+
+  /**
+   * Same as {@link #importArchive(InputStream, NotificationsHelper)}, but notes up to lastNoteId
+   * and attachments up to lastAttachment, already restored by the job, are only hashed to be
+   * verified. Being written in ids and names order they're found at the beginning of their
+   * sections, so skipping stops at the first item out of order, as in archives written before
+   * that. The last note id of each transaction and each restored attachment are stored into the
+   * job as pending restore checkpoint.
+   */
+  public static List<String> importArchive(InputStream inputStream,
+      NotificationsHelper notificationsHelper, long lastNoteId, @Nullable String lastAttachment)
+      throws IOException {
+    String settingsHash = null;
+    Map<Long, String> notesHashes = new HashMap<>();
+    Map<String, String> attachmentsHashes = new HashMap<>();
+    BackupManifest manifest = null;
+    String previousAttachment = null;
+    boolean attachmentsSorted = true;
+
+    try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(inputStream))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        String name = entry.getName();
+        if (SETTINGS_ENTRY.equals(name)) {
+          settingsHash = readFileEntry(zip,
+              StorageHelper.getSharedPreferencesFile(OmniNotes.getAppContext()));
+        } else if (NOTES_ENTRY.equals(name)) {
+          importNotes(zip, notesHashes, lastNoteId);
+        } else if (name.startsWith(ATTACHMENTS_ENTRY_PREFIX)) {
+          // Only file name is used, so that entries can't be written outside attachments folder
+          String fileName = FilenameUtils.getName(name);
+          attachmentsSorted = attachmentsSorted
+              && (previousAttachment == null || fileName.compareTo(previousAttachment) > 0);
+          previousAttachment = fileName;
+          if (attachmentsSorted && lastAttachment != null
+              && fileName.compareTo(lastAttachment) <= 0) {
+            attachmentsHashes.put(fileName, HashHelper.sha256(zip));
+          } else {
+            attachmentsHashes.put(fileName,
+                readFileEntry(zip, new File(StorageHelper.getAttachmentDir(), fileName)));
+            if (attachmentsSorted) {
+              DbHelper.getInstance().setBackupJobLastAttachment(fileName);
+            }
+          }
+          BackupHelper.notifyProgress(notificationsHelper, R.string.attachment,
+              attachmentsHashes.size());
+        } else if (BackupManifest.FILE_NAME.equals(name)) {
+          manifest = BackupManifest.fromJson(IOUtils.toString(zip, UTF_8));
+        }
+        zip.closeEntry();
+      }
+    } catch (JSONException e) {
+      throw new BackupException("Error reading backup manifest", e);
+    }
+
+    return getCorruptedItems(manifest, settingsHash, notesHashes, attachmentsHashes);
+  }
+
+
+  /**
+   * Verifies a backup archive against the live database without restoring anything. Archive is
+   * read sequentially keeping in memory only hashes of its entries, then live notes and attachments
+   * are hashed concurrently and compared with them.
+   */
+  public static BackupVerificationReport verifyArchive(InputStream inputStream)
+      throws IOException {
+    Map<Long, String> notesHashes = new HashMap<>();
+    Map<String, String> attachmentsHashes = new HashMap<>();
+    BackupManifest manifest = null;
+
+    try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(inputStream))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        String name = entry.getName();
+        if (NOTES_ENTRY.equals(name)) {
+          readNotesHashes(zip, notesHashes);
+        } else if (name.startsWith(ATTACHMENTS_ENTRY_PREFIX)) {
+          attachmentsHashes.put(FilenameUtils.getName(name), HashHelper.sha256(zip));
+        } else if (BackupManifest.FILE_NAME.equals(name)) {
+          manifest = BackupManifest.fromJson(IOUtils.toString(zip, UTF_8));
+        }
+        zip.closeEntry();
+      }
+    } catch (JSONException e) {
+      throw new BackupException("Error reading backup manifest", e);
+    }
+
+    BackupVerificationReport report = new BackupVerificationReport();
+    if (manifest == null) {
+      report.addCorrupt(BackupManifest.FILE_NAME);
+      manifest = new BackupManifest();
+    }
+    BackupManifest backupManifest = manifest;
+
+    Set<Long> notesIds = new HashSet<>();
+    Observable.from(DbHelper.getInstance(true).getAllNotes(false))
+        .doOnNext(note -> notesIds.add(note.get_id()))
+        .flatMap(note -> Observable.fromCallable(() -> {
+          var entry = backupManifest.getNote(note.get_id());
+          report.check(NOTES_ENTRY + ":" + note.get_id(), HashHelper.sha256(getNoteLine(note)),
+              notesHashes.get(note.get_id()), entry != null ? entry.getHash() : null);
+          return note;
+        }).subscribeOn(Schedulers.computation()), BackupHelper.VERIFY_PARALLELISM)
+        .toCompletable().await();
+    for (Long noteId : notesHashes.keySet()) {
+      if (!notesIds.contains(noteId)) {
+        report.addStale(NOTES_ENTRY + ":" + noteId);
+      }
+    }
+
+    Set<String> attachmentsNames = new HashSet<>();
+    Observable.from(DbHelper.getInstance().getAllAttachments())
+        .filter(attachment -> attachmentsNames.add(attachment.getUri().getLastPathSegment()))
+        .flatMap(attachment -> Observable.fromCallable(() -> {
+          String name = attachment.getUri().getLastPathSegment();
+          var entry = backupManifest.getAttachment(name);
+          report.check(ATTACHMENTS_ENTRY_PREFIX + name,
+              BackupHelper.sha256(new File(attachment.getUri().getPath())),
+              attachmentsHashes.get(name), entry != null ? entry.getHash() : null);
+          return attachment;
+        }).subscribeOn(Schedulers.io()), BackupHelper.VERIFY_PARALLELISM)
+        .toCompletable().await();
+    for (String name : attachmentsHashes.keySet()) {
+      if (!attachmentsNames.contains(name)) {
+        report.addStale(ATTACHMENTS_ENTRY_PREFIX + name);
+      }
+    }
+
+    return report;
+  }
+
+
+  /**
+   * Line breaks can only be JSON whitespace, the ones inside strings are escaped
+   */
+  private static String getNoteLine(Note note) {
+    return BackupHelper.getExportNoteJson(note).replace("\n", "");
+  }
+
+
+  private static void readNotesHashes(InputStream inputStream, Map<Long, String> notesHashes)
+      throws IOException {
+    // Reader is not closed to keep archive stream open
+    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (!line.isEmpty()) {
+        notesHashes.put(BackupHelper.getImportNote(line).get_id(), HashHelper.sha256(line));
+      }
+    }
+  }
+
+
+  private static void importNotes(InputStream inputStream, Map<Long, String> notesHashes,
+      long lastNoteId) throws IOException {
+    // Reader is not closed to keep archive stream open
+    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
+    String password = Prefs.getString(PREF_PASSWORD, "");
+    List<Note> chunk = new ArrayList<>();
+    long previousNoteId = Long.MIN_VALUE;
+    boolean sorted = true;
+    Long checkpoint = null;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (!line.isEmpty()) {
+        Note note = BackupHelper.getImportNote(line);
+        long noteId = note.get_id();
+        notesHashes.put(noteId, HashHelper.sha256(line));
+        sorted = sorted && noteId > previousNoteId;
+        previousNoteId = noteId;
+        if (sorted && noteId <= lastNoteId) {
+          continue;
+        }
+        // Once notes are out of order the ones restored can't be told by id anymore
+        checkpoint = sorted ? noteId : null;
+        note = BackupHelper.prepareImportNote(note, password);
+        if (note != null) {
+          chunk.add(note);
+        }
+        if (chunk.size() == BackupHelper.IMPORT_NOTES_CHUNK_SIZE) {
+          BackupHelper.storeImportNotes(chunk, checkpoint);
+          chunk = new ArrayList<>();
+        }
+      }
+    }
+    BackupHelper.storeImportNotes(chunk, checkpoint);
+  }
+
+
+  private static List<String> getCorruptedItems(BackupManifest manifest, String settingsHash,
+      Map<Long, String> notesHashes, Map<String, String> attachmentsHashes) {
+    List<String> corruptedItems = new ArrayList<>();
+    if (manifest == null) {
+      corruptedItems.add(BackupManifest.FILE_NAME);
+      return corruptedItems;
+    }
+    if (manifest.getSettings() != null
+        && !Objects.equals(manifest.getSettings().getHash(), settingsHash)) {
+      corruptedItems.add(SETTINGS_ENTRY);
+    }
+    for (Map.Entry<String, BackupManifest.Entry> note : manifest.getNotes().entrySet()) {
+      if (!Objects.equals(note.getValue().getHash(),
+          notesHashes.get(Long.valueOf(note.getKey())))) {
+        corruptedItems.add(NOTES_ENTRY + ":" + note.getKey());
+      }
+    }
+    for (Map.Entry<String, BackupManifest.Entry> attachment : manifest.getAttachments()
+        .entrySet()) {
+      if (!Objects.equals(attachment.getValue().getHash(),
+          attachmentsHashes.get(attachment.getKey()))) {
+        corruptedItems.add(ATTACHMENTS_ENTRY_PREFIX + attachment.getKey());
+      }
+    }
+    return corruptedItems;
+  }
+
+
+  /**
+   * File is opened before adding the entry, so that a missing one doesn't leave it empty
+   */
+  private static BackupManifest.Entry writeFileEntry(ZipOutputStream zip, String name, File file)
+      throws IOException {
+    try (InputStream fileInputStream = new FileInputStream(file)) {
+      zip.putNextEntry(new ZipEntry(name));
+      String hash = HashHelper.copy(fileInputStream, zip);
+      zip.closeEntry();
+      return new BackupManifest.Entry(file.lastModified(), file.length(), hash);
+    }
+  }
+
+
+  private static String readFileEntry(ZipInputStream zip, File destination) throws IOException {
+    try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(destination))) {
+      return HashHelper.copy(zip, outputStream);
+    }
+  }
+
+}
@@ -23,8 +23,11 @@ import static it.feio.android.omninotes.utils.ConstantsBase.PREF_PASSWORD;
 
 import android.content.Context;
 import android.content.Intent;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.text.TextUtils;
+import android.util.Pair;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.lazygeniouz.dfc.file.DocumentFileCompat;
@@ -38,46 +41,113 @@ import it.feio.android.omninotes.exceptions.checked.BackupAttachmentException;
 import it.feio.android.omninotes.helpers.notifications.NotificationsHelper;
 import it.feio.android.omninotes.models.Attachment;
 import it.feio.android.omninotes.models.Note;
+import it.feio.android.omninotes.models.misc.BackupManifest;
+import it.feio.android.omninotes.models.misc.BackupVerificationReport;
+import it.feio.android.omninotes.utils.HashHelper;
 import it.feio.android.omninotes.utils.Security;
 import it.feio.android.omninotes.utils.StorageHelper;
 import it.feio.android.omninotes.utils.TextHelper;
+import it.feio.android.omninotes.utils.ThumbnailCache;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import lombok.experimental.UtilityClass;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch;
+import org.json.JSONException;
 import rx.Observable;
 import rx.functions.Action1;
 import rx.functions.Func1;
+import rx.schedulers.Schedulers;
 
 @UtilityClass
 public final class BackupHelper {
 
+  private static final Pattern NOTE_FILE_PATTERN = Pattern.compile("\\d{13}.json");
+  static final int IMPORT_NOTES_CHUNK_SIZE = 200;
+  // Restore is mostly bound to storage and documents provider latency
+  private static final int IMPORT_PARALLELISM = 4;
+  private static final int EXPORT_CHECKPOINT_INTERVAL = 100;
+  // Verification is bound both to hashing and storage reads
+  static final int VERIFY_PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors());
+
   public static void exportNotes(DocumentFileCompat backupDir) {
+    exportNotes(backupDir, new BackupManifest());
+  }
+
+  /**
+   * Exports notes to backup folder writing only the ones changed since the export described by
+   * manifest, that is updated. Files of notes no longer existing are deleted.
+   */
+  public static void exportNotes(DocumentFileCompat backupDir, BackupManifest manifest) {
+    Map<String, DocumentFileCompat> backupFiles = getFilesByName(backupDir);
+    Set<String> notesIds = new HashSet<>();
     for (Note note : DbHelper.getInstance(true).getAllNotes(false)) {
-      exportNote(backupDir, note);
+      notesIds.add(String.valueOf(note.get_id()));
+      String json = getExportNoteJson(note);
+      var entry = new BackupManifest.Entry(note.getLastModification(), json.length(),
+          HashHelper.sha256(json));
+      var noteFile = backupFiles.get(getBackupNoteFileName(note));
+      if (noteFile == null || !entry.equals(manifest.getNote(note.get_id()))) {
+        if (writeNote(noteFile != null ? noteFile : getBackupNoteFile(backupDir, note), note,
+            json)) {
+          manifest.putNote(note.get_id(), entry);
+        } else {
+          DbHelper.getInstance().addBackupJobFailure(getBackupNoteFileName(note));
+        }
+      }
+    }
+
+    for (Map.Entry<String, DocumentFileCompat> backupFile : backupFiles.entrySet()) {
+      String name = backupFile.getKey();
+      if (NOTE_FILE_PATTERN.matcher(name).matches()
+          && !notesIds.contains(FilenameUtils.getBaseName(name))) {
+        backupFile.getValue().delete();
+      }
+    }
+    for (String noteId : new ArrayList<>(manifest.getNotes().keySet())) {
+      if (!notesIds.contains(noteId)) {
+        manifest.removeNote(noteId);
+      }
     }
   }
 
   public static void exportNote(DocumentFileCompat backupDir, Note note) {
+    writeNote(getBackupNoteFile(backupDir, note), note, getExportNoteJson(note));
+  }
+
+  static String getExportNoteJson(Note note) {
     if (Boolean.TRUE.equals(note.isLocked())) {
       note.setContent(Security.encrypt(note.getContent(), Prefs.getString(PREF_PASSWORD, "")));
     }
-    var noteFile = getBackupNoteFile(backupDir, note);
+    return note.toJSON();
+  }
+
+  private static boolean writeNote(DocumentFileCompat noteFile, Note note, String json) {
     try {
-      DocumentFileHelper.write(OmniNotes.getAppContext(), noteFile, note.toJSON());
+      DocumentFileHelper.write(OmniNotes.getAppContext(), noteFile, json);
+      return true;
     } catch (IOException e) {
       LogDelegate.e(String.format("Error on note %s backup: %s",  note.get_id(), e.getMessage()));
+      return false;
     }
   }
 
+  private static String getBackupNoteFileName(Note note) {
+    return note.get_id() + ".json";
+  }
+
   @NonNull
   public static DocumentFileCompat getBackupNoteFile(DocumentFileCompat backupDir, Note note) {
     return backupDir.createFile("application/json", String.valueOf(note.get_id()));
@@ -87,9 +157,74 @@ public final class BackupHelper {
    * Export attachments to backup folder notifying for each attachment copied
    */
   public static void exportAttachments(DocumentFileCompat backupDir, NotificationsHelper notificationsHelper) {
-    DocumentFileCompat attachmentsDestinationDir = backupDir.createDirectory(StorageHelper.getAttachmentDir().getName());
+    exportAttachments(backupDir, notificationsHelper, new BackupManifest());
+  }
+
+  /**
+   * Export attachments to backup folder copying only the ones new or changed since the export
+   * described by manifest, that is updated. Files of attachments no longer existing are deleted.
+   * Manifest is also written every {@link #EXPORT_CHECKPOINT_INTERVAL} copied attachments, so an
+   * interrupted export won't copy them again.
+   */
+  public static boolean exportAttachments(DocumentFileCompat backupDir,
+      NotificationsHelper notificationsHelper, BackupManifest manifest) {
+    String attachmentsDirName = StorageHelper.getAttachmentDir().getName();
+    var attachmentsDestinationDir = backupDir.findFile(attachmentsDirName);
+    if (attachmentsDestinationDir == null) {
+      attachmentsDestinationDir = backupDir.createDirectory(attachmentsDirName);
+    }
+    Map<String, DocumentFileCompat> backupFiles = getFilesByName(attachmentsDestinationDir);
     List<Attachment> list = DbHelper.getInstance().getAllAttachments();
-    exportAttachments(notificationsHelper, attachmentsDestinationDir, list, null);
+    Set<String> names = new HashSet<>();
+    boolean result = true;
+    int exported = 0;
+    int copied = 0;
+    int failed = 0;
+    String failedString = "";
+
+    for (Attachment attachment : list) {
+      String name = attachment.getUri().getLastPathSegment();
+      // Files shared by many attachments are copied once
+      if (!names.add(name)) {
+        ++exported;
+        continue;
+      }
+      File file = new File(attachment.getUri().getPath());
+      var previousEntry = manifest.getAttachment(name);
+      var attachmentFile = backupFiles.get(name);
+      if (attachmentFile == null || previousEntry == null
+          || previousEntry.getLastModification() != file.lastModified()
+          || previousEntry.getSize() != file.length()) {
+        try {
+          exportAttachment(attachmentsDestinationDir, attachmentFile, attachment);
+          manifest.putAttachment(name, new BackupManifest.Entry(file.lastModified(),
+              file.length(), HashHelper.sha256(file)));
+          if (++copied % EXPORT_CHECKPOINT_INTERVAL == 0) {
+            checkpointManifest(backupDir, manifest);
+          }
+        } catch (BackupAttachmentException | IOException e) {
+          DbHelper.getInstance().addBackupJobFailure(name);
+          ++failed;
+          result = false;
+          failedString = " (" + failed + " " + OmniNotes.getAppContext().getString(R.string.failed) + ")";
+        }
+        notifyAttachmentBackup(notificationsHelper, list, exported + 1, failedString);
+      }
+      ++exported;
+    }
+
+    for (Map.Entry<String, DocumentFileCompat> backupFile : backupFiles.entrySet()) {
+      if (!names.contains(backupFile.getKey())) {
+        backupFile.getValue().delete();
+      }
+    }
+    for (String name : new ArrayList<>(manifest.getAttachments().keySet())) {
+      if (!names.contains(name)) {
+        manifest.removeAttachment(name);
+      }
+    }
+
+    return result;
   }
 
   public static boolean exportAttachments(NotificationsHelper notificationsHelper,
@@ -133,11 +268,21 @@ public final class BackupHelper {
 
   private static void exportAttachment(DocumentFileCompat attachmentsDestination, Attachment attachment)
       throws BackupAttachmentException {
+    exportAttachment(attachmentsDestination, null, attachment);
+  }
+
+  private static void exportAttachment(DocumentFileCompat attachmentsDestination,
+      DocumentFileCompat destinationAttachment, Attachment attachment)
+      throws BackupAttachmentException {
     try {
-      var destinationAttachment = attachmentsDestination.createFile("",
-          attachment.getUri().getLastPathSegment());
-      DocumentFileHelper.copyFileTo(OmniNotes.getAppContext(), new File(attachment.getUri().getPath()),
-          destinationAttachment);
+      if (destinationAttachment == null) {
+        destinationAttachment = attachmentsDestination.createFile("",
+            attachment.getUri().getLastPathSegment());
+      }
+      if (!DocumentFileHelper.copyFileTo(OmniNotes.getAppContext(),
+          new File(attachment.getUri().getPath()), destinationAttachment)) {
+        throw new IOException("Attachment not copied");
+      }
     } catch (Exception e) {
       LogDelegate.e("Error during attachment backup: " + attachment.getUriPath(), e);
       throw new BackupAttachmentException(e);
@@ -145,81 +290,220 @@ public final class BackupHelper {
   }
 
   public static List<Note> importNotes(DocumentFileCompat backupDir) {
+    return importNotes(backupDir, null);
+  }
+
+  /**
+   * Notes files are read and parsed concurrently, while database writes are serialized and grouped
+   * into transactions of {@link #IMPORT_NOTES_CHUNK_SIZE} notes
+   */
+  public static List<Note> importNotes(DocumentFileCompat backupDir,
+      NotificationsHelper notificationsHelper) {
+    return importNotes(backupDir, notificationsHelper, 0);
+  }
+
+  /**
+   * Same as {@link #importNotes(DocumentFileCompat, NotificationsHelper)}, but notes files are
+   * processed in ids order skipping the ones up to lastNoteId. The last note id of each transaction
+   * is stored into it as pending restore checkpoint, while notes that can't be restored are
+   * recorded as its failures.
+   */
+  public static List<Note> importNotes(DocumentFileCompat backupDir,
+      NotificationsHelper notificationsHelper, long lastNoteId) {
+    String password = Prefs.getString(PREF_PASSWORD, "");
+    AtomicInteger imported = new AtomicInteger();
     return Observable.from(backupDir.listFiles())
-        .filter(f -> f.getName().matches("\\d{13}.json"))
-        .map(BackupHelper::importNote)
-        .filter(n -> n != null)
+        .filter(f -> NOTE_FILE_PATTERN.matcher(f.getName()).matches()
+            && getBackupNoteId(f) > lastNoteId)
+        .toSortedList((f1, f2) -> Long.compare(getBackupNoteId(f1), getBackupNoteId(f2)))
+        .flatMapIterable(files -> files)
+        .concatMapEager(f -> Observable.fromCallable(() -> readImportNote(f, password))
+            .subscribeOn(Schedulers.io()), IMPORT_PARALLELISM, IMPORT_PARALLELISM)
+        .buffer(IMPORT_NOTES_CHUNK_SIZE)
+        .concatMapIterable(BackupHelper::storeImportNotesChunk)
+        .doOnNext(n -> notifyProgress(notificationsHelper, R.string.notes,
+            imported.incrementAndGet()))
         .toList().toBlocking().single();
   }
 
   @Nullable
   public static Note importNote(DocumentFileCompat file) {
-    Note note = getImportNote(file);
+    return importNote(getImportNote(file));
+  }
 
+  /**
+   * Stores a note read from backup, locked ones are skipped if no password is set
+   */
+  @Nullable
+  public static Note importNote(Note note) {
+    note = prepareImportNote(note, Prefs.getString(PREF_PASSWORD, ""));
+    if (note != null) {
+      storeImportNote(note);
+    }
+    return note;
+  }
+
+  /**
+   * Decrypts a locked note read from backup, without touching database
+   *
+   * @return Null if note is locked but no password is set
+   */
+  @Nullable
+  static Note prepareImportNote(Note note, String password) {
     if (Boolean.TRUE.equals(note.isLocked())) {
-      if (StringUtils.isEmpty(Prefs.getString(PREF_PASSWORD, ""))) {
+      if (StringUtils.isEmpty(password)) {
         return null;
       }
-      note.setContent(Security.decrypt(note.getContent(), Prefs.getString(PREF_PASSWORD, "")));
+      note.setContent(Security.decrypt(note.getContent(), password));
+    }
+    return note;
+  }
+
+  /**
+   * Reads and decrypts a note file, recording it as failed if that's not possible
+   *
+   * @return Note id paired with the note, that's null on failure
+   */
+  private static Pair<Long, Note> readImportNote(DocumentFileCompat file, String password) {
+    Note note = null;
+    try {
+      note = prepareImportNote(
+          getImportNote(DocumentFileHelper.readContent(OmniNotes.getAppContext(), file)),
+          password);
+    } catch (IOException e) {
+      LogDelegate.e("Error reading note " + file.getName(), e);
+    }
+    if (note == null) {
+      DbHelper.getInstance().addBackupJobFailure(file.getName());
+    }
+    return Pair.create(getBackupNoteId(file), note);
+  }
+
+  private static long getBackupNoteId(DocumentFileCompat file) {
+    return Long.parseLong(FilenameUtils.getBaseName(file.getName()));
+  }
+
+  /**
+   * Stores notes read from backup all together into a single transaction
+   */
+  static List<Note> storeImportNotes(List<Note> notes) {
+    return storeImportNotes(notes, null);
+  }
+
+  private static List<Note> storeImportNotesChunk(List<Pair<Long, Note>> chunk) {
+    List<Note> notes = new ArrayList<>();
+    for (Pair<Long, Note> item : chunk) {
+      if (item.second != null) {
+        notes.add(item.second);
+      }
     }
+    return storeImportNotes(notes, chunk.get(chunk.size() - 1).first);
+  }
 
+  /**
+   * Same as {@link #storeImportNotes(List)}, storing also the given note id as pending restore
+   * checkpoint within the same transaction
+   */
+  static List<Note> storeImportNotes(List<Note> notes, @Nullable Long checkpoint) {
+    SQLiteDatabase db = DbHelper.getInstance().getDatabase(true);
+    db.beginTransactionNonExclusive();
+    try {
+      for (Note note : notes) {
+        storeImportNote(note);
+      }
+      if (checkpoint != null) {
+        DbHelper.getInstance().setBackupJobLastNoteId(checkpoint);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    return notes;
+  }
+
+  private static void storeImportNote(Note note) {
     if (note.getCategory() != null) {
       DbHelper.getInstance().updateCategory(note.getCategory());
     }
     DbHelper.getInstance().updateNote(note, false);
-    return note;
   }
 
   public static Note getImportNote(DocumentFileCompat file) {
     try {
-      Note note = new Note();
-      String jsonString = DocumentFileHelper.readContent(OmniNotes.getAppContext(), file);
-      if (!TextUtils.isEmpty(jsonString)) {
-        note.buildFromJson(jsonString);
-      }
-      return note;
+      return getImportNote(DocumentFileHelper.readContent(OmniNotes.getAppContext(), file));
     } catch (IOException e) {
       LogDelegate.e("Error parsing note json");
       return new Note();
     }
   }
 
+  public static Note getImportNote(String jsonString) {
+    Note note = new Note();
+    if (!TextUtils.isEmpty(jsonString)) {
+      note.buildFromJson(jsonString);
+    }
+    return note;
+  }
+
   /**
    * Import attachments from backup folder notifying for each imported item
    */
   public static boolean importAttachments(DocumentFileCompat backupDir, NotificationsHelper notificationsHelper) {
+    return importAttachments(backupDir, notificationsHelper, null);
+  }
+
+  /**
+   * Same as {@link #importAttachments(DocumentFileCompat, NotificationsHelper)}, but attachments
+   * are processed in names order skipping the ones up to lastAttachment. Each one processed is
+   * stored as pending restore checkpoint, failed ones are recorded as its failures.
+   */
+  public static boolean importAttachments(DocumentFileCompat backupDir,
+      NotificationsHelper notificationsHelper, @Nullable String lastAttachment) {
     AtomicBoolean result = new AtomicBoolean(true);
     File attachmentsDir = StorageHelper.getAttachmentDir();
     var backupAttachmentsDir = backupDir.findFile(attachmentsDir.getName());
-    if (!backupAttachmentsDir.exists()) {
+    if (backupAttachmentsDir == null || !backupAttachmentsDir.exists()) {
       return false;
     }
 
     AtomicInteger imported = new AtomicInteger();
     ArrayList<Attachment> attachments = DbHelper.getInstance().getAllAttachments();
-    var BackupedAttachments = backupAttachmentsDir.listFiles();
-    rx.Observable.from(attachments)
-        .forEach(attachment -> {
+    Map<String, DocumentFileCompat> backupedAttachments = getFilesByName(backupAttachmentsDir);
+    Observable.from(attachments)
+        .distinct(attachment -> attachment.getUri().getLastPathSegment())
+        .filter(attachment -> lastAttachment == null
+            || attachment.getUri().getLastPathSegment().compareTo(lastAttachment) > 0)
+        .toSortedList((a1, a2) -> a1.getUri().getLastPathSegment()
+            .compareTo(a2.getUri().getLastPathSegment()))
+        .flatMapIterable(sortedAttachments -> sortedAttachments)
+        .concatMapEager(attachment -> Observable.fromCallable(() -> {
           try {
-            importAttachment(BackupedAttachments, attachmentsDir, attachment);
-            if (notificationsHelper != null) {
-              notificationsHelper.updateMessage(TextHelper.capitalize(OmniNotes.getAppContext().getString(R.string.attachment)) + " "
-                      + imported.incrementAndGet() + "/" + attachments.size());
-            }
+            importAttachment(backupedAttachments, attachmentsDir, attachment);
           } catch (BackupAttachmentException e) {
             result.set(false);
+            DbHelper.getInstance().addBackupJobFailure(attachment.getUri().getLastPathSegment());
           }
+          return attachment;
+        }).subscribeOn(Schedulers.io()), IMPORT_PARALLELISM, IMPORT_PARALLELISM)
+        .toBlocking()
+        .forEach(attachment -> {
+          DbHelper.getInstance().setBackupJobLastAttachment(
+              attachment.getUri().getLastPathSegment());
+          notifyProgress(notificationsHelper, R.string.attachment,
+              imported.incrementAndGet() + "/" + attachments.size());
         });
     return result.get();
   }
 
-  static void importAttachment(List<DocumentFileCompat> backupedAttachments, File attachmentsDir,
-      Attachment attachment) throws BackupAttachmentException {
+  static void importAttachment(Map<String, DocumentFileCompat> backupedAttachments,
+      File attachmentsDir, Attachment attachment) throws BackupAttachmentException {
     String attachmentName = attachment.getUri().getLastPathSegment();
     try {
       File destinationAttachment = new File(attachmentsDir, attachmentName);
-      var backupedAttachment = Observable.from(backupedAttachments)
-          .filter(ba -> attachmentName.equals(ba.getName())).toBlocking().single();
+      var backupedAttachment = backupedAttachments.get(attachmentName);
+      if (backupedAttachment == null) {
+        throw new IOException("Attachment not found into backup");
+      }
       DocumentFileHelper.copyFileTo(OmniNotes.getAppContext(), backupedAttachment, destinationAttachment);
     } catch (Exception e) {
       LogDelegate.e("Error importing the attachment " + attachment.getUri().getPath(), e);
@@ -227,6 +511,14 @@ public final class BackupHelper {
     }
   }
 
+  static void notifyProgress(NotificationsHelper notificationsHelper, int label,
+      Object progress) {
+    if (notificationsHelper != null) {
+      notificationsHelper.updateMessage(TextHelper.capitalize(
+          OmniNotes.getAppContext().getString(label)) + " " + progress);
+    }
+  }
+
   /**
    * Starts backup service
    *
@@ -241,7 +533,10 @@ public final class BackupHelper {
 
   public static void exportSettings(DocumentFileCompat backupDir) throws IOException {
     File preferences = StorageHelper.getSharedPreferencesFile(OmniNotes.getAppContext());
-    var destinationSetting = backupDir.createFile("", preferences.getName());
+    var destinationSetting = backupDir.findFile(preferences.getName());
+    if (destinationSetting == null) {
+      destinationSetting = backupDir.createFile("", preferences.getName());
+    }
     DocumentFileHelper.copyFileTo(OmniNotes.getAppContext(), preferences, destinationSetting);
   }
 
@@ -256,6 +551,55 @@ public final class BackupHelper {
     }
   }
 
+  /**
+   * Reads manifest of a previous export into backup folder, an empty one is returned if missing
+   */
+  public static BackupManifest readManifest(DocumentFileCompat backupDir) {
+    var manifestFile = backupDir.findFile(BackupManifest.FILE_NAME);
+    if (manifestFile == null) {
+      return new BackupManifest();
+    }
+    try {
+      return BackupManifest.fromJson(
+          DocumentFileHelper.readContent(OmniNotes.getAppContext(), manifestFile));
+    } catch (IOException | JSONException e) {
+      LogDelegate.w("Backup manifest not readable, everything will be exported again", e);
+      return new BackupManifest();
+    }
+  }
+
+  public static void writeManifest(DocumentFileCompat backupDir, BackupManifest manifest)
+      throws IOException {
+    var manifestFile = backupDir.findFile(BackupManifest.FILE_NAME);
+    if (manifestFile == null) {
+      manifestFile = backupDir.createFile("", BackupManifest.FILE_NAME);
+    }
+    try {
+      DocumentFileHelper.write(OmniNotes.getAppContext(), manifestFile, manifest.toJson());
+    } catch (JSONException e) {
+      throw new BackupException("Error writing backup manifest", e);
+    }
+  }
+
+  private static void checkpointManifest(DocumentFileCompat backupDir, BackupManifest manifest) {
+    try {
+      writeManifest(backupDir, manifest);
+    } catch (IOException e) {
+      LogDelegate.w("Backup manifest checkpoint not written: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Lists folder once, instead of looking up each file with a query to documents provider
+   */
+  static Map<String, DocumentFileCompat> getFilesByName(DocumentFileCompat dir) {
+    Map<String, DocumentFileCompat> files = new HashMap<>();
+    for (DocumentFileCompat file : dir.listFiles()) {
+      files.put(file.getName(), file);
+    }
+    return files;
+  }
+
   public static void deleteNote(File file) {
     try {
       Note note = new Note();
@@ -274,44 +618,97 @@ public final class BackupHelper {
   @Deprecated
   public static void importDB(Context context, File backupDir) throws IOException {
     File database = context.getDatabasePath(DATABASE_NAME);
-    if (database.exists() && database.delete()) {
+    // Write-ahead log and shared memory files must be deleted too
+    if (database.exists() && SQLiteDatabase.deleteDatabase(database)) {
       StorageHelper.copyFile(new File(backupDir, DATABASE_NAME), database, true);
+      ThumbnailCache.clear(context);
     }
   }
 
-//  public static List<LinkedList<DiffMatchPatch.Diff>> integrityCheck(File backupDir) {
-//    List<LinkedList<DiffMatchPatch.Diff>> errors = new ArrayList<>();
-//    for (Note note : DbHelper.getInstance(true).getAllNotes(false)) {
-//      File noteFile = getBackupNoteFile(backupDir, note);
-//      try {
-//        String noteString = note.toJSON();
-//        String noteFileString = FileUtils.readFileToString(noteFile);
-//        if (noteString.equals(noteFileString)) {
-//          File backupAttachmentsDir = new File(backupDir,
-//              StorageHelper.getAttachmentDir().getName());
-//          for (Attachment attachment : note.getAttachmentsList()) {
-//            if (!new File(backupAttachmentsDir, FilenameUtils.getName(attachment.getUriPath()))
-//                .exists()) {
-//              addIntegrityCheckError(errors, new FileNotFoundException("Attachment " + attachment
-//                  .getUriPath() + " missing"));
-//            }
-//          }
-//        } else {
-//          errors.add(new DiffMatchPatch().diffMain(noteString, noteFileString));
-//        }
-//      } catch (IOException e) {
-//        LogDelegate.e(e.getMessage(), e);
-//        addIntegrityCheckError(errors, e);
-//      }
-//    }
-//    return errors;
-//  }
-
-  private static void addIntegrityCheckError(List<LinkedList<DiffMatchPatch.Diff>> errors,
-      IOException e) {
-    LinkedList<DiffMatchPatch.Diff> l = new LinkedList<>();
-    l.add(new DiffMatchPatch.Diff(DiffMatchPatch.Operation.DELETE, e.getMessage()));
-    errors.add(l);
+  /**
+   * Verifies a folder backup against the live database, hashing backup and live copies of notes
+   * and attachments concurrently. Extra backup files, of notes or attachments deleted after
+   * backup, are reported as stale.
+   */
+  public static BackupVerificationReport verifyBackup(DocumentFileCompat backupDir) {
+    BackupVerificationReport report = new BackupVerificationReport();
+    BackupManifest manifest = readManifest(backupDir);
+
+    Map<String, DocumentFileCompat> backupFiles = getFilesByName(backupDir);
+    Set<String> notesFiles = new HashSet<>();
+    Observable.from(DbHelper.getInstance(true).getAllNotes(false))
+        .doOnNext(note -> notesFiles.add(getBackupNoteFileName(note)))
+        .flatMap(note -> Observable.fromCallable(() -> {
+          var entry = manifest.getNote(note.get_id());
+          report.check(getBackupNoteFileName(note), HashHelper.sha256(getExportNoteJson(note)),
+              sha256(backupFiles.get(getBackupNoteFileName(note))),
+              entry != null ? entry.getHash() : null);
+          return note;
+        }).subscribeOn(Schedulers.io()), VERIFY_PARALLELISM)
+        .toCompletable().await();
+    for (String name : backupFiles.keySet()) {
+      if (NOTE_FILE_PATTERN.matcher(name).matches() && !notesFiles.contains(name)) {
+        report.addStale(name);
+      }
+    }
+
+    var backupAttachmentsDir = backupDir.findFile(StorageHelper.getAttachmentDir().getName());
+    Map<String, DocumentFileCompat> backupAttachments = backupAttachmentsDir != null
+        ? getFilesByName(backupAttachmentsDir) : new HashMap<>();
+    Set<String> attachmentsNames = new HashSet<>();
+    Observable.from(DbHelper.getInstance().getAllAttachments())
+        .filter(attachment -> attachmentsNames.add(attachment.getUri().getLastPathSegment()))
+        .flatMap(attachment -> Observable.fromCallable(() -> {
+          String name = attachment.getUri().getLastPathSegment();
+          var entry = manifest.getAttachment(name);
+          report.check(name, sha256(new File(attachment.getUri().getPath())),
+              sha256(backupAttachments.get(name)), entry != null ? entry.getHash() : null);
+          return attachment;
+        }).subscribeOn(Schedulers.io()), VERIFY_PARALLELISM)
+        .toCompletable().await();
+    for (String name : backupAttachments.keySet()) {
+      if (!attachmentsNames.contains(name)) {
+        report.addStale(name);
+      }
+    }
+
+    return report;
+  }
+
+  /**
+   * @return Hash of a file read through a channel, null if it doesn't exist or is unreadable
+   */
+  @Nullable
+  static String sha256(@Nullable File file) {
+    try {
+      return file != null && file.exists() ? HashHelper.sha256(file) : null;
+    } catch (IOException e) {
+      LogDelegate.w("Can't read " + file.getPath() + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * @return Hash of a backup document read through a channel, null if it doesn't exist or is
+   * unreadable
+   */
+  @Nullable
+  private static String sha256(@Nullable DocumentFileCompat file) {
+    if (file == null) {
+      return null;
+    }
+    try (ParcelFileDescriptor descriptor = OmniNotes.getAppContext().getContentResolver()
+        .openFileDescriptor(file.getUri(), "r")) {
+      if (descriptor == null) {
+        return null;
+      }
+      try (FileInputStream inputStream = new FileInputStream(descriptor.getFileDescriptor())) {
+        return HashHelper.sha256(inputStream.getChannel());
+      }
+    } catch (IOException e) {
+      LogDelegate.w("Can't read " + file.getName() + ": " + e.getMessage());
+      return null;
+    }
   }
 
 }
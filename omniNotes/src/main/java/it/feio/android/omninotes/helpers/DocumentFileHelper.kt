@@ -46,6 +46,9 @@ import java.io.IOException
 class DocumentFileHelper {
 
     companion object {
+        // Existing files are overwritten, some documents providers don't truncate them by default
+        private const val WRITE_TRUNCATE_MODE = "wt"
+
         @JvmStatic
         @Throws(IOException::class)
         fun readContent(context: Context, documentFile: DocumentFileCompat): String {
@@ -75,7 +78,7 @@ class DocumentFileHelper {
             val contentResolver = context.contentResolver
             try {
                 contentResolver.openInputStream(Uri.fromFile(file)).use { `is` ->
-                    contentResolver.openOutputStream(destination.uri).use { os ->
+                    contentResolver.openOutputStream(destination.uri, WRITE_TRUNCATE_MODE).use { os ->
                         IOUtils.copy(`is`, os)
                         return true
                     }
@@ -90,7 +93,7 @@ class DocumentFileHelper {
         @Throws(IOException::class)
         fun write(context: Context, file: DocumentFileCompat, content: String?) {
             val contentResolver = context.contentResolver
-            contentResolver.openOutputStream(file.uri).use { os -> IOUtils.write(content, os) }
+            contentResolver.openOutputStream(file.uri, WRITE_TRUNCATE_MODE).use { os -> IOUtils.write(content, os) }
         }
 
         @JvmStatic
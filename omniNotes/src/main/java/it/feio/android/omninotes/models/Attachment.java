@@ -25,11 +25,13 @@ import java.util.Calendar;
 
 public class Attachment extends BaseAttachment implements Parcelable {
 
+  private static long lastId;
+
   private Uri uri;
 
 
   public Attachment(Uri uri, String mimeType) {
-    this(Calendar.getInstance().getTimeInMillis(), uri, null, 0, 0, mimeType);
+    this(nextId(), uri, null, 0, 0, mimeType);
   }
 
 
@@ -54,6 +56,16 @@ public class Attachment extends BaseAttachment implements Parcelable {
   }
 
 
+  /**
+   * Ids are creation times, kept unique when many attachments are created within the same
+   * millisecond, as when they share files already stored
+   */
+  private static synchronized long nextId() {
+    lastId = Math.max(Calendar.getInstance().getTimeInMillis(), lastId + 1);
+    return lastId;
+  }
+
+
   public Uri getUri() {
     return uri;
   }
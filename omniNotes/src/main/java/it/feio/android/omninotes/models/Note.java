@@ -16,6 +16,7 @@
  */
 package it.feio.android.omninotes.models;
 
+import android.content.ContentValues;
 import android.os.Parcel;
 import android.os.Parcelable;
 import it.feio.android.omninotes.commons.models.BaseAttachment;
@@ -44,6 +45,12 @@ public class Note extends BaseNote implements Parcelable {
   };
   // Not saved in DB
   private boolean passwordChecked = false;
+  // Not saved in DB, tells that note has been retrieved with truncated content and attachments
+  private transient boolean summary = false;
+  // Not saved in DB, values note had when last read from or written to DB, to detect changes
+  private transient ContentValues storedValues;
+  // Not saved in DB, value of sorting expression when note was retrieved as last one of a page
+  private transient Object sortKey;
 
 
   public Note() {
@@ -66,6 +73,11 @@ public class Note extends BaseNote implements Parcelable {
   public Note(Note note) {
     super(note);
     setPasswordChecked(note.isPasswordChecked());
+    setSummary(note.isSummary());
+    if (note.getStoredValues() != null) {
+      setStoredValues(new ContentValues(note.getStoredValues()));
+    }
+    setSortKey(note.getSortKey());
   }
 
 
@@ -86,6 +98,8 @@ public class Note extends BaseNote implements Parcelable {
     setLocked(in.readInt());
     setChecklist(in.readInt());
     in.readList(getAttachmentsList(), Attachment.class.getClassLoader());
+    setSummary(in.readInt() == 1);
+    setStoredValues(in.readParcelable(ContentValues.class.getClassLoader()));
   }
 
   public List<Attachment> getAttachmentsList() {
@@ -134,6 +148,30 @@ public class Note extends BaseNote implements Parcelable {
     this.passwordChecked = passwordChecked;
   }
 
+  public boolean isSummary() {
+    return summary;
+  }
+
+  public void setSummary(boolean summary) {
+    this.summary = summary;
+  }
+
+  public ContentValues getStoredValues() {
+    return storedValues;
+  }
+
+  public void setStoredValues(ContentValues storedValues) {
+    this.storedValues = storedValues;
+  }
+
+  public Object getSortKey() {
+    return sortKey;
+  }
+
+  public void setSortKey(Object sortKey) {
+    this.sortKey = sortKey;
+  }
+
   @Override
   public Category getCategory() {
     try {
@@ -183,6 +221,8 @@ public class Note extends BaseNote implements Parcelable {
     parcel.writeInt(isLocked() ? 1 : 0);
     parcel.writeInt(isChecklist() ? 1 : 0);
     parcel.writeList(getAttachmentsList());
+    parcel.writeInt(isSummary() ? 1 : 0);
+    parcel.writeParcelable(storedValues, 0);
   }
 
 }
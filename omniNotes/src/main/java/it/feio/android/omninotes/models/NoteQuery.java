@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.models;
+
+import java.util.Collection;
+
+/**
+ * Describes which notes have to be shown into notes list
+ */
+public class NoteQuery {
+
+  public enum Type {
+    NAVIGATION, CATEGORY, PATTERN, TAGS, UNCOMPLETE_CHECKLISTS
+  }
+
+  private final Type type;
+  private final Long categoryId;
+  private final String text;
+  private final Collection<Long> noteIds;
+
+
+  private NoteQuery(Type type, Long categoryId, String text) {
+    this(type, categoryId, text, null);
+  }
+
+
+  private NoteQuery(Type type, Long categoryId, String text, Collection<Long> noteIds) {
+    this.type = type;
+    this.categoryId = categoryId;
+    this.text = text;
+    this.noteIds = noteIds;
+  }
+
+
+  /**
+   * Notes belonging to current navigation
+   */
+  public static NoteQuery navigation() {
+    return new NoteQuery(Type.NAVIGATION, null, null);
+  }
+
+
+  public static NoteQuery category(Long categoryId) {
+    return new NoteQuery(Type.CATEGORY, categoryId, null);
+  }
+
+
+  public static NoteQuery pattern(String pattern) {
+    return new NoteQuery(Type.PATTERN, null, pattern);
+  }
+
+
+  /**
+   * Notes matching pattern searched only between the given ones
+   */
+  public static NoteQuery pattern(String pattern, Collection<Long> noteIds) {
+    return new NoteQuery(Type.PATTERN, null, pattern, noteIds);
+  }
+
+
+  /**
+   * @param tags Comma separated tags that notes must all contain
+   */
+  public static NoteQuery tags(String tags) {
+    return new NoteQuery(Type.TAGS, null, tags);
+  }
+
+
+  public static NoteQuery uncompleteChecklists() {
+    return new NoteQuery(Type.UNCOMPLETE_CHECKLISTS, null, null);
+  }
+
+
+  public Type getType() {
+    return type;
+  }
+
+
+  public Long getCategoryId() {
+    return categoryId;
+  }
+
+
+  public String getText() {
+    return text;
+  }
+
+
+  /**
+   * @return Notes the query is restricted to or null if not restricted
+   */
+  public Collection<Long> getNoteIds() {
+    return noteIds;
+  }
+
+
+  @Override
+  public String toString() {
+    switch (type) {
+      case CATEGORY:
+        return type + "(" + categoryId + ")";
+      case PATTERN:
+        return type + "(" + text + ")"
+            + (noteIds != null ? " within " + noteIds.size() + " notes" : "");
+      case TAGS:
+        return type + "(" + text + ")";
+      default:
+        return type.toString();
+    }
+  }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.models;
+
+/**
+ * Window of notes to be retrieved using keyset pagination: up to {@code size} notes following
+ * {@code after} one in current sorting.
+ */
+public class NotesPage {
+
+  public static final int DEFAULT_SIZE = 100;
+
+  private final Note after;
+  private final int size;
+
+
+  public NotesPage(Note after, int size) {
+    this.after = after;
+    this.size = size;
+  }
+
+
+  public static NotesPage first() {
+    return first(DEFAULT_SIZE);
+  }
+
+
+  public static NotesPage first(int size) {
+    return new NotesPage(null, size);
+  }
+
+
+  public static NotesPage after(Note after) {
+    return new NotesPage(after, DEFAULT_SIZE);
+  }
+
+
+  public Note getAfter() {
+    return after;
+  }
+
+
+  public int getSize() {
+    return size;
+  }
+
+
+  public boolean isFirst() {
+    return after == null;
+  }
+
+
+  /**
+   * Tells if retrieved notes filled the page, so that other ones may follow
+   */
+  public boolean isFilledBy(int notesNumber) {
+    return notesNumber >= size;
+  }
+
+}
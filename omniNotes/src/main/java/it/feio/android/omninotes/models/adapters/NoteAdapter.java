@@ -25,11 +25,11 @@ import android.graphics.Color;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.text.Spanned;
-import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.RecyclerView;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.RequestOptions;
@@ -43,8 +43,12 @@ import it.feio.android.omninotes.models.holders.NoteViewHolder;
 import it.feio.android.omninotes.utils.BitmapHelper;
 import it.feio.android.omninotes.utils.Navigation;
 import it.feio.android.omninotes.utils.TextHelper;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 
 
@@ -52,8 +56,12 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteViewHolder> {
 
   private final Activity mActivity;
   private final int navigation;
-  private final List<Note> notes;
-  private final SparseBooleanArray selectedItems = new SparseBooleanArray();
+  // Shown notes are updated computing differences from new ones in background
+  private final AsyncListDiffer<Note> differ = new AsyncListDiffer<>(this,
+      new NoteDiffItemCallback());
+  // Latest notes submitted to be shown, differences may still be under computation
+  private List<Note> notes;
+  private final Set<Long> selectedItems = new HashSet<>();
   private final boolean expandedView;
   private long closestNoteReminder = Long.parseLong(TIMESTAMP_UNIX_EPOCH_FAR);
   private int closestNotePosition;
@@ -61,18 +69,27 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteViewHolder> {
 
   public NoteAdapter(Activity activity, boolean expandedView, List<Note> notes) {
     this.mActivity = activity;
-    this.notes = notes;
     this.expandedView = expandedView;
     navigation = Navigation.getNavigation();
+    setHasStableIds(true);
+    submitNotes(new ArrayList<>(notes));
     manageCloserNote(notes, navigation);
   }
 
 
+  /**
+   * Tells if adapter can be used to show notes with given view style in current navigation
+   */
+  public boolean isReusable(boolean expandedView) {
+    return this.expandedView == expandedView && navigation == Navigation.getNavigation();
+  }
+
+
   /**
    * Highlighted if is part of multiselection of notes. Remember to search for child with card ui
    */
   private void manageSelectionColor(int position, Note note, NoteViewHolder holder) {
-    if (selectedItems.get(position)) {
+    if (selectedItems.contains(note.get_id())) {
       holder.cardLayout
           .setBackgroundColor(mActivity.getResources().getColor(R.color.list_bg_selected));
     } else {
@@ -104,7 +121,7 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteViewHolder> {
 
 
   public List<Note> getNotes() {
-    return notes;
+    return Collections.unmodifiableList(notes);
   }
 
 
@@ -162,6 +179,7 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteViewHolder> {
    * Saves the position of the closest note to align list scrolling with it on start
    */
   private void manageCloserNote(List<Note> notes, int navigation) {
+    closestNoteReminder = Long.parseLong(TIMESTAMP_UNIX_EPOCH_FAR);
     if (navigation == Navigation.REMINDERS) {
       for (int i = 0; i < notes.size(); i++) {
         long now = Calendar.getInstance().getTimeInMillis();
@@ -184,22 +202,33 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteViewHolder> {
   }
 
 
-  public SparseBooleanArray getSelectedItems() {
-    return selectedItems;
+  /**
+   * Selection is kept by note, so it survives to items moving around the list
+   */
+  public void addSelectedItem(Integer selectedItem) {
+    selectedItems.add(getItem(selectedItem).get_id());
   }
 
 
-  public void addSelectedItem(Integer selectedItem) {
-    selectedItems.put(selectedItem, true);
+  public void addSelectedItems(List<Note> selectedNotes) {
+    for (Note note : selectedNotes) {
+      selectedItems.add(note.get_id());
+    }
   }
 
 
   public void removeSelectedItem(Integer selectedItem) {
-    selectedItems.delete(selectedItem);
+    selectedItems.remove(getItem(selectedItem).get_id());
   }
 
 
   public void clearSelectedItems() {
+    List<Note> shownNotes = differ.getCurrentList();
+    for (int i = 0; i < shownNotes.size(); i++) {
+      if (selectedItems.contains(shownNotes.get(i).get_id())) {
+        notifyItemChanged(i);
+      }
+    }
     selectedItems.clear();
   }
 
@@ -257,45 +286,79 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteViewHolder> {
     }
   }
 
+  /**
+   * Replaces shown notes notifying only the differences, so that unchanged items are not rebound
+   */
+  public void setNotes(@NonNull List<Note> newNotes) {
+    submitNotes(new ArrayList<>(newNotes));
+    manageCloserNote(newNotes, navigation);
+  }
+
+  public void addAll(@NonNull List<Note> notes) {
+    List<Note> newNotes = new ArrayList<>(this.notes);
+    newNotes.addAll(notes);
+    submitNotes(newNotes);
+  }
+
+  /**
+   * Moves note to the given position, or to the end if not already in list, rebinding it to
+   * reflect its changes
+   */
   public void replace(@NonNull Note note, int index) {
-    if (notes.contains(note)) {
-      remove(note);
+    List<Note> newNotes = new ArrayList<>(notes);
+    if (newNotes.remove(note)) {
+      newNotes.add(index, note);
     } else {
-      index = notes.size();
+      newNotes.add(note);
     }
-    add(index, note);
+    // Note is changed in place so it wouldn't be detected as different
+    submitNotes(newNotes, () -> {
+      int position = differ.getCurrentList().indexOf(note);
+      if (position >= 0) {
+        notifyItemChanged(position);
+      }
+    });
   }
 
   public void add(int index, @NonNull Object o) {
-    notes.add(index, (Note) o);
-    notifyItemInserted(index);
+    List<Note> newNotes = new ArrayList<>(notes);
+    newNotes.add(index, (Note) o);
+    submitNotes(newNotes);
   }
 
   public void remove(List<Note> notes) {
-    for (Note note : notes) {
-      remove(note);
-    }
+    List<Note> newNotes = new ArrayList<>(this.notes);
+    newNotes.removeAll(notes);
+    submitNotes(newNotes);
   }
 
   public void remove(@NonNull Note note) {
-    int pos = getPosition(note);
-    if (pos >= 0) {
-      notes.remove(note);
-      notifyItemRemoved(pos);
-    }
+    remove(Collections.singletonList(note));
+  }
+
+  private void submitNotes(List<Note> newNotes) {
+    submitNotes(newNotes, null);
   }
 
+  private void submitNotes(List<Note> newNotes, Runnable commitCallback) {
+    notes = newNotes;
+    differ.submitList(newNotes, commitCallback);
+  }
+
+  /**
+   * Position of note considering last submitted notes
+   */
   public int getPosition(@NonNull Note note) {
     return notes.indexOf(note);
   }
 
   public Note getItem(int index) {
-    return notes.get(index);
+    return differ.getCurrentList().get(index);
   }
 
   @Override
   public long getItemId(int position) {
-    return position;
+    return getItem(position).get_id();
   }
 
   @NonNull
@@ -314,7 +377,7 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteViewHolder> {
 
   @Override
   public void onBindViewHolder(@NonNull NoteViewHolder holder, int position) {
-    Note note = notes.get(position);
+    Note note = getItem(position);
     initText(note, holder);
     initIcons(note, holder);
     initDates(note, holder);
@@ -324,7 +387,7 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteViewHolder> {
 
   @Override
   public int getItemCount() {
-    return this.notes.size();
+    return differ.getCurrentList().size();
   }
 
 }
\ No newline at end of file
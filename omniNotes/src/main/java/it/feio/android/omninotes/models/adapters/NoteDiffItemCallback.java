@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.models.adapters;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import it.feio.android.omninotes.models.Attachment;
+import it.feio.android.omninotes.models.Category;
+import it.feio.android.omninotes.models.Note;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * Tells notes list items apart by note identity, considering them changed when anything shown by
+ * their row differs. Bulk operations change notes without updating their modification date, so
+ * this can't be relied on alone.
+ */
+public class NoteDiffItemCallback extends DiffUtil.ItemCallback<Note> {
+
+  @Override
+  public boolean areItemsTheSame(@NonNull Note oldNote, @NonNull Note newNote) {
+    return Objects.equals(oldNote.get_id(), newNote.get_id());
+  }
+
+
+  @Override
+  public boolean areContentsTheSame(@NonNull Note oldNote, @NonNull Note newNote) {
+    return Objects.equals(oldNote.getLastModification(), newNote.getLastModification())
+        && Objects.equals(oldNote.getTitle(), newNote.getTitle())
+        && Objects.equals(oldNote.getContent(), newNote.getContent())
+        && Objects.equals(oldNote.isArchived(), newNote.isArchived())
+        && Objects.equals(oldNote.isLocked(), newNote.isLocked())
+        && Objects.equals(oldNote.isChecklist(), newNote.isChecklist())
+        && Objects.equals(oldNote.getAlarm(), newNote.getAlarm())
+        && Objects.equals(oldNote.getLongitude(), newNote.getLongitude())
+        && Objects.equals(getFirstAttachmentUri(oldNote), getFirstAttachmentUri(newNote))
+        && Objects.equals(getCategoryColor(oldNote), getCategoryColor(newNote));
+  }
+
+
+  /**
+   * Only the first attachment is shown, as thumbnail or as icon
+   */
+  private Uri getFirstAttachmentUri(Note note) {
+    List<Attachment> attachments = note.getAttachmentsList();
+    return attachments.isEmpty() ? null : attachments.get(0).getUri();
+  }
+
+
+  private String getCategoryColor(Note note) {
+    Category category = note.getCategory();
+    return category != null ? category.getColor() : null;
+  }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.feio.android.omninotes.models.misc;
+
+
+/**
+ * Outcome of a garbage collection of attachments: rows deleted because their note doesn't exist
+ * anymore, files deleted because no attachment uses them, and rows kept even if their file doesn't
+ * exist.
+ */
+public class AttachmentsGcReport {
+
+  private int orphanRows;
+  private int missingFileRows;
+  private int deletedFiles;
+  private long freedBytes;
+
+
+  public void addOrphanRows(int rows) {
+    orphanRows += rows;
+  }
+
+
+  public void addMissingFileRows(int rows) {
+    missingFileRows += rows;
+  }
+
+
+  public void addDeletedFile(long bytes) {
+    deletedFiles++;
+    freedBytes += bytes;
+  }
+
+
+  /**
+   * @return Attachments rows whose note doesn't exist anymore
+   */
+  public int getOrphanRows() {
+    return orphanRows;
+  }
+
+
+  /**
+   * @return Attachments rows whose file doesn't exist, they're reported but not deleted
+   */
+  public int getMissingFileRows() {
+    return missingFileRows;
+  }
+
+
+  public int getDeletedFiles() {
+    return deletedFiles;
+  }
+
+
+  public long getFreedBytes() {
+    return freedBytes;
+  }
+
+
+  /**
+   * @return True if nothing has been deleted
+   */
+  public boolean isEmpty() {
+    return orphanRows == 0 && deletedFiles == 0;
+  }
+
+
+  @Override
+  public String toString() {
+    return "AttachmentsGcReport{orphanRows=" + orphanRows + ", missingFileRows=" + missingFileRows
+        + ", deletedFiles=" + deletedFiles + ", freedBytes=" + freedBytes + "}";
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.models.misc;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Checkpoint of a running backup or restore. Notes up to the last one and attachments up to the
+ * last one (by name) have already been processed, so an interrupted job can skip them when it's
+ * resumed. Items that couldn't be processed are collected to be reported at the end.
+ */
+public class BackupJob {
+
+  private final String action;
+  private final String backupName;
+  private final long lastNoteId;
+  private final String lastAttachment;
+  private final List<String> failures;
+
+
+  public BackupJob(String action, String backupName, long lastNoteId, String lastAttachment,
+      List<String> failures) {
+    this.action = action;
+    this.backupName = backupName;
+    this.lastNoteId = lastNoteId;
+    this.lastAttachment = lastAttachment;
+    this.failures = Collections.unmodifiableList(failures);
+  }
+
+
+  public String getAction() {
+    return action;
+  }
+
+
+  public String getBackupName() {
+    return backupName;
+  }
+
+
+  public long getLastNoteId() {
+    return lastNoteId;
+  }
+
+
+  /**
+   * @return Name of last attachment processed, null if none has been yet
+   */
+  public String getLastAttachment() {
+    return lastAttachment;
+  }
+
+
+  public List<String> getFailures() {
+    return failures;
+  }
+
+
+  public boolean isAttachmentProcessed(String name) {
+    return lastAttachment != null && name.compareTo(lastAttachment) <= 0;
+  }
+
+}
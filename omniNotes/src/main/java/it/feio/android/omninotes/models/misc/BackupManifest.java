@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.models.misc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+
+/**
+ * Index of a backup content, letting following exports into the same folder write only what has
+ * changed since. Notes are tracked by id, attachments by file name.
+ */
+public class BackupManifest {
+
+  public static final String FILE_NAME = "manifest.json";
+
+  private static final String KEY_NOTES = "notes";
+  private static final String KEY_ATTACHMENTS = "attachments";
+  private static final String KEY_SETTINGS = "settings";
+  private static final String KEY_LAST_MODIFICATION = "last_modification";
+  private static final String KEY_SIZE = "size";
+  private static final String KEY_HASH = "hash";
+
+  private final Map<String, Entry> notes;
+  private final Map<String, Entry> attachments;
+  private Entry settings;
+
+
+  public BackupManifest() {
+    this(new HashMap<>(), new HashMap<>());
+  }
+
+
+  private BackupManifest(Map<String, Entry> notes, Map<String, Entry> attachments) {
+    this.notes = notes;
+    this.attachments = attachments;
+  }
+
+
+  public Map<String, Entry> getNotes() {
+    return Collections.unmodifiableMap(notes);
+  }
+
+
+  public Entry getNote(long noteId) {
+    return notes.get(String.valueOf(noteId));
+  }
+
+
+  public void putNote(long noteId, Entry entry) {
+    notes.put(String.valueOf(noteId), entry);
+  }
+
+
+  public void removeNote(String noteId) {
+    notes.remove(noteId);
+  }
+
+
+  public Map<String, Entry> getAttachments() {
+    return Collections.unmodifiableMap(attachments);
+  }
+
+
+  public Entry getAttachment(String name) {
+    return attachments.get(name);
+  }
+
+
+  public void putAttachment(String name, Entry entry) {
+    attachments.put(name, entry);
+  }
+
+
+  public void removeAttachment(String name) {
+    attachments.remove(name);
+  }
+
+
+  /**
+   * @return Settings file entry, only tracked by single archive backups
+   */
+  public Entry getSettings() {
+    return settings;
+  }
+
+
+  public void setSettings(Entry settings) {
+    this.settings = settings;
+  }
+
+
+  public String toJson() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put(KEY_NOTES, toJson(notes));
+    json.put(KEY_ATTACHMENTS, toJson(attachments));
+    if (settings != null) {
+      json.put(KEY_SETTINGS, toJson(settings));
+    }
+    return json.toString();
+  }
+
+
+  public static BackupManifest fromJson(String jsonString) throws JSONException {
+    JSONObject json = new JSONObject(jsonString);
+    BackupManifest manifest = new BackupManifest(fromJson(json.optJSONObject(KEY_NOTES)),
+        fromJson(json.optJSONObject(KEY_ATTACHMENTS)));
+    JSONObject settings = json.optJSONObject(KEY_SETTINGS);
+    if (settings != null) {
+      manifest.setSettings(toEntry(settings));
+    }
+    return manifest;
+  }
+
+
+  private static JSONObject toJson(Map<String, Entry> entries) throws JSONException {
+    JSONObject json = new JSONObject();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      json.put(entry.getKey(), toJson(entry.getValue()));
+    }
+    return json;
+  }
+
+
+  private static JSONObject toJson(Entry entry) throws JSONException {
+    return new JSONObject()
+        .put(KEY_LAST_MODIFICATION, entry.getLastModification())
+        .put(KEY_SIZE, entry.getSize())
+        .put(KEY_HASH, entry.getHash());
+  }
+
+
+  private static Map<String, Entry> fromJson(JSONObject json) throws JSONException {
+    Map<String, Entry> entries = new HashMap<>();
+    if (json != null) {
+      Iterator<String> keys = json.keys();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        entries.put(key, toEntry(json.getJSONObject(key)));
+      }
+    }
+    return entries;
+  }
+
+
+  private static Entry toEntry(JSONObject json) throws JSONException {
+    return new Entry(json.getLong(KEY_LAST_MODIFICATION), json.getLong(KEY_SIZE),
+        json.getString(KEY_HASH));
+  }
+
+
+  /**
+   * Backed up item state: last modification and size of its source, hash of what has been written
+   */
+  public static class Entry {
+
+    private final long lastModification;
+    private final long size;
+    private final String hash;
+
+
+    public Entry(long lastModification, long size, String hash) {
+      this.lastModification = lastModification;
+      this.size = size;
+      this.hash = hash;
+    }
+
+
+    public long getLastModification() {
+      return lastModification;
+    }
+
+
+    public long getSize() {
+      return size;
+    }
+
+
+    public String getHash() {
+      return hash;
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Entry entry = (Entry) o;
+      return lastModification == entry.lastModification && size == entry.size
+          && Objects.equals(hash, entry.hash);
+    }
+
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(lastModification, size, hash);
+    }
+
+  }
+
+}
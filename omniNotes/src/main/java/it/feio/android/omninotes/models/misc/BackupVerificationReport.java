@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.models.misc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Outcome of a backup verification against the live database. Items are backup entry names: notes
+ * files (or ids for archives) and attachments names. Items can be checked concurrently.
+ */
+public class BackupVerificationReport {
+
+  private final List<String> missing = new ArrayList<>();
+  private final List<String> corrupt = new ArrayList<>();
+  private final List<String> stale = new ArrayList<>();
+  private int valid;
+
+
+  /**
+   * Classifies an item comparing hash of its backup copy with the live one, and with the one
+   * recorded into backup manifest when it was written (if any). A copy is missing only if the
+   * manifest lists it, otherwise the live item was created after backup and it's stale. A backup
+   * copy not matching the manifest is corrupt, otherwise it's stale because live item changed after
+   * backup.
+   *
+   * @param liveHash     Hash of the live item, null if it no longer exists
+   * @param backupHash   Hash of the backup copy, null if it's missing or not readable
+   * @param manifestHash Hash recorded when backup was written, null if unknown
+   */
+  public synchronized void check(String item, String liveHash, String backupHash,
+      String manifestHash) {
+    if (backupHash == null) {
+      (manifestHash != null ? missing : stale).add(item);
+    } else if (backupHash.equals(liveHash)) {
+      valid++;
+    } else if (manifestHash != null && !manifestHash.equals(backupHash)) {
+      corrupt.add(item);
+    } else {
+      stale.add(item);
+    }
+  }
+
+
+  public synchronized void addCorrupt(String item) {
+    corrupt.add(item);
+  }
+
+
+  public synchronized void addStale(String item) {
+    stale.add(item);
+  }
+
+
+  public synchronized List<String> getMissing() {
+    return Collections.unmodifiableList(new ArrayList<>(missing));
+  }
+
+
+  public synchronized List<String> getCorrupt() {
+    return Collections.unmodifiableList(new ArrayList<>(corrupt));
+  }
+
+
+  /**
+   * @return Items backed up before they were changed or deleted, or created after backup
+   */
+  public synchronized List<String> getStale() {
+    return Collections.unmodifiableList(new ArrayList<>(stale));
+  }
+
+
+  public synchronized int getValid() {
+    return valid;
+  }
+
+
+  public synchronized boolean isValid() {
+    return missing.isEmpty() && corrupt.isEmpty() && stale.isEmpty();
+  }
+
+
+  @Override
+  public synchronized String toString() {
+    return "BackupVerificationReport{valid=" + valid + ", missing=" + missing + ", corrupt="
+        + corrupt + ", stale=" + stale + "}";
+  }
+
+}
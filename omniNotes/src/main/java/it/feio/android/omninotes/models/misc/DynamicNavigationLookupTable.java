@@ -23,8 +23,7 @@ import it.feio.android.omninotes.async.bus.DynamicNavigationReadyEvent;
 import it.feio.android.omninotes.async.bus.NotesUpdatedEvent;
 import it.feio.android.omninotes.db.DbHelper;
 import it.feio.android.omninotes.helpers.LogDelegate;
-import it.feio.android.omninotes.models.Note;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class DynamicNavigationLookupTable {
@@ -34,6 +33,7 @@ public class DynamicNavigationLookupTable {
   int trashed;
   int uncategorized;
   int reminders;
+  private final AtomicBoolean updateRequested = new AtomicBoolean();
 
 
   private DynamicNavigationLookupTable() {
@@ -50,30 +50,30 @@ public class DynamicNavigationLookupTable {
   }
 
 
-  public void update() {
-    ((Runnable) () -> {
-      archived = trashed = uncategorized = reminders = 0;
-      List<Note> notes = DbHelper.getInstance().getAllNotes(false);
-      for (int i = 0; i < notes.size(); i++) {
-        if (notes.get(i).isTrashed()) {
-          trashed++;
-        } else if (notes.get(i).isArchived()) {
-          archived++;
-        } else if (notes.get(i).getAlarm() != null) {
-          reminders++;
-        }
-        if (notes.get(i).getCategory() == null || notes.get(i).getCategory().getId().equals(0L)) {
-          uncategorized++;
-        }
-      }
-      EventBus.getDefault().post(new DynamicNavigationReadyEvent());
-      LogDelegate.d("Dynamic menu finished counting items");
-    }).run();
+  /**
+   * Refreshes counters, to be called outside of main thread
+   */
+  public synchronized void update() {
+    // Updates requested from now on will need to read again
+    updateRequested.set(false);
+    NavigationCounters counters = DbHelper.getInstance().getNavigationCounters();
+    archived = counters.getArchived();
+    trashed = counters.getTrashed();
+    uncategorized = counters.getUncategorized();
+    reminders = counters.getReminders();
+    EventBus.getDefault().post(new DynamicNavigationReadyEvent());
+    LogDelegate.d("Dynamic menu finished counting items");
   }
 
 
+  /**
+   * Bursts of notes updates are coalesced: events received while an update is still waiting to
+   * start are served by it
+   */
   public void onEventAsync(NotesUpdatedEvent event) {
-    update();
+    if (updateRequested.compareAndSet(false, true)) {
+      update();
+    }
   }
 
 
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.models.misc;
+
+
+/**
+ * Journal of a running re-encryption of locked notes after a password change (or their unlocking
+ * when password is removed). Notes up to the last one processed are encrypted with the new
+ * password, the others still with the old one.
+ */
+public class PasswordRekey {
+
+  private final String oldPassword;
+  private final String newPassword;
+  private final long lastNoteId;
+
+
+  public PasswordRekey(String oldPassword, String newPassword, long lastNoteId) {
+    this.oldPassword = oldPassword;
+    this.newPassword = newPassword;
+    this.lastNoteId = lastNoteId;
+  }
+
+
+  public String getOldPassword() {
+    return oldPassword;
+  }
+
+
+  /**
+   * @return New password, null if password is being removed
+   */
+  public String getNewPassword() {
+    return newPassword;
+  }
+
+
+  public long getLastNoteId() {
+    return lastNoteId;
+  }
+
+
+  public boolean isPasswordRemoval() {
+    return newPassword == null;
+  }
+
+
+  /**
+   * Password a locked note is currently encrypted with. When password is being removed notes are
+   * unlocked as they're processed, so the locked ones always use the old password.
+   */
+  public String getPassword(long noteId) {
+    return !isPasswordRemoval() && noteId <= lastNoteId ? newPassword : oldPassword;
+  }
+
+}
@@ -36,6 +36,7 @@ import it.feio.android.omninotes.R;
 import it.feio.android.omninotes.helpers.AttachmentsHelper;
 import it.feio.android.omninotes.models.Attachment;
 import it.feio.android.simplegallery.util.BitmapUtils;
+import java.io.File;
 import java.util.concurrent.ExecutionException;
 import lombok.experimental.UtilityClass;
 import org.apache.commons.io.FilenameUtils;
@@ -45,39 +46,86 @@ public class BitmapHelper {
 
   private static final String ANDROID_RESOURCE = "android.resource://";
 
+  // Sizes of thumbnails shown by widgets, notifications and shortcuts, generated on attach
+  private static final int[] GENERATED_THUMBNAILS_SIZES = {64, 128};
+
   /**
-   * Retrieves a the bitmap relative to attachment based on mime type
+   * Retrieves a the bitmap relative to attachment based on mime type. Thumbnails are served by
+   * {@link ThumbnailCache} when available, decoded at the size bucket fitting the requested size
+   * otherwise.
    */
   public static Bitmap getBitmapFromAttachment(Context mContext, Attachment mAttachment, int width,
       int height) {
-    Bitmap bmp = null;
-
+    int sizeBucket = ThumbnailCache.getSizeBucket(Math.max(width, height));
+    Bitmap bmp;
     if (AttachmentsHelper.typeOf(mAttachment, MIME_TYPE_VIDEO, MIME_TYPE_IMAGE, MIME_TYPE_SKETCH)) {
-      bmp = getImageBitmap(mContext, mAttachment, width, height);
+      bmp = getImageThumbnail(mContext, mAttachment, sizeBucket);
+    } else {
+      bmp = getPlaceholderThumbnail(mContext, getPlaceholderResource(mAttachment), sizeBucket);
+    }
+    return bmp != null ? ThumbnailUtils.extractThumbnail(bmp, width, height) : null;
+  }
 
-    } else if (MIME_TYPE_AUDIO.equals(mAttachment.getMime_type())) {
-      bmp = ThumbnailUtils.extractThumbnail(
-          BitmapUtils
-              .decodeSampledBitmapFromResourceMemOpt(mContext.getResources().openRawResource(R
-                  .raw.play), width, height), width, height);
+  /**
+   * Decodes thumbnails of a new attachment at the sizes shown outside the app, so that widgets,
+   * notifications and shortcuts won't need to
+   */
+  public static void generateThumbnails(Context mContext, Attachment mAttachment) {
+    if (AttachmentsHelper.typeOf(mAttachment, MIME_TYPE_VIDEO, MIME_TYPE_IMAGE, MIME_TYPE_SKETCH)) {
+      for (int size : GENERATED_THUMBNAILS_SIZES) {
+        getImageThumbnail(mContext, mAttachment, ThumbnailCache.getSizeBucket(size));
+      }
+    }
+  }
 
-    } else if (MIME_TYPE_FILES.equals(mAttachment.getMime_type())) {
-      if (MIME_TYPE_CONTACT_EXT.equals(FilenameUtils.getExtension(mAttachment.getName()))) {
-        bmp = ThumbnailUtils.extractThumbnail(
-            BitmapUtils
-                .decodeSampledBitmapFromResourceMemOpt(mContext.getResources().openRawResource(R
-                    .raw.vcard), width, height), width, height);
-      } else {
-        bmp = ThumbnailUtils.extractThumbnail(
-            BitmapUtils
-                .decodeSampledBitmapFromResourceMemOpt(mContext.getResources().openRawResource(R
-                    .raw.files), width, height), width, height);
+  private static Bitmap getImageThumbnail(Context mContext, Attachment mAttachment,
+      int sizeBucket) {
+    if (mAttachment.getId() == null) {
+      return getImageBitmap(mContext, mAttachment, sizeBucket, sizeBucket);
+    }
+    String path = mAttachment.getUri().getPath();
+    long sourceLastModified = path != null ? new File(path).lastModified() : 0;
+    Bitmap bmp = ThumbnailCache.get(mContext, mAttachment.getId(), sizeBucket, sourceLastModified);
+    if (bmp == null) {
+      bmp = getImageBitmap(mContext, mAttachment, sizeBucket, sizeBucket);
+      if (bmp != null) {
+        ThumbnailCache.put(mContext, mAttachment.getId(), sizeBucket, bmp);
       }
     }
+    return bmp;
+  }
 
+  private static Bitmap getPlaceholderThumbnail(Context mContext, int resourceId,
+      int sizeBucket) {
+    if (resourceId == 0) {
+      return null;
+    }
+    Bitmap bmp = ThumbnailCache.getPlaceholder(resourceId, sizeBucket);
+    if (bmp == null) {
+      bmp = ThumbnailUtils.extractThumbnail(
+          BitmapUtils.decodeSampledBitmapFromResourceMemOpt(
+              mContext.getResources().openRawResource(resourceId), sizeBucket, sizeBucket),
+          sizeBucket, sizeBucket);
+      if (bmp != null) {
+        ThumbnailCache.putPlaceholder(resourceId, sizeBucket, bmp);
+      }
+    }
     return bmp;
   }
 
+  /**
+   * @return Raw resource shown for attachments without preview, 0 if there's none
+   */
+  private static int getPlaceholderResource(Attachment mAttachment) {
+    if (MIME_TYPE_AUDIO.equals(mAttachment.getMime_type())) {
+      return R.raw.play;
+    } else if (MIME_TYPE_FILES.equals(mAttachment.getMime_type())) {
+      return MIME_TYPE_CONTACT_EXT.equals(FilenameUtils.getExtension(mAttachment.getName()))
+          ? R.raw.vcard : R.raw.files;
+    }
+    return 0;
+  }
+
   private static Bitmap getImageBitmap(Context mContext, Attachment mAttachment, int width,
       int height) {
     try {
@@ -104,6 +104,9 @@ public interface ConstantsBase {
   String PREF_ENABLE_AUTOBACKUP = "settings_enable_autobackup";
   String PREF_ENABLE_FILE_LOGGING = "settings_enable_file_logging";
   String PREF_BACKUP_FOLDER_URI = "backup_folder";
+  String PREF_LAST_ATTACHMENTS_GC = "last_attachments_gc";
+  String PREF_BACKUP_JOB_FAILED = "backup_job_failed";
+  String PREF_LEGACY_ATTACHMENTS_STORED = "legacy_attachments_stored";
 
   String MIME_TYPE_IMAGE = "image/jpeg";
   String MIME_TYPE_AUDIO = "audio/amr";
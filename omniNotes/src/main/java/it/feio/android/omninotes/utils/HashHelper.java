@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.feio.android.omninotes.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import lombok.experimental.UtilityClass;
+
+
+/**
+ * Content hashes used to detect changed or corrupted data. Files and streams are read in chunks, so
+ * they're never loaded into memory.
+ */
+@UtilityClass
+public class HashHelper {
+
+  private static final String ALGORITHM = "SHA-256";
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+  public static String sha256(String text) {
+    MessageDigest digest = getDigest();
+    digest.update(text.getBytes(StandardCharsets.UTF_8));
+    return toHex(digest.digest());
+  }
+
+
+  public static String sha256(File file) throws IOException {
+    try (FileInputStream fileInputStream = new FileInputStream(file);
+        FileChannel channel = fileInputStream.getChannel()) {
+      return sha256(channel);
+    }
+  }
+
+
+  /**
+   * Reads channel until its end through a direct buffer, channel is not closed
+   */
+  public static String sha256(FileChannel channel) throws IOException {
+    MessageDigest digest = getDigest();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    while (channel.read(buffer) != -1) {
+      buffer.flip();
+      digest.update(buffer);
+      buffer.clear();
+    }
+    return toHex(digest.digest());
+  }
+
+
+  public static String sha256(InputStream inputStream) throws IOException {
+    MessageDigest digest = getDigest();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = inputStream.read(buffer)) != -1) {
+      digest.update(buffer, 0, read);
+    }
+    return toHex(digest.digest());
+  }
+
+
+  /**
+   * Copies a stream computing hash of the content meanwhile, streams are not closed
+   */
+  public static String copy(InputStream inputStream, OutputStream outputStream)
+      throws IOException {
+    MessageDigest digest = getDigest();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = inputStream.read(buffer)) != -1) {
+      digest.update(buffer, 0, read);
+      outputStream.write(buffer, 0, read);
+    }
+    return toHex(digest.digest());
+  }
+
+
+  private static MessageDigest getDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform must support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+
+  private static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+      chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+    }
+    return new String(chars);
+  }
+
+}
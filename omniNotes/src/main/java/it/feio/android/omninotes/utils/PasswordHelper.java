@@ -21,6 +21,7 @@ import static it.feio.android.omninotes.utils.ConstantsBase.PREF_PASSWORD;
 import static it.feio.android.omninotes.utils.ConstantsBase.PREF_PASSWORD_ANSWER;
 import static it.feio.android.omninotes.utils.ConstantsBase.PREF_PASSWORD_QUESTION;
 
+import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.os.Handler;
 import android.view.LayoutInflater;
@@ -34,9 +35,14 @@ import de.greenrobot.event.EventBus;
 import it.feio.android.omninotes.R;
 import it.feio.android.omninotes.async.bus.PasswordRemovedEvent;
 import it.feio.android.omninotes.db.DbHelper;
+import it.feio.android.omninotes.db.DecryptedContentCache;
+import it.feio.android.omninotes.helpers.LogDelegate;
 import it.feio.android.omninotes.models.PasswordValidator;
+import it.feio.android.omninotes.models.misc.PasswordRekey;
 import lombok.experimental.UtilityClass;
+import rx.Emitter.BackpressureMode;
 import rx.Observable;
+import rx.Observer;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.schedulers.Schedulers;
 
@@ -139,23 +145,77 @@ public class PasswordHelper {
 
 
   public static void removePassword() {
-    Observable
-        .from(DbHelper.getInstance().getNotesWithLock(true))
+    rekeyLockedNotes(null)
         .subscribeOn(Schedulers.newThread())
         .observeOn(AndroidSchedulers.mainThread())
-        .doOnNext(note -> {
-          note.setLocked(false);
-          DbHelper.getInstance().updateNote(note, false);
-        })
-        .doOnCompleted(() -> {
-          Prefs.edit()
-              .remove(PREF_PASSWORD)
-              .remove(PREF_PASSWORD_QUESTION)
-              .remove(PREF_PASSWORD_ANSWER)
-              .remove("settings_password_access")
-              .apply();
-          EventBus.getDefault().post(new PasswordRemovedEvent());
-        })
+        .doOnCompleted(() -> EventBus.getDefault().post(new PasswordRemovedEvent()))
         .subscribe();
   }
+
+
+  /**
+   * Changes password re-encrypting locked notes, or unlocks them if new password is null. Notes are
+   * streamed from database in batches, each one written into its own transaction, and the
+   * percentage of progress is emitted after each of them. New password is stored only at the end.
+   *
+   * @param newPassword Hash of the new password
+   */
+  public static Observable<Integer> rekeyLockedNotes(String newPassword) {
+    return Observable.create(emitter -> {
+      synchronized (PasswordHelper.class) {
+        DbHelper dbHelper = DbHelper.getInstance();
+        // A previously interrupted job is completed before, its new password being the current one
+        completePasswordRekey(dbHelper, emitter);
+        dbHelper.startPasswordRekey(Prefs.getString(PREF_PASSWORD, ""), newPassword);
+        completePasswordRekey(dbHelper, emitter);
+      }
+      emitter.onCompleted();
+    }, BackpressureMode.BUFFER);
+  }
+
+
+  /**
+   * Completes an eventual re-encryption of locked notes interrupted by app being killed
+   */
+  public static Observable<Integer> resumePasswordRekey() {
+    return Observable.create(emitter -> {
+      synchronized (PasswordHelper.class) {
+        completePasswordRekey(DbHelper.getInstance(), emitter);
+      }
+      emitter.onCompleted();
+    }, BackpressureMode.BUFFER);
+  }
+
+
+  @SuppressLint("ApplySharedPref")
+  private static void completePasswordRekey(DbHelper dbHelper, Observer<Integer> observer) {
+    PasswordRekey passwordRekey = dbHelper.getPasswordRekey();
+    if (passwordRekey == null) {
+      return;
+    }
+
+    int total = dbHelper.getPasswordRekeyRemainingCount();
+    int processed = 0;
+    int batch;
+    while ((batch = dbHelper.rekeyLockedNotes()) > 0) {
+      processed += batch;
+      observer.onNext(processed * 100 / Math.max(total, processed));
+    }
+
+    // Written synchronously, journal is removed only when preferences are surely updated
+    if (passwordRekey.isPasswordRemoval()) {
+      Prefs.edit()
+          .remove(PREF_PASSWORD)
+          .remove(PREF_PASSWORD_QUESTION)
+          .remove(PREF_PASSWORD_ANSWER)
+          .remove("settings_password_access")
+          .commit();
+    } else {
+      Prefs.edit().putString(PREF_PASSWORD, passwordRekey.getNewPassword()).commit();
+    }
+    DecryptedContentCache.clear();
+    dbHelper.finishPasswordRekey();
+    LogDelegate.i("Locked notes re-encryption completed (" + processed + " notes)");
+  }
+
 }
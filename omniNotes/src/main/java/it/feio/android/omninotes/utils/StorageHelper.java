@@ -28,6 +28,7 @@ import android.webkit.MimeTypeMap;
 import android.widget.Toast;
 import it.feio.android.omninotes.OmniNotes;
 import it.feio.android.omninotes.R;
+import it.feio.android.omninotes.db.DbHelper;
 import it.feio.android.omninotes.exceptions.unchecked.ExternalDirectoryCreationException;
 import it.feio.android.omninotes.helpers.LogDelegate;
 import it.feio.android.omninotes.models.Attachment;
@@ -42,14 +43,23 @@ import java.security.InvalidParameterException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import lombok.experimental.UtilityClass;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
 
 @UtilityClass
 public class StorageHelper {
 
+  // Files of attachments store are named by the SHA-256 of their content, and keep their extension
+  private static final Pattern STORED_ATTACHMENT_NAME = Pattern.compile("[0-9a-f]{64}(\\..*)?");
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+  // Stored files handed out more recently are not released, as their attachments may be unsaved
+  static final long STORED_FILE_GRACE_PERIOD = TimeUnit.DAYS.toMillis(1);
+
   public static boolean checkStorage() {
     boolean mExternalStorageAvailable;
     boolean mExternalStorageWriteable;
@@ -256,6 +266,102 @@ public class StorageHelper {
     return createNewAttachmentFile(mContext, null);
   }
 
+
+  /**
+   * Moves a new attachment file into attachments store, where identical files are kept only once
+   *
+   * @return Stored file, or the given one if it's not into attachments folder or can't be stored
+   */
+  public static File storeAttachmentFile(File file) {
+    return storeAttachmentFile(file, false);
+  }
+
+
+  /**
+   * Stores an attachment file naming it by its content hash. If an identical file is already stored
+   * that one is returned and the given file is not copied. Unless the source is kept, returned file
+   * is touched, so it's not released until the attachment using it has been saved.
+   *
+   * @param keepSource Copies the file instead of moving it, so that attachments using it are never
+   *                   left without file if they can't be updated. Already stored files are not
+   *                   touched, since backups and thumbnails rely on their modification time.
+   * @return Stored file, or the given one if it's not into attachments folder or can't be stored
+   */
+  public static File storeAttachmentFile(File file, boolean keepSource) {
+    if (file != null && file.isFile() && isStoredAttachmentFile(file)) {
+      if (!keepSource) {
+        synchronized (StorageHelper.class) {
+          touch(file);
+        }
+      }
+      return file;
+    }
+    if (file == null || !file.isFile() || !getAttachmentDir().equals(file.getParentFile())) {
+      return file;
+    }
+    try {
+      String extension = FilenameUtils.getExtension(file.getName());
+      File storedFile = new File(getAttachmentDir(),
+          HashHelper.sha256(file) + (extension.isEmpty() ? "" : "." + extension));
+      synchronized (StorageHelper.class) {
+        if (storedFile.exists()) {
+          if (!keepSource) {
+            FileUtils.deleteQuietly(file);
+          }
+        } else if (keepSource) {
+          // Copied under another name first, so that a partial file is never taken as stored
+          File tempFile = new File(storedFile.getPath() + TEMP_FILE_SUFFIX);
+          FileUtils.copyFile(file, tempFile);
+          FileUtils.moveFile(tempFile, storedFile);
+        } else {
+          FileUtils.moveFile(file, storedFile);
+        }
+        if (!keepSource) {
+          touch(storedFile);
+        }
+      }
+      return storedFile;
+    } catch (IOException e) {
+      LogDelegate.e("Error storing attachment file " + file, e);
+      return file;
+    }
+  }
+
+
+  public static boolean isStoredAttachmentFile(File file) {
+    return getAttachmentDir().equals(file.getParentFile())
+        && STORED_ATTACHMENT_NAME.matcher(file.getName()).matches();
+  }
+
+
+  private static void touch(File storedFile) {
+    if (!storedFile.setLastModified(Calendar.getInstance().getTimeInMillis())) {
+      LogDelegate.w("Can't touch stored attachment file " + storedFile);
+    }
+  }
+
+
+  /**
+   * Deletes an attachment file when no attachment uses it anymore, as stored files are shared.
+   * Check and deletion are done under the same lock of storing, and stored files recently handed
+   * out are kept, leaving them to garbage collection if they're not used at the end.
+   */
+  public static boolean releaseAttachmentFile(Context mContext, Uri uri) {
+    File file = new File(uri.getPath());
+    synchronized (StorageHelper.class) {
+      if (DbHelper.getInstance().getAttachmentRefCount(uri.toString()) > 0) {
+        LogDelegate.d("Attachment file still used: " + uri);
+        return false;
+      }
+      if (isStoredAttachmentFile(file) && file.lastModified()
+          > Calendar.getInstance().getTimeInMillis() - STORED_FILE_GRACE_PERIOD) {
+        LogDelegate.d("Attachment file recently stored: " + uri);
+        return false;
+      }
+      return file.exists() && delete(mContext, uri.getPath());
+    }
+  }
+
   /**
    * Create a path where we will place our private file on external
    */
@@ -368,7 +474,8 @@ public class StorageHelper {
       }
       return size;
     } else {
-      return 0;
+      // Single file backups
+      return directory.isFile() ? directory.length() : 0;
     }
   }
 
@@ -449,9 +556,14 @@ public class StorageHelper {
       } catch (IOException e) {
         LogDelegate.e("Can't move file " + uri.getPath());
       }
+    } else if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())
+        && isStoredAttachmentFile(new File(uri.getPath()))) {
+      // Already stored files, as the ones of notes merged, are shared instead of copied
+      f = new File(uri.getPath());
     } else {
       f = StorageHelper.createExternalStoragePrivateFile(mContext, uri, extension);
     }
+    f = storeAttachmentFile(f);
     Attachment mAttachment = null;
     if (f != null) {
       mAttachment = new Attachment(Uri.fromFile(f),
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2013-2022 Federico Iosue (federico@iosue.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.feio.android.omninotes.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+import it.feio.android.omninotes.helpers.LogDelegate;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Set;
+import lombok.experimental.UtilityClass;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Two levels cache of attachments thumbnails, shared by widgets, notifications and shortcuts.
+ * Thumbnails are kept in memory and written into cache folder, keyed by attachment and size bucket,
+ * so that each one is decoded from attachment file only once. Cache folder is bounded in size,
+ * least recently used thumbnails being deleted first. Placeholders of attachments without preview
+ * are kept only in memory, as they're decoded from resources.
+ */
+@UtilityClass
+public final class ThumbnailCache {
+
+  // Sizes thumbnails are generated at, requested ones are rounded up to the nearest
+  static final int[] SIZE_BUCKETS = {64, 128, 256, 512};
+  // Cache size is measured in bytes
+  private static final int MAX_SIZE = (int) (Runtime.getRuntime().maxMemory() / 32);
+  private static final String DISK_CACHE_DIR = "thumbnails";
+  private static final String DISK_CACHE_EXTENSION = ".png";
+  private static final String PLACEHOLDER_KEY_PREFIX = "placeholder_";
+  // Cache folder size, in bytes
+  static final long DISK_MAX_SIZE = 16L * 1024 * 1024;
+
+  private static final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(MAX_SIZE) {
+    @Override
+    protected int sizeOf(String key, Bitmap value) {
+      return value.getByteCount();
+    }
+  };
+
+
+  /**
+   * @return Smallest size bucket fitting the given size, or the size itself if it's bigger than all
+   */
+  public static int getSizeBucket(int size) {
+    for (int sizeBucket : SIZE_BUCKETS) {
+      if (sizeBucket >= size) {
+        return sizeBucket;
+      }
+    }
+    return size;
+  }
+
+
+  /**
+   * Retrieves thumbnail of an attachment from memory or, if missing, from disk
+   *
+   * @param sourceLastModified Last modification of attachment file, thumbnails written before are
+   *                           not valid anymore
+   * @return Thumbnail or null if it's not cached
+   */
+  public static Bitmap get(Context context, long attachmentId, int sizeBucket,
+      long sourceLastModified) {
+    String key = getKey(attachmentId, sizeBucket);
+    Bitmap thumbnail = cache.get(key);
+    File diskCacheDir = getDiskCacheDir(context);
+    if (thumbnail == null && diskCacheDir != null) {
+      File thumbnailFile = new File(diskCacheDir, key + DISK_CACHE_EXTENSION);
+      if (thumbnailFile.lastModified() >= sourceLastModified) {
+        thumbnail = BitmapFactory.decodeFile(thumbnailFile.getPath());
+      }
+      if (thumbnail != null) {
+        cache.put(key, thumbnail);
+        // Last modification tracks usage, so that cache folder is trimmed in LRU order
+        thumbnailFile.setLastModified(System.currentTimeMillis());
+      }
+    }
+    return thumbnail;
+  }
+
+
+  /**
+   * Stores thumbnail of an attachment into memory and disk. File is written under a temporary name
+   * first, so that a partial one is never read.
+   */
+  public static void put(Context context, long attachmentId, int sizeBucket, Bitmap thumbnail) {
+    String key = getKey(attachmentId, sizeBucket);
+    cache.put(key, thumbnail);
+    File diskCacheDir = getDiskCacheDir(context);
+    if (diskCacheDir == null) {
+      return;
+    }
+    File tempFile = null;
+    try {
+      tempFile = File.createTempFile(key, null, diskCacheDir);
+      try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+        thumbnail.compress(CompressFormat.PNG, 100, outputStream);
+      }
+      File thumbnailFile = new File(diskCacheDir, key + DISK_CACHE_EXTENSION);
+      if (!tempFile.renameTo(thumbnailFile)) {
+        throw new IOException("Can't rename " + tempFile + " to " + thumbnailFile);
+      }
+    } catch (IOException e) {
+      LogDelegate.w("Error writing thumbnail " + key, e);
+      FileUtils.deleteQuietly(tempFile);
+    }
+    trimDiskCache(diskCacheDir, DISK_MAX_SIZE);
+  }
+
+
+  /**
+   * Deletes least recently used thumbnails files until cache folder fits the given size
+   */
+  static synchronized void trimDiskCache(File diskCacheDir, long maxSize) {
+    File[] thumbnailsFiles = diskCacheDir.listFiles();
+    if (thumbnailsFiles == null) {
+      return;
+    }
+    long size = 0;
+    for (File thumbnailFile : thumbnailsFiles) {
+      size += thumbnailFile.length();
+    }
+    if (size <= maxSize) {
+      return;
+    }
+    Arrays.sort(thumbnailsFiles, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+    for (int i = 0; i < thumbnailsFiles.length && size > maxSize; i++) {
+      size -= thumbnailsFiles[i].length();
+      FileUtils.deleteQuietly(thumbnailsFiles[i]);
+    }
+  }
+
+
+  public static Bitmap getPlaceholder(int resourceId, int sizeBucket) {
+    return cache.get(getPlaceholderKey(resourceId, sizeBucket));
+  }
+
+
+  public static void putPlaceholder(int resourceId, int sizeBucket, Bitmap placeholder) {
+    cache.put(getPlaceholderKey(resourceId, sizeBucket), placeholder);
+  }
+
+
+  /**
+   * Removes all thumbnails of an attachment, as when it's deleted or replaced by an edited sketch
+   */
+  public static void invalidate(Context context, long attachmentId) {
+    String keyPrefix = attachmentId + "_";
+    for (String key : cache.snapshot().keySet()) {
+      if (key.startsWith(keyPrefix)) {
+        cache.remove(key);
+      }
+    }
+    File diskCacheDir = getDiskCacheDir(context);
+    File[] thumbnailsFiles = diskCacheDir != null
+        ? diskCacheDir.listFiles((dir, name) -> name.startsWith(keyPrefix))
+        : null;
+    if (thumbnailsFiles != null) {
+      for (File thumbnailFile : thumbnailsFiles) {
+        FileUtils.deleteQuietly(thumbnailFile);
+      }
+    }
+  }
+
+
+  /**
+   * Removes thumbnails, from both memory and disk, of attachments not between the given ones, as
+   * the ones of attachments deleted without passing through the app (ie. by garbage collection)
+   */
+  public static void retainAll(Context context, Set<Long> attachmentsIds) {
+    for (String key : cache.snapshot().keySet()) {
+      if (!isThumbnailOf(key, attachmentsIds)) {
+        cache.remove(key);
+      }
+    }
+    File diskCacheDir = getDiskCacheDir(context);
+    File[] thumbnailsFiles = diskCacheDir != null
+        ? diskCacheDir.listFiles((dir, name) -> !isThumbnailOf(name, attachmentsIds))
+        : null;
+    if (thumbnailsFiles != null) {
+      for (File thumbnailFile : thumbnailsFiles) {
+        FileUtils.deleteQuietly(thumbnailFile);
+      }
+    }
+  }
+
+
+  /**
+   * Removes all thumbnails from memory, disk ones are kept
+   */
+  public static void clear() {
+    cache.evictAll();
+  }
+
+
+  /**
+   * Removes all thumbnails from both memory and disk, as after a restore replacing attachments
+   */
+  public static void clear(Context context) {
+    clear();
+    File diskCacheDir = getDiskCacheDir(context);
+    if (diskCacheDir != null) {
+      FileUtils.deleteQuietly(diskCacheDir);
+    }
+  }
+
+
+  /**
+   * Placeholders are not bound to attachments, so they're always kept
+   */
+  private static boolean isThumbnailOf(String key, Set<Long> attachmentsIds) {
+    if (key.startsWith(PLACEHOLDER_KEY_PREFIX)) {
+      return true;
+    }
+    int separatorIndex = key.indexOf('_');
+    try {
+      return separatorIndex > 0
+          && attachmentsIds.contains(Long.parseLong(key.substring(0, separatorIndex)));
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+
+  private static String getKey(long attachmentId, int sizeBucket) {
+    return attachmentId + "_" + sizeBucket;
+  }
+
+
+  private static String getPlaceholderKey(int resourceId, int sizeBucket) {
+    return PLACEHOLDER_KEY_PREFIX + resourceId + "_" + sizeBucket;
+  }
+
+
+  private static File getDiskCacheDir(Context context) {
+    File cacheDir = context.getExternalCacheDir();
+    if (cacheDir == null) {
+      return null;
+    }
+    File diskCacheDir = new File(cacheDir, DISK_CACHE_DIR);
+    return diskCacheDir.isDirectory() || diskCacheDir.mkdirs() ? diskCacheDir : null;
+  }
+
+}
@@ -77,15 +77,14 @@ public class WidgetConfigurationActivity extends Activity {
 
       if (mRadioGroup.getCheckedRadioButtonId() == R.id.widget_config_notes) {
         sqlCondition =
-            " WHERE " + DbHelper.KEY_ARCHIVED + " IS NOT 1 AND " + DbHelper.KEY_TRASHED + " IS" +
-                " NOT 1 ";
+            " WHERE " + DbHelper.KEY_ARCHIVED + " = 0 AND " + DbHelper.KEY_TRASHED + " = 0 ";
 
       } else {
         Category tag = (Category) categorySpinner.getSelectedItem();
         sqlCondition = " WHERE " + DbHelper.TABLE_NOTES + "."
             + DbHelper.KEY_CATEGORY + " = " + tag.getId()
-            + " AND " + DbHelper.KEY_ARCHIVED + " IS NOT 1"
-            + " AND " + DbHelper.KEY_TRASHED + " IS NOT 1";
+            + " AND " + DbHelper.KEY_ARCHIVED + " = 0"
+            + " AND " + DbHelper.KEY_TRASHED + " = 0";
       }
 
       CheckBox showThumbnailsCheckBox = findViewById(R.id.show_thumbnails);